@@ -0,0 +1,146 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.pdf.PdfDocument;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how many tiles per second a {@link PDFDatasource} renders depending on the number of threads requesting
+ * tiles. For each thread count from one up to the number of cores the same set of tiles, spread over the pages of a
+ * generated document, is rendered. The caches are not involved. The results are written to the log.
+ * <p>
+ * pdfium renders one page at a time, so more threads are not expected to render faster. The benchmark shows how much
+ * the work around the rendering, like allocating the bitmaps, overlaps with it. Needs a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PdfRenderBenchmark {
+
+	private static final String TAG = PdfRenderBenchmark.class.getSimpleName();
+
+	private static final TextureSize TILE_SIZE = new TextureSize(512, 512);
+
+	private static final int PAGES = 32;
+	private static final int PAGE_WIDTH = 595;
+	private static final int PAGE_HEIGHT = 842;
+	private static final int TILES_PER_MEASURE = 64;
+
+	private Context ctx;
+	private File document;
+
+	@Before
+	public void setUp() throws IOException {
+		ctx = InstrumentationRegistry.getTargetContext();
+		document = new File(ctx.getCacheDir(), "render-benchmark.pdf");
+
+		final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setTextSize(12);
+
+		final PdfDocument pdf = new PdfDocument();
+		try (FileOutputStream out = new FileOutputStream(document)) {
+			for (int i = 0; i < PAGES; i++) {
+				final PdfDocument.Page page = pdf.startPage(new PdfDocument.PageInfo.Builder(PAGE_WIDTH, PAGE_HEIGHT,
+						i).create());
+				final Canvas canvas = page.getCanvas();
+
+				// Text fills the page, so rendering it takes about as long as for a real document.
+				for (int y = 20; y < PAGE_HEIGHT; y += 14) {
+					canvas.drawText("Page " + i + ", the quick brown fox jumps over the lazy dog " + y, 20, y, paint);
+				}
+				pdf.finishPage(page);
+			}
+			pdf.writeTo(out);
+		} finally {
+			pdf.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		document.delete();
+	}
+
+	@Test
+	public void measureTilesPerSecond() throws IOException {
+		final int maxThreads = Runtime.getRuntime().availableProcessors();
+
+		for (int threadCount = 1; threadCount <= maxThreads; threadCount++) {
+			final float tilesPerSecond = measure(Uri.fromFile(document), threadCount, TILES_PER_MEASURE);
+
+			Log.i(TAG, String.format(Locale.US, "Threads: %d, tiles/s: %.1f", threadCount, tilesPerSecond));
+			assertTrue(tilesPerSecond > 0);
+		}
+	}
+
+	private float measure(Uri file, int threadCount, int tileCount) throws IOException {
+
+		final BitmapPool bitmapPool = new BitmapPool(threadCount);
+		final PDFDatasource datasource = new PDFDatasource(file, ctx, bitmapPool);
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+		final List<Callable<Void>> jobs = new ArrayList<>();
+		final int pageCount = datasource.getPageCount();
+
+		for (int i = 0; i < tileCount; i++) {
+			// Walk through the pages and tile rows so no two jobs render the same tile.
+			final ReadPosition position = new ReadPosition(i % pageCount, 0,
+					(i / pageCount) * TILE_SIZE.getHeight());
+
+			jobs.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					final Bitmap bitmap = datasource.getTextureBitmap(position, 1f, TILE_SIZE);
+					bitmapPool.release(bitmap);
+					return null;
+				}
+			});
+		}
+
+		try {
+			final long start = SystemClock.elapsedRealtime();
+
+			for (Future<Void> result : executor.invokeAll(jobs)) {
+				result.get();
+			}
+
+			final long duration = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+			return tileCount * 1000f / duration;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Benchmark was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error while rendering a tile.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			datasource.close();
+			bitmapPool.clear();
+		}
+	}
+}
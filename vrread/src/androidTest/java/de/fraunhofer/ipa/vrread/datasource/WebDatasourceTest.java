@@ -0,0 +1,96 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads a local HTML fixture into a {@link WebDatasource}. Needs a device, as the page is rendered by a real web view.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WebDatasourceTest {
+
+	private static final String FIXTURE = "<!DOCTYPE html><html><head><style>" +
+			"body { margin: 0; background: #fff; }" +
+			"#top { height: 200px; background: #000; }" +
+			"#rest { height: 1800px; }" +
+			"</style></head><body><div id=\"top\"></div><div id=\"rest\"></div></body></html>";
+
+	private static final TextureSize TILE_SIZE = new TextureSize(256, 256);
+
+	private File fixture;
+	private BitmapPool bitmapPool;
+	private WebDatasource datasource;
+
+	@Before
+	public void setUp() throws IOException {
+		final Context ctx = InstrumentationRegistry.getTargetContext();
+
+		fixture = new File(ctx.getCacheDir(), "web-fixture.html");
+		try (FileOutputStream out = new FileOutputStream(fixture)) {
+			out.write(FIXTURE.getBytes(Charset.forName("UTF-8")));
+		}
+
+		bitmapPool = new BitmapPool();
+		datasource = new WebDatasource(Uri.fromFile(fixture), ctx, bitmapPool);
+	}
+
+	@After
+	public void tearDown() {
+		datasource.close();
+		fixture.delete();
+	}
+
+	@Test
+	public void capturesLoadedPage() {
+		final Bitmap tile = datasource.getTextureBitmap(new ReadPosition(0, 0, 0), 1f, TILE_SIZE);
+
+		assertEquals(TILE_SIZE.getWidth(), tile.getWidth());
+		assertEquals(Color.BLACK, tile.getPixel(10, 10));
+	}
+
+	@Test
+	public void knowsHeightAfterLoading() {
+		datasource.getTextureBitmap(new ReadPosition(0, 0, 0), 1f, TILE_SIZE);
+
+		final int height = datasource.getPageHeight(0, 1f);
+
+		assertTrue(height >= 2000);
+		assertTrue(datasource.isInsidePage(new ReadPosition(0, 0, height - 1), 1f));
+		assertFalse(datasource.isInsidePage(new ReadPosition(0, 0, height + 1), 1f));
+	}
+
+	@Test
+	public void isNotCachedOnDisk() {
+		assertTrue(datasource instanceof VolatileDatasource);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedSourceReturnsNoTile() {
+		datasource.close();
+		datasource.getTextureBitmap(new ReadPosition(0, 0, 0), 1f, TILE_SIZE);
+	}
+
+	@Test
+	public void closeTwiceHasNoEffect() {
+		datasource.close();
+		datasource.close();
+	}
+}
@@ -118,6 +118,16 @@ public class AppSettings {
 		return Integer.parseInt(helperlinePosStr);
 	}
 
+	/**
+	 * Returns if the pages of a document should be shown below each other so the user can scroll across the page
+	 * boundaries.
+	 *
+	 * @return TRUE if continuous scrolling is enabled.
+	 */
+	public boolean isContinuousScroll() {
+		return sharedPrefs.getBoolean(getKey(R.string.key_pref_continuous_scroll), false);
+	}
+
 	/**
 	 * Returns TRUE if this is the first run of the application. After calling this method once. It will never return
 	 * true again until the apps preferences are deleted.
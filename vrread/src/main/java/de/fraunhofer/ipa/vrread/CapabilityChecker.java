@@ -50,18 +50,25 @@ public class CapabilityChecker implements DialogInterface.OnDismissListener {
 	 */
 	public void notifyNotAllFeatures() {
 		if(!hasNeededFeatures()) {
+			showMissingFeatures();
+		}
+	}
 
-			AlertDialog.Builder builder = new AlertDialog.Builder(ctx);
+	/**
+	 * Informs the user that the device does not meet all requirements. The app is terminated when the dialog is
+	 * dismissed. Must be called on the UI thread.
+	 */
+	public void showMissingFeatures() {
+		AlertDialog.Builder builder = new AlertDialog.Builder(ctx);
 
-			builder.setMessage(R.string.device_misses_features)
-					.setTitle(R.string.attention)
-					.setPositiveButton(android.R.string.ok, null);
+		builder.setMessage(R.string.device_misses_features)
+				.setTitle(R.string.attention)
+				.setPositiveButton(android.R.string.ok, null);
 
-			builder.setOnDismissListener(this);
+		builder.setOnDismissListener(this);
 
-			AlertDialog dialog = builder.create();
-			dialog.show();
-		}
+		AlertDialog dialog = builder.create();
+		dialog.show();
 	}
 
 	/**
@@ -0,0 +1,76 @@
+package de.fraunhofer.ipa.vrread;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Records when the phases of the start of the reader are reached, so the time until the first readable frame can be
+ * followed in the log. The phases run on different threads in parallel, each is only recorded the first time it is
+ * reached.
+ */
+public class StartupTrace {
+
+	private static final String TAG = StartupTrace.class.getSimpleName();
+
+	public enum Phase {
+		/**
+		 * The activity has set up its views and the renderer.
+		 */
+		ACTIVITY_CREATED,
+
+		/**
+		 * The document was opened and its first pages were indexed.
+		 */
+		DOCUMENT_OPENED,
+
+		/**
+		 * The EGL surface was created.
+		 */
+		SURFACE_CREATED,
+
+		/**
+		 * The shaders of all layers were compiled.
+		 */
+		SHADERS_COMPILED,
+
+		/**
+		 * The first frame in which all layers show their content was drawn.
+		 */
+		FIRST_READABLE_FRAME
+	}
+
+	private final long startTime = SystemClock.elapsedRealtime();
+	private final Map<Phase, Long> phaseTimes = new EnumMap<>(Phase.class);
+
+	/**
+	 * Records that a phase was reached. Later calls for the same phase are ignored. This method can be called from
+	 * any thread.
+	 *
+	 * @param phase The phase which was reached.
+	 */
+	public synchronized void mark(Phase phase) {
+		if (phaseTimes.containsKey(phase)) {
+			return;
+		}
+
+		final long elapsed = SystemClock.elapsedRealtime() - startTime;
+		phaseTimes.put(phase, elapsed);
+
+		Log.i(TAG, String.format("%s after %d ms on %s", phase, elapsed, Thread.currentThread().getName()));
+
+		if (phase == Phase.FIRST_READABLE_FRAME) {
+			Log.i(TAG, "Startup phases: " + phaseTimes);
+		}
+	}
+
+	/**
+	 * @param phase The phase to check.
+	 * @return TRUE if the phase was reached.
+	 */
+	public synchronized boolean isMarked(Phase phase) {
+		return phaseTimes.containsKey(phase);
+	}
+}
@@ -2,6 +2,7 @@ package de.fraunhofer.ipa.vrread.control;
 
 import android.util.Log;
 
+import de.fraunhofer.ipa.vrread.datasource.TileRenderer;
 import de.fraunhofer.ipa.vrread.graphics.layer.ScrollingTextLayer;
 
 /**
@@ -16,10 +17,11 @@ public class HeadGestureReadController extends ReadController {
 	private final String TAG = HeadGestureReadController.class.getSimpleName();
 
 	/**
-	 * @param textLayer The textlayer to work upon when receiving the movement commands.
+	 * @param textLayer    The textlayer to work upon when receiving the movement commands.
+	 * @param tileRenderer The renderer which creates the textures in the background.
 	 */
-	public HeadGestureReadController(ScrollingTextLayer textLayer) {
-		super(textLayer);
+	public HeadGestureReadController(ScrollingTextLayer textLayer, TileRenderer tileRenderer) {
+		super(textLayer, tileRenderer);
 	}
 
 	/**
@@ -32,6 +34,11 @@ public class HeadGestureReadController extends ReadController {
 	public void onHeadGesture(HeadGesture gesture, float speedFactor) {
 		Log.d(TAG, String.format("Recognized head gesture: %s", gesture));
 
+		if (!hasDatasource()) {
+			// The document is still opening.
+			return;
+		}
+
 		switch(gesture) {
 			case LOOK_DOWN:
 				down(speedFactor);
@@ -47,7 +54,10 @@ public class HeadGestureReadController extends ReadController {
 				break;
 			default:
 				Log.e(TAG, "Direction is not known.");
-				break;
+				return;
 		}
+
+		// Prepare the tiles we will need next in this direction.
+		prefetch(gesture, speedFactor);
 	}
 }
@@ -1,26 +1,37 @@
 package de.fraunhofer.ipa.vrread.control;
 
-import android.graphics.Bitmap;
 import android.util.Log;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 import de.fraunhofer.ipa.vrread.datasource.Datasource;
-import de.fraunhofer.ipa.vrread.datasource.PDFDatasource;
 import de.fraunhofer.ipa.vrread.datasource.ReadPosition;
-import de.fraunhofer.ipa.vrread.datasource.TextureSize;
+import de.fraunhofer.ipa.vrread.datasource.Tile;
+import de.fraunhofer.ipa.vrread.datasource.TileRenderer;
+import de.fraunhofer.ipa.vrread.datasource.TileRequest;
+import de.fraunhofer.ipa.vrread.graphics.layer.GlyphLayer;
 import de.fraunhofer.ipa.vrread.graphics.layer.ScrollingTextLayer;
+import de.fraunhofer.ipa.vrread.graphics.layer.TileGrid;
 
 
 /**
  * The read controller is holding the current reading position and reacts upon control requests. It will calculate a new
- * reading position, see if it can just correct the visual appearance at the shader or if it needs to send a whole new
- * texture to the the rendering shader.
+ * reading position, see if it can just correct the visual appearance at the shader or if it needs to send new tiles
+ * to the the rendering shader. The text layer keeps a mosaic of tiles around the read position which is described by
+ * a {@link TileGrid}. All movements share the same addressing: when the grid shifts only the tiles entering it are
+ * requested. They are rendered in the background by a {@link TileRenderer} so the render loop is
+ * never blocked by the datasource.
+ * <p>
+ * While the user dwells at the edge of a page the tiles of the neighbour page are staged inside the text layer, so the
+ * page switch does not have to wait for them.
+ * <p>
+ * Text sources are displayed by a {@link GlyphLayer} instead, which only needs the read position.
  * <p>
  * Created by Thomas Felix on 23.02.2017.
  */
 
-public class ReadController {
+public class ReadController implements TileRenderer.OnTileRenderedListener {
 
 	private final static String TAG = ReadController.class.getSimpleName();
 
@@ -34,11 +45,49 @@ public class ReadController {
 	// Base speed of the application.
 	private final static float BASE_VELOCITY = 25f;
 
-	// We sometimes need this size in order to calculate read distances.
-	private final int textureSize;
+	// Layout of the tile mosaic. Tiles are always requested at multiples of its cell size.
+	private final TileGrid tileGrid;
 
 	private final ScrollingTextLayer textLayer;
-	private Datasource datasource;
+	private final TileRenderer tileRenderer;
+	private final TilePrefetcher prefetcher;
+	/**
+	 * Set on the render thread once the document was opened, null until then.
+	 */
+	private volatile Datasource datasource;
+	private GlyphLayer glyphLayer;
+
+	/**
+	 * The last tile requested for each slot of the tile grid.
+	 */
+	private final TileRequest[] cellRequests;
+
+	/**
+	 * The requests for the tiles of the staged neighbour page and the position which is shown when switching to it.
+	 */
+	private final TileRequest[] stagingRequests;
+	private ReadPosition stagedPosition;
+
+	private final TileRenderer.OnTileRenderedListener stagingListener = new TileRenderer.OnTileRenderedListener() {
+		@Override
+		public void onTileRendered(TileRequest request, Tile tile) {
+			textLayer.setStagedTexture(tile);
+		}
+	};
+
+	private final ScrollingTextLayer.OnContentLostListener contentLostListener =
+			new ScrollingTextLayer.OnContentLostListener() {
+				@Override
+				public void onContentLost() {
+					// The requests were delivered into the lost textures, so the tiles are requested again.
+					cancelCellRequests();
+					cancelStaging();
+
+					if (datasource != null && glyphLayer == null) {
+						requestGridTiles();
+					}
+				}
+			};
 
 	private long lastRenderTime = System.currentTimeMillis();
 
@@ -46,33 +95,74 @@ public class ReadController {
 	private float scale = 1f;
 	private ReadPosition currentReadPosition;
 	private ReadPosition tempReadPosition = new ReadPosition();
-	private ReadPosition lastRenderPosition = new ReadPosition();
 	private float distance;
 	private int nextPageDelayCounter = 0;
 	private int scrollSpeedFactor = 1;
 
 	/**
-	 * @param textLayer The textlayer to work upon when receiving the movement commands.
+	 * @param textLayer    The textlayer to work upon when receiving the movement commands.
+	 * @param tileRenderer The renderer which creates the textures in the background.
 	 */
-	ReadController(ScrollingTextLayer textLayer) {
+	ReadController(ScrollingTextLayer textLayer, TileRenderer tileRenderer) {
 
 		this.textLayer = Objects.requireNonNull(textLayer);
+		this.tileRenderer = Objects.requireNonNull(tileRenderer);
 		this.currentReadPosition = new ReadPosition(0, 0, 0);
 
-		if (textLayer.getTextureSize().getHeight() != textLayer.getTextureSize().getWidth()) {
-			throw new IllegalArgumentException("Currently only qudratic texture sizes are supported.");
-		}
+		tileGrid = textLayer.getTileGrid();
+		cellRequests = new TileRequest[tileGrid.getGridSize() * tileGrid.getGridSize()];
+		stagingRequests = new TileRequest[cellRequests.length];
+		prefetcher = new TilePrefetcher(tileRenderer, tileGrid);
 
-		textureSize = textLayer.getTextureSize().getHeight();
+		textLayer.setOnContentLostListener(contentLostListener);
 	}
 
 	/**
-	 * Sets the datasource to a new one. This will usually reset the current reading position.
+	 * Sets the datasource to a new one. This will usually reset the current reading position. Must be called on the
+	 * render thread, which moves the reading position as well.
 	 *
 	 * @param datasource The new datasource which will be queried for rendered textures.
 	 */
 	public void setDatasource(Datasource datasource) {
 		this.datasource = datasource;
+		tileRenderer.setDatasource(datasource);
+		prefetcher.cancel();
+		cancelCellRequests();
+		cancelStaging();
+	}
+
+	/**
+	 * Displays the document via a glyph layer instead of tiles. While it is set no tiles are requested and the
+	 * boundaries of the document are taken from its text layout. Must be called on the render thread.
+	 *
+	 * @param glyphLayer The layer displaying the text or null to display tiles again.
+	 */
+	public void setGlyphLayer(GlyphLayer glyphLayer) {
+		this.glyphLayer = glyphLayer;
+
+		if (glyphLayer != null) {
+			prefetcher.cancel();
+			cancelCellRequests();
+			cancelStaging();
+		}
+	}
+
+	/**
+	 * @return TRUE if a document was set. As long as none is set all movement is ignored.
+	 */
+	public boolean hasDatasource() {
+		return datasource != null;
+	}
+
+	/**
+	 * Stops the background rendering of textures. The controller must not be used afterwards.
+	 */
+	public void shutdown() {
+		tileRenderer.shutdown();
+
+		if (glyphLayer != null) {
+			glyphLayer.shutdown();
+		}
 	}
 
 	/**
@@ -104,71 +194,77 @@ public class ReadController {
 		distance = BASE_VELOCITY * scrollSpeedFactor * externalSpeedFactor * renderDelay / 1000f;
 	}
 
-	void up(float speedFactor) {
+	/**
+	 * Starts a movement step which is shared by all directions. It calculates the distance to move.
+	 *
+	 * @param speedFactor The external speed factor.
+	 * @return FALSE if no step should be performed in this frame.
+	 */
+	private boolean startMovement(float speedFactor) {
 
 		if (!shouldRenderFrame()) {
-			return;
+			return false;
+		}
+
+		if (!isPageSizeKnown(currentReadPosition.getPage())) {
+			// The boundaries of the page are not known before it is laid out or prepared.
+			return false;
 		}
 
 		calculateMovedDistance(speedFactor);
 
 		lastRenderTime = System.currentTimeMillis();
 
-		float newY = currentReadPosition.getY() - distance;
-		float texDistance = textLayer.getY() - distance / textureSize;
+		return true;
+	}
+
+	void up(float speedFactor) {
+		if (!startMovement(speedFactor)) {
+			return;
+		}
+
+		double newY = currentReadPosition.getY() - distance;
 
 		tempReadPosition.set(currentReadPosition);
 		tempReadPosition.setY(newY);
 
 		currentReadPosition.setY(newY);
 
-		if (texDistance > 0) {
-			textLayer.setY(texDistance);
-		} else {
+		if (currentReadPosition.getY() <= 0.01) {
 			// Start of page reached do nothing.
-			if (currentReadPosition.getY() <= 0.01) {
-				nextPageDelayCounter++;
-				if (nextPageDelayCounter > NUM_CALLS_PAGE_CHANGE) {
-					previousPage();
-					nextPageDelayCounter = 0;
-				}
-				return;
+			nextPageDelayCounter++;
+			if (nextPageDelayCounter == 1) {
+				stagePreviousPage();
 			}
-
-			// Reached and of tex. Render new.
-			// 1024 * 0.5 = 512. Thats the new y coordiante of the the new texture.
-			ReadPosition newPos = new ReadPosition(currentReadPosition.getPage(),
-					lastRenderPosition.getX(),
-					lastRenderPosition.getY() - textureSize / 2);
-			createTexture(newPos);
-			textLayer.setY(0.5f);
+			if (nextPageDelayCounter > NUM_CALLS_PAGE_CHANGE &&
+					isPageSizeKnown(currentReadPosition.getPage() - 1)) {
+				// The bottom of the previous page can only be shown once its height is known, until then it waits.
+				previousPage();
+				nextPageDelayCounter = 0;
+			}
+			return;
 		}
 
-		Log.d(TAG, String.format("RPosX: %.3f, RPosY: %.3f, TPosX: %.3f, TPosY: %.3f",
-				currentReadPosition.getX(),
-				currentReadPosition.getY(),
-				textLayer.getX(),
-				textLayer.getY()));
+		leavePageEdge();
+		updateTextLayer();
 	}
 
 	void down(float speedFactor) {
-
-		if (!shouldRenderFrame()) {
+		if (!startMovement(speedFactor)) {
 			return;
 		}
 
-		calculateMovedDistance(speedFactor);
-
-		lastRenderTime = System.currentTimeMillis();
-
-		float newY = currentReadPosition.getY() + distance;
+		double newY = currentReadPosition.getY() + distance;
 
 		tempReadPosition.set(currentReadPosition);
 		//tempReadPosition.setY(newY + textureSize / 4);
 		tempReadPosition.setY(newY);
 
-		if (!datasource.isInsidePage(tempReadPosition, scale)) {
+		if (!isInsidePage(tempReadPosition)) {
 			nextPageDelayCounter++;
+			if (nextPageDelayCounter == 1) {
+				stageNextPage();
+			}
 			if (nextPageDelayCounter > NUM_CALLS_PAGE_CHANGE) {
 				nextPage();
 				nextPageDelayCounter = 0;
@@ -176,77 +272,29 @@ public class ReadController {
 			return;
 		}
 
+		leavePageEdge();
 		currentReadPosition.setY(newY);
 
-		float newShaderY = textLayer.getY() + distance / textureSize;
-
-		if (newShaderY < 0.5) {
-			textLayer.setY(newShaderY);
-		} else {
-			// Reached and of tex. Render new.
-			ReadPosition newPos = new ReadPosition(currentReadPosition.getPage(),
-					lastRenderPosition.getX(),
-					currentReadPosition.getY());
-			createTexture(newPos);
-			textLayer.setY(0);
-		}
-
-		Log.d(TAG, String.format("RPosX: %.3f, RPosY: %.3f, TPosX: %.3f, TPosY: %.3f",
-				currentReadPosition.getX(),
-				currentReadPosition.getY(),
-				textLayer.getX(),
-				textLayer.getY()));
+		updateTextLayer();
 	}
 
 	void left(float speedFactor) {
-		if (!shouldRenderFrame()) {
+		if (!startMovement(speedFactor)) {
 			return;
 		}
 
-		calculateMovedDistance(speedFactor);
-
-		lastRenderTime = System.currentTimeMillis();
-
-		final float newX = currentReadPosition.getX() - distance;
+		final double newX = currentReadPosition.getX() - distance;
 		currentReadPosition.setX(newX);
 
-		float newShaderX = textLayer.getX() - distance / textureSize;
-
-		if (newShaderX > 0) {
-			textLayer.setX(newShaderX);
-		} else {
-
-			// Start of page reached do nothing.
-			if (currentReadPosition.getX() <= 0.01) {
-				return;
-			}
-
-			// Reached and of tex. Render new.
-			ReadPosition newPosTex = new ReadPosition(currentReadPosition.getPage(),
-					currentReadPosition.getX() - textureSize / 2,
-					lastRenderPosition.getY());
-			createTexture(newPosTex);
-			textLayer.setX(0.5f);
-		}
-
-		Log.d(TAG, String.format("RPosX: %.3f, RPosY: %.3f, TPosX: %.3f, TPosY: %.3f",
-				currentReadPosition.getX(),
-				currentReadPosition.getY(),
-				textLayer.getX(),
-				textLayer.getY()));
+		updateTextLayer();
 	}
 
 	void right(float speedFactor) {
-		if (!shouldRenderFrame()) {
+		if (!startMovement(speedFactor)) {
 			return;
 		}
 
-		calculateMovedDistance(speedFactor);
-
-		lastRenderTime = System.currentTimeMillis();
-
-		float newX = currentReadPosition.getX() + distance;
-		float newShaderX = textLayer.getX() + distance / textureSize;
+		double newX = currentReadPosition.getX() + distance;
 
 		tempReadPosition.set(currentReadPosition);
 		// Dive by 2 so we get 1/4 tex size overshoot to the border of
@@ -254,22 +302,29 @@ public class ReadController {
 		//tempReadPosition.setX(newX + textureSize / 4);
 		tempReadPosition.setX(newX);
 
-		if (!datasource.isInsidePage(tempReadPosition, scale)) {
+		if (!isInsidePage(tempReadPosition)) {
 			return;
 		}
 
 		currentReadPosition.setX(newX);
 
-		if (newShaderX < 0.5) {
-			textLayer.setX(newShaderX);
-		} else {
-			// Reached and of tex. Render new.
-			ReadPosition newPos = new ReadPosition(currentReadPosition.getPage(), currentReadPosition.getX(),
-					lastRenderPosition.getY());
-			createTexture(newPos);
-			textLayer.setX(0);
+		updateTextLayer();
+	}
+
+	/**
+	 * Hands the current read position to the text layer which will derive the texture offset from it. The tiles the
+	 * layer needs to display this position are requested if they were not already.
+	 */
+	private void updateTextLayer() {
+
+		if (glyphLayer != null) {
+			glyphLayer.setReadPosition(currentReadPosition, scale);
+			return;
 		}
 
+		requestGridTiles();
+		textLayer.setReadPosition(currentReadPosition);
+
 		Log.d(TAG, String.format("RPosX: %.3f, RPosY: %.3f, TPosX: %.3f, TPosY: %.3f",
 				currentReadPosition.getX(),
 				currentReadPosition.getY(),
@@ -277,30 +332,252 @@ public class ReadController {
 				textLayer.getY()));
 	}
 
-	private void createTexture(ReadPosition texturePosition) {
+	/**
+	 * Checks if the boundaries of a page are known. If not the page is laid out or prepared in the background, so
+	 * asking again later succeeds.
+	 *
+	 * @param page The index of the page, pages before the first one count as known.
+	 * @return FALSE while the boundaries of the page are not known yet.
+	 */
+	private boolean isPageSizeKnown(int page) {
+		if (page < 0) {
+			return true;
+		}
+		if (glyphLayer != null) {
+			if (glyphLayer.isPageReady(page)) {
+				return true;
+			}
+			glyphLayer.preparePage(page);
+			return false;
+		}
+		return datasource.getPageHeight(page, scale) != Datasource.UNKNOWN_SIZE;
+	}
+
+	private boolean isInsidePage(ReadPosition position) {
+		if (glyphLayer != null) {
+			return glyphLayer.isInsideText(position, scale);
+		}
+		return datasource.isInsidePage(position, scale);
+	}
+
+	/**
+	 * Requests the tiles of the grid around the current read position. The tiles covered by the visible area are
+	 * requested first, so they are rendered before the rest of the grid. When the grid shifts over a cell border only
+	 * the row or column of tiles entering the grid is requested, the other cells of the atlas stay as they are.
+	 */
+	private void requestGridTiles() {
+
+		final int page = currentReadPosition.getPage();
+		final double readX = currentReadPosition.getX();
+		final double readY = currentReadPosition.getY();
+
+		for (int cellY = tileGrid.getFirstVisibleCell(readY); cellY <= tileGrid.getLastVisibleCell(readY); cellY++) {
+			for (int cellX = tileGrid.getFirstVisibleCell(readX); cellX <= tileGrid.getLastVisibleCell(readX);
+				 cellX++) {
+				requestTile(page, cellX, cellY);
+			}
+		}
+
+		final int firstCellX = tileGrid.getFirstGridCell(readX);
+		final int firstCellY = tileGrid.getFirstGridCell(readY);
+
+		for (int cellY = firstCellY; cellY < firstCellY + tileGrid.getGridSize(); cellY++) {
+			for (int cellX = firstCellX; cellX < firstCellX + tileGrid.getGridSize(); cellX++) {
+				if (cellX >= 0 && cellY >= 0) {
+					requestTile(page, cellX, cellY);
+				} else {
+					// Nothing to show before the page start. Forget about the previous tile of the slot, so it is
+					// requested again in case the text layer dropped it.
+					cancelSlot(tileGrid.getSlot(cellX, cellY));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the rendering of a tile at the tile renderer. The text layer keeps showing its current texture until the
+	 * tile is ready. A tile which was requested before for the same slot of the grid and is not yet delivered is
+	 * cancelled.
+	 *
+	 * @param page  The page of the tile.
+	 * @param cellX The x index of the tile.
+	 * @param cellY The y index of the tile.
+	 */
+	private void requestTile(int page, int cellX, int cellY) {
+
+		final int slot = tileGrid.getSlot(cellX, cellY);
+		final TileRequest previous = cellRequests[slot];
 
-		final int halfTextSize = (textureSize / 2);
+		if (previous != null && !previous.isCancelled() &&
+				tileGrid.isTileOfCell(previous.getPosition(), page, cellX, cellY)) {
+			// This tile was already requested.
+			return;
+		}
 
-		// Make sure next tex patch is increment of 512.
-		final int y = (int) texturePosition.getY() / halfTextSize;
-		texturePosition.setY(halfTextSize * y);
+		if (previous != null) {
+			previous.cancel();
+		}
 
-		final int x = (int) texturePosition.getX() / halfTextSize;
-		texturePosition.setX(halfTextSize * x);
+		final ReadPosition tilePosition = tileGrid.getTilePosition(page, cellX, cellY);
 
 		Log.d(TAG, String.format("Create Tex nextTexPos: %.1f %.1f, readPos: %.1f %.1f textLayer: %.1f %.1f",
-				texturePosition.getX(),
-				texturePosition.getY(),
+				tilePosition.getX(),
+				tilePosition.getY(),
 				currentReadPosition.getX(),
 				currentReadPosition.getY(),
 				textLayer.getX(),
 				textLayer.getY()));
 
-		lastRenderPosition.set(texturePosition);
+		cellRequests[slot] = tileRenderer.requestTile(tilePosition, scale, tileGrid.getCellTextureSize(), this);
+	}
+
+	private void cancelCellRequests() {
+		for (int i = 0; i < cellRequests.length; i++) {
+			cancelSlot(i);
+		}
+	}
+
+	private void cancelSlot(int slot) {
+		if (cellRequests[slot] != null) {
+			cellRequests[slot].cancel();
+			cellRequests[slot] = null;
+		}
+	}
+
+	/**
+	 * Stages the tiles which are visible after switching to the next page.
+	 */
+	private void stageNextPage() {
+		final int nextPage = currentReadPosition.getPage() + 1;
+
+		if (nextPage < datasource.getPageCount()) {
+			stagePage(new ReadPosition(nextPage, 0, 0));
+		}
+	}
+
+	/**
+	 * Stages the tiles which are visible after switching to the previous page.
+	 */
+	private void stagePreviousPage() {
+		final int previousPage = currentReadPosition.getPage() - 1;
+
+		if (previousPage >= 0 && isPageSizeKnown(previousPage)) {
+			stagePage(new ReadPosition(previousPage, 0, getLastPageY(previousPage)));
+		}
+	}
+
+	/**
+	 * @param page The page.
+	 * @return The y position at which the bottom of the page is visible.
+	 */
+	private double getLastPageY(int page) {
+		final int pageHeight = glyphLayer != null ? glyphLayer.getTextHeight(page, scale) :
+				datasource.getPageHeight(page, scale);
+		return Math.max(0, pageHeight - tileGrid.getCellSize());
+	}
+
+	/**
+	 * Requests the tiles of the visible area at the given position for staging inside the text layer.
+	 *
+	 * @param position The position which is displayed after the page switch.
+	 */
+	private void stagePage(ReadPosition position) {
+
+		cancelStaging();
+
+		if (glyphLayer != null) {
+			glyphLayer.preparePage(position.getPage());
+			return;
+		}
+
+		stagedPosition = position;
+		textLayer.stagePage(position.getPage());
+
+		final double readX = position.getX();
+		final double readY = position.getY();
+
+		for (int cellY = tileGrid.getFirstVisibleCell(readY); cellY <= tileGrid.getLastVisibleCell(readY); cellY++) {
+			for (int cellX = tileGrid.getFirstVisibleCell(readX); cellX <= tileGrid.getLastVisibleCell(readX);
+				 cellX++) {
+				final ReadPosition tilePosition = tileGrid.getTilePosition(position.getPage(), cellX, cellY);
+
+				stagingRequests[tileGrid.getSlot(cellX, cellY)] = tileRenderer.requestTile(tilePosition, scale,
+						tileGrid.getCellTextureSize(), stagingListener);
+			}
+		}
+	}
+
+	/**
+	 * Stops the staging of a neighbour page when the user moves away from the page edge.
+	 */
+	private void leavePageEdge() {
+		if (nextPageDelayCounter > 0) {
+			nextPageDelayCounter = 0;
+			cancelStaging();
+		}
+	}
+
+	private void cancelStaging() {
+		for (int i = 0; i < stagingRequests.length; i++) {
+			if (stagingRequests[i] != null) {
+				stagingRequests[i].cancel();
+				stagingRequests[i] = null;
+			}
+		}
 
-		final TextureSize texSize = textLayer.getTextureSize();
-		final Bitmap bitmap = datasource.getTextureBitmap(texturePosition, scale, texSize);
-		textLayer.setTexture(bitmap);
+		if (stagedPosition != null) {
+			textLayer.stagePage(-1);
+			stagedPosition = null;
+		}
+	}
+
+	/**
+	 * Moves the read position to another page. If this page was staged its tile requests are taken over, so they are
+	 * not requested again, and the text layer displays the staged tiles right away.
+	 *
+	 * @param page The new page.
+	 * @param x    The new x position.
+	 * @param y    The new y position.
+	 */
+	private void switchPage(int page, double x, double y) {
+
+		currentReadPosition.setPage(page);
+		currentReadPosition.setX(x);
+		currentReadPosition.setY(y);
+
+		if (stagedPosition != null && stagedPosition.getPage() == page && stagedPosition.getX() == x &&
+				stagedPosition.getY() == y) {
+			cancelCellRequests();
+			System.arraycopy(stagingRequests, 0, cellRequests, 0, cellRequests.length);
+
+			// The text layer keeps the staged tiles until it displays them.
+			Arrays.fill(stagingRequests, null);
+			stagedPosition = null;
+		} else {
+			cancelStaging();
+		}
+
+		updateTextLayer();
+	}
+
+	/**
+	 * Renders the next tiles in the direction of the movement ahead of time so crossing the border of the current
+	 * texture does not need to wait for the datasource.
+	 *
+	 * @param gesture     The direction the user is moving.
+	 * @param speedFactor The speed of the movement.
+	 */
+	void prefetch(HeadGesture gesture, float speedFactor) {
+		if (datasource == null || glyphLayer != null) {
+			return;
+		}
+
+		prefetcher.prefetch(gesture, speedFactor, currentReadPosition, scale, datasource);
+	}
+
+	@Override
+	public void onTileRendered(TileRequest request, Tile tile) {
+		textLayer.setTexture(tile);
 	}
 
 	ReadPosition getCurrentReadPosition() {
@@ -312,54 +589,31 @@ public class ReadController {
 	 */
 	void nextPage() {
 		if (currentReadPosition.getPage() + 1 < datasource.getPageCount()) {
-			currentReadPosition.setPage(currentReadPosition.getPage() + 1);
 			// Set to top left position.
-			currentReadPosition.setY(0);
-			currentReadPosition.setX(0);
-			textLayer.setX(0);
-			textLayer.setY(0);
-
-			createTexture(currentReadPosition);
+			switchPage(currentReadPosition.getPage() + 1, 0, 0);
 		}
 	}
 
 	/**
-	 * Manually switch to the previous page.
+	 * Manually switch to the previous page. The bottom of the page is shown.
 	 */
 	void previousPage() {
 		if (currentReadPosition.getPage() - 1 >= 0) {
 
 			final int previousPage = currentReadPosition.getPage() - 1;
 
-			final int pageHeight = ((PDFDatasource)datasource).getPageHeight(previousPage, scale);
-
-			currentReadPosition.setPage(previousPage);
-			currentReadPosition.setY(pageHeight);
-			currentReadPosition.setX(0);
-
-			ReadPosition newTexPos = new ReadPosition(
-					previousPage,
-					currentReadPosition.getX(),
-					currentReadPosition.getY());
-
-			textLayer.setY(0.5f);
-			createTexture(newTexPos);
+			switchPage(previousPage, 0, getLastPageY(previousPage));
 		}
 	}
 
 	/**
-	 * Go to a specific page.
+	 * Go to a specific page. Does nothing as long as no document was set. Must be called on the render thread.
 	 *
 	 * @param page The page to jump to.
 	 */
 	public void gotoPage(int page) {
-		if (page >= 0 && page < datasource.getPageCount()) {
-			currentReadPosition.setPage(page);
-			currentReadPosition.setY(0);
-			currentReadPosition.setX(0);
-			textLayer.setX(0);
-			textLayer.setY(0);
-			createTexture(currentReadPosition);
+		if (datasource != null && page >= 0 && page < datasource.getPageCount()) {
+			switchPage(page, 0, 0);
 		}
 	}
 
@@ -0,0 +1,139 @@
+package de.fraunhofer.ipa.vrread.control;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import de.fraunhofer.ipa.vrread.datasource.Datasource;
+import de.fraunhofer.ipa.vrread.datasource.ReadPosition;
+import de.fraunhofer.ipa.vrread.datasource.TileRenderer;
+import de.fraunhofer.ipa.vrread.datasource.TileRequest;
+import de.fraunhofer.ipa.vrread.graphics.layer.TileGrid;
+
+/**
+ * Renders the tiles the user will most likely need next ahead of time. Depending on the direction of the head gesture
+ * the row or column of tiles which enters the {@link TileGrid} next along the reading direction is prefetched into the
+ * tile cache. If the user moves fast the row after that is prefetched as well. When the grid then shifts the tiles are
+ * taken from the cache.
+ */
+class TilePrefetcher {
+
+	private static final String TAG = TilePrefetcher.class.getSimpleName();
+
+	/**
+	 * Above this speed factor two tiles are prefetched instead of one.
+	 */
+	private static final float FAST_SPEED_FACTOR = 0.5f;
+
+	private final TileRenderer tileRenderer;
+	private final TileGrid tileGrid;
+
+	private final List<TileRequest> pendingRequests = new ArrayList<>();
+	private final List<ReadPosition> candidates = new ArrayList<>();
+
+	/**
+	 * @param tileRenderer The renderer which renders the tiles into its cache.
+	 * @param tileGrid     The grid of tiles which is kept around the read position.
+	 */
+	TilePrefetcher(TileRenderer tileRenderer, TileGrid tileGrid) {
+
+		this.tileRenderer = Objects.requireNonNull(tileRenderer);
+		this.tileGrid = Objects.requireNonNull(tileGrid);
+	}
+
+	/**
+	 * Prefetches the tiles in the direction of the gesture. If these tiles are already requested nothing happens,
+	 * otherwise outdated prefetch requests are cancelled.
+	 *
+	 * @param gesture      The current head gesture.
+	 * @param speedFactor  The speed factor of the gesture between 0 and 1.
+	 * @param readPosition The current read position.
+	 * @param scale        The scale of the textures.
+	 * @param datasource   The datasource to check the page boundaries with.
+	 */
+	void prefetch(HeadGesture gesture, float speedFactor, ReadPosition readPosition, float scale,
+				  Datasource datasource) {
+
+		final int count = speedFactor > FAST_SPEED_FACTOR ? 2 : 1;
+		final int gridSize = tileGrid.getGridSize();
+		final int firstCellX = tileGrid.getFirstGridCell(readPosition.getX());
+		final int firstCellY = tileGrid.getFirstGridCell(readPosition.getY());
+
+		candidates.clear();
+
+		for (int i = 1; i <= count; i++) {
+			for (int j = 0; j < gridSize; j++) {
+				int cellX = firstCellX + j;
+				int cellY = firstCellY + j;
+
+				switch (gesture) {
+					case LOOK_DOWN:
+						cellY = firstCellY + gridSize - 1 + i;
+						break;
+					case LOOK_UP:
+						cellY = firstCellY - i;
+						break;
+					case LOOK_LEFT:
+						cellX = firstCellX - i;
+						break;
+					case LOOK_RIGHT:
+						cellX = firstCellX + gridSize - 1 + i;
+						break;
+				}
+
+				if (cellX < 0 || cellY < 0) {
+					continue;
+				}
+
+				final ReadPosition candidate = tileGrid.getTilePosition(readPosition.getPage(), cellX, cellY);
+
+				if (!datasource.isInsidePage(candidate, scale)) {
+					continue;
+				}
+
+				candidates.add(candidate);
+			}
+		}
+
+		if (isAlreadyRequested(candidates)) {
+			return;
+		}
+
+		cancel();
+
+		for (ReadPosition candidate : candidates) {
+			Log.d(TAG, "Prefetching tile: " + candidate);
+			pendingRequests.add(tileRenderer.prefetchTile(candidate, scale, tileGrid.getCellTextureSize()));
+		}
+	}
+
+	/**
+	 * Cancels all pending prefetch requests.
+	 */
+	void cancel() {
+		for (TileRequest request : pendingRequests) {
+			request.cancel();
+		}
+		pendingRequests.clear();
+	}
+
+	private boolean isAlreadyRequested(List<ReadPosition> positions) {
+
+		if (positions.size() != pendingRequests.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < positions.size(); i++) {
+			final ReadPosition a = positions.get(i);
+			final ReadPosition b = pendingRequests.get(i).getPosition();
+
+			if (a.getPage() != b.getPage() || a.getX() != b.getX() || a.getY() != b.getY()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
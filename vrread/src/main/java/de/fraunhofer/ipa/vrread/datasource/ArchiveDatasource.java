@@ -0,0 +1,402 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads scanned books packaged as ZIP archive, e.g. comic book archives (CBZ). Every image inside the archive is one
+ * page, the pages are ordered by their file names.
+ * <p>
+ * Opening the archive only reads its central directory via a {@link ZipIndex}, no page is unpacked or decoded up
+ * front. A page is unpacked when it is needed the first time and kept as {@link BitmapRegionDecoder}, so tiles only
+ * decode the part of the page they cover, see {@link RegionTileDecoder}. The decoders of the last used pages are
+ * kept, the neighbours of a page which is read are prepared in the background so turning the page does not wait for
+ * unpacking. The size of a page is only known after it was prepared, it is never unpacked on the render thread.
+ */
+public class ArchiveDatasource implements Datasource {
+
+	private static final String TAG = ArchiveDatasource.class.getSimpleName();
+
+	/**
+	 * Number of pages whose decoders are kept. The current page, its neighbours and some slack for going back.
+	 */
+	private static final int CACHED_PAGES = 5;
+
+	/**
+	 * Number of pages before and after the read page which are prepared in the background.
+	 */
+	private static final int PREFETCH_DISTANCE = 1;
+
+	private static final List<String> IMAGE_EXTENSIONS = Arrays.asList(".jpg", ".jpeg", ".png", ".webp", ".gif",
+			".bmp");
+
+	/**
+	 * Orders file names like a human would, so "page2.jpg" comes before "page10.jpg".
+	 */
+	private static final Comparator<ZipIndex.Entry> NATURAL_ORDER = new Comparator<ZipIndex.Entry>() {
+		@Override
+		public int compare(ZipIndex.Entry lhs, ZipIndex.Entry rhs) {
+			final String a = lhs.getName().toLowerCase(Locale.ROOT);
+			final String b = rhs.getName().toLowerCase(Locale.ROOT);
+
+			int i = 0;
+			int j = 0;
+			while (i < a.length() && j < b.length()) {
+				final char ca = a.charAt(i);
+				final char cb = b.charAt(j);
+
+				if (Character.isDigit(ca) && Character.isDigit(cb)) {
+					final int endA = skipDigits(a, i);
+					final int endB = skipDigits(b, j);
+
+					// Compare the numbers without leading zeros by length first, then digit by digit.
+					final String numberA = stripZeros(a.substring(i, endA));
+					final String numberB = stripZeros(b.substring(j, endB));
+					if (numberA.length() != numberB.length()) {
+						return numberA.length() - numberB.length();
+					}
+					final int result = numberA.compareTo(numberB);
+					if (result != 0) {
+						return result;
+					}
+
+					i = endA;
+					j = endB;
+				} else {
+					if (ca != cb) {
+						return ca - cb;
+					}
+					i++;
+					j++;
+				}
+			}
+
+			return (a.length() - i) - (b.length() - j);
+		}
+
+		private int skipDigits(String s, int start) {
+			int end = start;
+			while (end < s.length() && Character.isDigit(s.charAt(end))) {
+				end++;
+			}
+			return end;
+		}
+
+		private String stripZeros(String number) {
+			int start = 0;
+			while (start < number.length() - 1 && number.charAt(start) == '0') {
+				start++;
+			}
+			return number.substring(start);
+		}
+	};
+
+	private final String documentId;
+	private final BitmapPool bitmapPool;
+
+	private final ParcelFileDescriptor parcFile;
+	private final ZipIndex index;
+	private final List<ZipIndex.Entry> pages;
+
+	/**
+	 * Sizes of the pages which were prepared once. -1 if the page was not prepared yet, 0 if it could not be decoded.
+	 * Guarded by the page cache.
+	 */
+	private final int[] pageWidths;
+	private final int[] pageHeights;
+
+	/**
+	 * Pages which are queued for the background preparation. Guarded by the page cache.
+	 */
+	private final Set<Integer> pendingPages = new HashSet<>();
+
+	/**
+	 * The decoders of the last used pages. Evicted decoders are not recycled, a render thread might still decode a
+	 * tile from it. They are freed by the garbage collector.
+	 */
+	private final Map<Integer, BitmapRegionDecoder> pageCache =
+			new LinkedHashMap<Integer, BitmapRegionDecoder>(CACHED_PAGES + 1, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Entry<Integer, BitmapRegionDecoder> eldest) {
+					return size() > CACHED_PAGES;
+				}
+			};
+
+	private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, TAG + "-prefetch");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	/**
+	 * @param file       The URI of the archive.
+	 * @param context    The context to open the URI with.
+	 * @param bitmapPool The pool the bitmaps of the tiles are borrowed from.
+	 * @throws IOException If the archive could not be opened or contains no images.
+	 */
+	public ArchiveDatasource(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
+
+		final ContentResolver resolver = context.getContentResolver();
+		documentId = DocumentFingerprint.of(resolver, file);
+
+		parcFile = resolver.openFileDescriptor(file, "r");
+		if (parcFile == null) {
+			throw new IOException("Could not open given file URI.");
+		}
+
+		try {
+			// The channel shares the descriptor, which is closed together with the archive.
+			final FileChannel channel = new FileInputStream(parcFile.getFileDescriptor()).getChannel();
+			index = new ZipIndex(channel);
+		} catch (IOException | RuntimeException e) {
+			parcFile.close();
+			throw e;
+		}
+
+		final List<ZipIndex.Entry> images = new ArrayList<>();
+		for (ZipIndex.Entry entry : index.getEntries()) {
+			if (isImage(entry.getName())) {
+				images.add(entry);
+			}
+		}
+		Collections.sort(images, NATURAL_ORDER);
+		pages = Collections.unmodifiableList(images);
+
+		if (pages.isEmpty()) {
+			close();
+			throw new IOException("Archive contains no images.");
+		}
+
+		pageWidths = new int[pages.size()];
+		pageHeights = new int[pages.size()];
+		Arrays.fill(pageWidths, -1);
+		Arrays.fill(pageHeights, -1);
+
+		Log.d(TAG, String.format("Indexed archive with %d pages.", pages.size()));
+	}
+
+	public static String[] getSupportedMimeTypes() {
+		return new String[]{"application/zip", "application/x-cbz", "application/vnd.comicbook+zip"};
+	}
+
+	public static MagicSignature[] getSignatures() {
+		return new MagicSignature[]{MagicSignature.of(0, 'P', 'K', 0x03, 0x04)};
+	}
+
+	private static boolean isImage(String name) {
+		final String lowerName = name.toLowerCase(Locale.ROOT);
+
+		// Metadata of archives packed on a Mac.
+		if (lowerName.startsWith("__macosx/") || lowerName.contains("/._") || lowerName.startsWith("._")) {
+			return false;
+		}
+
+		for (String extension : IMAGE_EXTENSIONS) {
+			if (lowerName.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stops the background preparation and closes the archive. After this call the datasource must not be used
+	 * anymore.
+	 */
+	@Override
+	public void close() {
+		prefetcher.shutdownNow();
+
+		synchronized (pageCache) {
+			pageCache.clear();
+		}
+
+		try {
+			parcFile.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Could not close archive.", e);
+		}
+	}
+
+	/**
+	 * Returns the decoder of a page. If it is not cached the page is unpacked and its header is decoded.
+	 *
+	 * @param page The index of the page.
+	 * @return The decoder or null if the page could not be decoded.
+	 */
+	private BitmapRegionDecoder getDecoder(int page) {
+
+		synchronized (pageCache) {
+			final BitmapRegionDecoder cached = pageCache.get(page);
+			if (cached != null || pageWidths[page] == 0) {
+				return cached;
+			}
+		}
+
+		// Unpack outside of the lock so other pages can be served meanwhile. Rarely a page might be prepared twice.
+		BitmapRegionDecoder decoder = null;
+		try {
+			final byte[] data = index.read(pages.get(page));
+			decoder = BitmapRegionDecoder.newInstance(new ByteArrayInputStream(data), false);
+		} catch (IOException e) {
+			Log.e(TAG, "Could not decode page " + pages.get(page).getName(), e);
+		}
+
+		synchronized (pageCache) {
+			final BitmapRegionDecoder cached = pageCache.get(page);
+			if (cached != null) {
+				return cached;
+			}
+
+			if (decoder == null) {
+				pageWidths[page] = 0;
+				pageHeights[page] = 0;
+			} else {
+				pageWidths[page] = decoder.getWidth();
+				pageHeights[page] = decoder.getHeight();
+				pageCache.put(page, decoder);
+			}
+			return decoder;
+		}
+	}
+
+	/**
+	 * Prepares the neighbours of a page in the background.
+	 *
+	 * @param page The page which is read.
+	 */
+	private void prefetchNeighbours(final int page) {
+		for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+			prefetch(page + distance);
+			prefetch(page - distance);
+		}
+	}
+
+	private void prefetch(final int page) {
+		if (page < 0 || page >= pages.size()) {
+			return;
+		}
+
+		synchronized (pageCache) {
+			if (pageCache.containsKey(page) || pageWidths[page] == 0 || !pendingPages.add(page)) {
+				return;
+			}
+		}
+
+		try {
+			prefetcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						getDecoder(page);
+					} finally {
+						synchronized (pageCache) {
+							pendingPages.remove(page);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Datasource was closed in the meantime.
+		}
+	}
+
+	@Override
+	public Bitmap getTextureBitmap(ReadPosition position, float scale, TextureSize size) {
+
+		final int page = position.getPage();
+		final BitmapRegionDecoder decoder = getDecoder(page);
+		prefetchNeighbours(page);
+
+		if (decoder == null) {
+			// The page is broken, show it empty instead of failing the whole document.
+			return bitmapPool.acquire(size, Bitmap.Config.ARGB_8888);
+		}
+
+		return RegionTileDecoder.decodeTile(decoder, bitmapPool, position, scale, size);
+	}
+
+	@Override
+	public int getPageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * The size of a page is known once it was prepared. This is called on the render thread, so a page which was never
+	 * prepared is not unpacked here but queued for the background preparation. Until then every position counts as
+	 * inside the page, the reader does not move on it anyway as its height is unknown.
+	 */
+	@Override
+	public boolean isInsidePage(ReadPosition tempReadPosition, float scale) {
+		final int page = tempReadPosition.getPage();
+
+		final int width;
+		final int height;
+		synchronized (pageCache) {
+			width = pageWidths[page];
+			height = pageHeights[page];
+		}
+
+		if (width < 0) {
+			prefetch(page);
+			return true;
+		}
+
+		return tempReadPosition.getX() / scale < width && tempReadPosition.getY() / scale < height;
+	}
+
+	/**
+	 * Answers {@link #UNKNOWN_SIZE} for a page which was not prepared yet and queues its preparation, see
+	 * {@link #isInsidePage(ReadPosition, float)}.
+	 */
+	@Override
+	public int getPageHeight(int page, float scale) {
+		final int height;
+		synchronized (pageCache) {
+			height = pageHeights[page];
+		}
+
+		if (height < 0) {
+			prefetch(page);
+			return UNKNOWN_SIZE;
+		}
+
+		return (int) (height * scale);
+	}
+
+	@Override
+	public String getDocumentId() {
+		return documentId;
+	}
+}
@@ -0,0 +1,156 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Pool of bitmaps which can be reused for rendering textures. Every texture is a big bitmap (4 MB for a 1024x1024
+ * ARGB texture), allocating a new one for each tile causes a lot of garbage collection while scrolling. Datasources
+ * borrow their bitmaps from this pool and the bitmaps are given back after they were uploaded to OpenGL.
+ */
+public class BitmapPool {
+
+	private static final String TAG = BitmapPool.class.getSimpleName();
+
+	/**
+	 * Maximum number of free bitmaps which are kept for each size and config.
+	 */
+	private static final int DEFAULT_MAX_FREE_PER_SIZE = 3;
+
+	private final int maxFreePerSize;
+	private final Map<String, ArrayDeque<Bitmap>> freeBitmaps = new HashMap<>();
+
+	private int allocationCount = 0;
+	private int reuseCount = 0;
+	private int dropCount = 0;
+
+	public BitmapPool() {
+		this(DEFAULT_MAX_FREE_PER_SIZE);
+	}
+
+	/**
+	 * @param maxFreePerSize The maximum number of free bitmaps kept for each size and config.
+	 */
+	public BitmapPool(int maxFreePerSize) {
+		if (maxFreePerSize < 0) {
+			throw new IllegalArgumentException("Pool size can not be negative.");
+		}
+
+		this.maxFreePerSize = maxFreePerSize;
+	}
+
+	private static String getKey(int width, int height, Bitmap.Config config) {
+		return width + "x" + height + ":" + config;
+	}
+
+	/**
+	 * Borrows a bitmap of the given size. The bitmap is cleared to be fully transparent. If no free bitmap is inside
+	 * the pool a new one is allocated.
+	 *
+	 * @param size   The size of the bitmap.
+	 * @param config The config of the bitmap.
+	 * @return A cleared bitmap of the requested size.
+	 */
+	public Bitmap acquire(TextureSize size, Bitmap.Config config) {
+
+		Bitmap bitmap = null;
+
+		synchronized (this) {
+			final ArrayDeque<Bitmap> free = freeBitmaps.get(getKey(size.getWidth(), size.getHeight(), config));
+
+			if (free != null) {
+				bitmap = free.poll();
+			}
+
+			if (bitmap != null) {
+				reuseCount++;
+			} else {
+				allocationCount++;
+			}
+		}
+
+		if (bitmap == null) {
+			return Bitmap.createBitmap(size.getWidth(), size.getHeight(), config);
+		}
+
+		bitmap.eraseColor(Color.TRANSPARENT);
+		return bitmap;
+	}
+
+	/**
+	 * Gives a bitmap back to the pool. It must not be used by the caller anymore. If the pool is already full the
+	 * bitmap is recycled.
+	 *
+	 * @param bitmap The bitmap to give back.
+	 */
+	public void release(Bitmap bitmap) {
+
+		if (bitmap.isRecycled()) {
+			return;
+		}
+
+		synchronized (this) {
+			final String key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+			ArrayDeque<Bitmap> free = freeBitmaps.get(key);
+
+			if (free == null) {
+				free = new ArrayDeque<>();
+				freeBitmaps.put(key, free);
+			}
+
+			if (bitmap.isMutable() && free.size() < maxFreePerSize) {
+				free.push(bitmap);
+				return;
+			}
+
+			dropCount++;
+		}
+
+		bitmap.recycle();
+	}
+
+	/**
+	 * Recycles all free bitmaps inside the pool.
+	 */
+	public synchronized void clear() {
+		for (ArrayDeque<Bitmap> free : freeBitmaps.values()) {
+			for (Bitmap bitmap : free) {
+				bitmap.recycle();
+			}
+		}
+		freeBitmaps.clear();
+	}
+
+	/**
+	 * @return The number of bitmaps which had to be newly allocated.
+	 */
+	public synchronized int getAllocationCount() {
+		return allocationCount;
+	}
+
+	/**
+	 * @return The number of allocations which were avoided by reusing a bitmap.
+	 */
+	public synchronized int getReuseCount() {
+		return reuseCount;
+	}
+
+	/**
+	 * Writes the current statistics of the pool to the log.
+	 */
+	public void logStatistics() {
+		Log.d(TAG, toString());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "BitmapPool[allocated: %d, reused: %d, dropped: %d]",
+				allocationCount, reuseCount, dropCount);
+	}
+}
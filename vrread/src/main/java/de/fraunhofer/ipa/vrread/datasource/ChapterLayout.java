@@ -0,0 +1,213 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Canvas;
+import android.os.Build;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reflowed layout of a chapter. The text is split into chunks of whole paragraphs which are laid out one after
+ * another, only as far as they are needed. So the first lines of even a long chapter can be shown right away.
+ * <p>
+ * Coordinates are in pixels of the layout, starting at the top of the first chunk.
+ * <p>
+ * Laying out and drawing is serialized, but the height and the estimate are published after every chunk, so they can be
+ * read without waiting for a chunk which is laid out meanwhile, e.g. on the render thread.
+ */
+class ChapterLayout {
+
+	/**
+	 * Minimum number of characters of a chunk. It is extended up to the end of the paragraph.
+	 */
+	private static final int CHUNK_CHARS = 2048;
+
+	/**
+	 * Text whose average advance is taken as the width of a character for the estimate.
+	 */
+	private static final String SAMPLE_TEXT = "The quick brown fox jumps over the lazy dog, then rests.";
+
+	private final CharSequence text;
+	private final TextPaint paint;
+	private final int width;
+
+	/**
+	 * Height of a character for the estimate, as long as nothing was laid out.
+	 */
+	private final float defaultHeightPerChar;
+
+	/**
+	 * Start of each chunk in the text, with the end of the text as the last entry.
+	 */
+	private final List<Integer> chunkStarts = new ArrayList<>();
+
+	/**
+	 * The chunks laid out so far and the top of each of them. Guarded by this.
+	 */
+	private final List<Layout> layouts = new ArrayList<>();
+	private final List<Integer> tops = new ArrayList<>();
+
+	/**
+	 * Published after every chunk.
+	 */
+	private volatile int laidOutHeight = 0;
+	private volatile int laidOutChars = 0;
+	private volatile boolean complete = false;
+
+	/**
+	 * @param text  The styled text of the chapter.
+	 * @param paint The paint to lay out and draw the text with. It is owned by the layout from now on.
+	 * @param width The width of the lines in pixels.
+	 */
+	ChapterLayout(CharSequence text, TextPaint paint, int width) {
+
+		if (width <= 0) {
+			throw new IllegalArgumentException("Width must be bigger then 0.");
+		}
+
+		this.text = text;
+		this.paint = paint;
+		this.width = width;
+		defaultHeightPerChar = estimateHeightPerChar(paint, width);
+
+		int start = 0;
+		chunkStarts.add(start);
+		while (start < text.length()) {
+			int end = Math.min(start + CHUNK_CHARS, text.length());
+			while (end < text.length() && text.charAt(end - 1) != '\n') {
+				end++;
+			}
+			chunkStarts.add(end);
+			start = end;
+		}
+
+		if (chunkStarts.size() == 1) {
+			// An empty chapter still has one empty chunk.
+			chunkStarts.add(0);
+		}
+	}
+
+	/**
+	 * Lays out chunks until the given position is covered or the chapter ends.
+	 *
+	 * @param y The position in pixels which must be laid out.
+	 */
+	synchronized void layoutUntil(float y) {
+		while (laidOutHeight <= y && !complete) {
+			final int chunk = layouts.size();
+			final CharSequence chunkText = text.subSequence(chunkStarts.get(chunk), chunkStarts.get(chunk + 1));
+
+			final Layout layout = createLayout(chunkText);
+			layouts.add(layout);
+			tops.add(laidOutHeight);
+
+			laidOutChars = chunkStarts.get(chunk + 1);
+			laidOutHeight += layout.getHeight();
+			complete = layouts.size() == chunkStarts.size() - 1;
+		}
+	}
+
+	private Layout createLayout(CharSequence chunkText) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			return StaticLayout.Builder.obtain(chunkText, 0, chunkText.length(), paint, width)
+					.setAlignment(Layout.Alignment.ALIGN_NORMAL)
+					.setLineSpacing(0f, 1f)
+					.setIncludePad(false)
+					.build();
+		}
+
+		return createLegacyLayout(chunkText);
+	}
+
+	@SuppressWarnings("deprecation")
+	private Layout createLegacyLayout(CharSequence chunkText) {
+		return new StaticLayout(chunkText, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+	}
+
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return The height of the chunks laid out so far.
+	 */
+	int getLaidOutHeight() {
+		return laidOutHeight;
+	}
+
+	/**
+	 * Estimates the height of the chapter. The part not laid out yet is extrapolated from the laid out part, so the
+	 * estimate is exact once the chapter is complete.
+	 *
+	 * @return The estimated height in pixels.
+	 */
+	int estimateHeight() {
+		final int chars = laidOutChars;
+		final int height = laidOutHeight;
+
+		if (complete) {
+			return laidOutHeight;
+		}
+
+		final float heightPerChar = chars == 0 ? defaultHeightPerChar : (float) height / chars;
+
+		return height + (int) Math.ceil((text.length() - chars) * heightPerChar);
+	}
+
+	/**
+	 * Estimates the height of a chapter which was not read yet.
+	 *
+	 * @param chars         The expected number of characters.
+	 * @param heightPerChar The height of a character, see {@link #estimateHeightPerChar(TextPaint, int)}.
+	 * @return The estimated height in pixels.
+	 */
+	static int estimateHeight(int chars, float heightPerChar) {
+		return (int) Math.ceil(chars * heightPerChar);
+	}
+
+	/**
+	 * Estimates the height a character adds to the text: the height of a line divided by the number of characters
+	 * which fit into it. The width of a character is the average advance of a sample text.
+	 *
+	 * @param paint The paint the text is laid out with.
+	 * @param width The width of the lines in pixels.
+	 * @return The height of a character in pixels.
+	 */
+	static float estimateHeightPerChar(TextPaint paint, int width) {
+		final float advance = Math.max(1f, paint.measureText(SAMPLE_TEXT) / SAMPLE_TEXT.length());
+		final float charsPerLine = Math.max(1f, width / advance);
+
+		return paint.getFontSpacing() / charsPerLine;
+	}
+
+	/**
+	 * Draws the chunks between the given positions. Chunks are laid out first if needed. Only the lines inside of
+	 * the clip of the canvas are drawn.
+	 * <p>
+	 * The layouts share their paint, so drawing is serialized.
+	 *
+	 * @param canvas The canvas, translated to the top of the chapter.
+	 * @param top    The top of the drawn area.
+	 * @param bottom The bottom of the drawn area.
+	 */
+	synchronized void draw(Canvas canvas, float top, float bottom) {
+		layoutUntil(bottom);
+
+		for (int i = 0; i < layouts.size(); i++) {
+			final Layout layout = layouts.get(i);
+			final int chunkTop = tops.get(i);
+
+			if (chunkTop + layout.getHeight() < top || chunkTop > bottom) {
+				continue;
+			}
+
+			canvas.save();
+			canvas.translate(0, chunkTop);
+			layout.draw(canvas);
+			canvas.restore();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Bitmap;
+
+import java.util.Objects;
+
+/**
+ * Shows a PDF document as one tall canvas with all pages placed below each other, so the reader can scroll across
+ * page boundaries without switching pages. The canvas is presented as a single page, the y coordinate of a
+ * {@link ReadPosition} is the offset from the top of the first page. Tiles which straddle a page boundary are composed
+ * from both pages.
+ * <p>
+ * The positions of the pages are taken from the {@link PageGeometry} of the PDF. While it is still built in the
+ * background the canvas ends at the last indexed page and grows as more pages are indexed.
+ */
+public class ContinuousDatasource implements ProgressiveDatasource {
+
+	private static final String DOCUMENT_ID_SUFFIX = "/continuous";
+
+	private final PDFDatasource pdfDatasource;
+	private final PageGeometry pageGeometry;
+
+	/**
+	 * @param pdfDatasource The PDF whose pages are placed on the canvas.
+	 */
+	public ContinuousDatasource(PDFDatasource pdfDatasource) {
+
+		this.pdfDatasource = Objects.requireNonNull(pdfDatasource);
+		this.pageGeometry = pdfDatasource.getPageGeometry();
+	}
+
+	/**
+	 * Closes the underlying PDF. After this call the datasource must not be used anymore.
+	 */
+	@Override
+	public void close() {
+		pdfDatasource.close();
+	}
+
+	@Override
+	public Bitmap getTextureBitmap(ReadPosition position, float scale, TextureSize size) {
+
+		final Bitmap bitmap = pdfDatasource.acquireBitmap(size);
+		composePages(bitmap, position, scale, size, 1, false);
+
+		return bitmap;
+	}
+
+	@Override
+	public Bitmap getPreviewBitmap(ReadPosition position, float scale, TextureSize size) {
+
+		final Bitmap preview = pdfDatasource.acquireBitmap(pdfDatasource.getPreviewSize(size));
+		composePages(preview, position, scale, size, PDFDatasource.PREVIEW_DOWNSCALE, true);
+
+		return pdfDatasource.upscalePreview(preview, size);
+	}
+
+	/**
+	 * Renders all pages which are touched by the tile into the bitmap. Each page only draws the part of the bitmap it
+	 * covers.
+	 */
+	private void composePages(Bitmap bitmap, ReadPosition position, float scale, TextureSize size, int downscale,
+							  boolean preview) {
+
+		final double top = position.getY() / scale;
+		final double bottom = (position.getY() + size.getHeight()) / scale;
+
+		// The tile might reach below the pages which are indexed so far.
+		while (!pageGeometry.isComplete() &&
+				pageGeometry.getPageOffset(pageGeometry.getIndexedPageCount()) < bottom) {
+			pdfDatasource.indexPages(pageGeometry.getIndexedPageCount() + 1);
+		}
+
+		final int pageCount = pageGeometry.getIndexedPageCount();
+
+		for (int page = pageGeometry.findPage(top);
+			 page >= 0 && page < pageCount && pageGeometry.getPageOffset(page) < bottom; page++) {
+
+			final double yInPage = position.getY() - pageGeometry.getPageOffset(page) * scale;
+			pdfDatasource.renderInto(bitmap, page, position.getX(), yInPage, scale, downscale, preview);
+		}
+	}
+
+	/**
+	 * @return Always 1, the whole document is one page.
+	 */
+	@Override
+	public int getPageCount() {
+		return 1;
+	}
+
+	@Override
+	public boolean isInsidePage(ReadPosition tempReadPosition, float scale) {
+
+		final double y = tempReadPosition.getY() / scale;
+
+		if (y < 0 || y >= getKnownHeight()) {
+			return false;
+		}
+
+		final int page = pageGeometry.findPage(y);
+		return tempReadPosition.getX() / scale < pageGeometry.getPageWidth(page);
+	}
+
+	@Override
+	public String getDocumentId() {
+		return pdfDatasource.getDocumentId() + DOCUMENT_ID_SUFFIX;
+	}
+
+	@Override
+	public int getPageHeight(int page, float scale) {
+		return (int) (getKnownHeight() * scale);
+	}
+
+	/**
+	 * @return The height of the canvas built from all pages indexed so far.
+	 */
+	private double getKnownHeight() {
+		return pageGeometry.getPageOffset(pageGeometry.getIndexedPageCount());
+	}
+}
@@ -9,6 +9,11 @@ import android.graphics.Bitmap;
  */
 public interface Datasource {
 
+	/**
+	 * Returned by {@link #getPageHeight(int, float)} for a page whose size is not known yet.
+	 */
+	int UNKNOWN_SIZE = -1;
+
 	/**
 	 * Returns a rendered bitmap for the given
 	 *
@@ -30,4 +35,29 @@ public interface Datasource {
 	int getPageCount();
 
 	boolean isInsidePage(ReadPosition tempReadPosition, float scale);
+
+	/**
+	 * Returns the height of a page at the given scale. Datasources which only learn the size of a page in the
+	 * background return {@link #UNKNOWN_SIZE} until it is known, this method must not block for it. The reader does not
+	 * move on a page of unknown size and does not turn to it.
+	 *
+	 * @param page  The index of the page.
+	 * @param scale The current scale level of the texture.
+	 * @return The height of the page in px or {@link #UNKNOWN_SIZE}.
+	 */
+	int getPageHeight(int page, float scale);
+
+	/**
+	 * Returns an identifier of the displayed document. Rendered textures of datasources with the same id are
+	 * considered equal so they can be cached.
+	 *
+	 * @return The id of the document.
+	 */
+	String getDocumentId();
+
+	/**
+	 * Releases the resources of the datasource, e.g. open files or background threads. After this call the
+	 * datasource must not be used anymore. Calling it again has no effect.
+	 */
+	void close();
 }
@@ -7,10 +7,13 @@ import android.webkit.MimeTypeMap;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Objects;
 
 /**
- * The {@link DatasourceFactory} creates datasources upon the given file URI.
+ * The {@link DatasourceFactory} creates datasources upon the given file URI. The kind of datasource is found via the
+ * {@link DatasourceRegistry}: the first bytes of the file are checked against the signatures of the known formats,
+ * only if none matches the mime type is used.
  * <p>
  * Created by tbf on 21.03.2017.
  */
@@ -20,20 +23,43 @@ public class DatasourceFactory {
 	private static final String TAG = DatasourceFactory.class.getSimpleName();
 
 	private final Context context;
+	private final BitmapPool bitmapPool;
+	private final DatasourceRegistry registry;
 
-	public DatasourceFactory(Context context) {
+	/**
+	 * @param context    The context used to open the files.
+	 * @param bitmapPool The pool the created datasources borrow their texture bitmaps from.
+	 */
+	public DatasourceFactory(Context context, BitmapPool bitmapPool) {
+		this(context, bitmapPool, DatasourceRegistry.createDefault());
+	}
+
+	/**
+	 * @param context    The context used to open the files.
+	 * @param bitmapPool The pool the created datasources borrow their texture bitmaps from.
+	 * @param registry   The registry of the available datasources.
+	 */
+	public DatasourceFactory(Context context, BitmapPool bitmapPool, DatasourceRegistry registry) {
 
 		this.context = Objects.requireNonNull(context);
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
+		this.registry = Objects.requireNonNull(registry);
 	}
 
 	/**
-	 * Returns the mime type of the given file url.
+	 * Returns the mime type of the given file uri. The content resolver knows the type of documents which were
+	 * picked, otherwise it is guessed from the file extension.
 	 *
-	 * @param url A url pointing to a file.
-	 * @return The mime type of this file.
+	 * @param fileUri A uri pointing to a file.
+	 * @return The mime type of this file or null if it is unknown.
 	 */
-	private String getMimeType(String url) {
-		String extension = MimeTypeMap.getFileExtensionFromUrl(url);
+	private String getMimeType(Uri fileUri) {
+		final String type = context.getContentResolver().getType(fileUri);
+		if (type != null) {
+			return type;
+		}
+
+		final String extension = MimeTypeMap.getFileExtensionFromUrl(new File(fileUri.getPath()).toString());
 		if (extension != null) {
 			return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
 		}
@@ -41,6 +67,32 @@ public class DatasourceFactory {
 		return null;
 	}
 
+	/**
+	 * Reads the first bytes of the file in one go, enough to check all signatures of the registry.
+	 *
+	 * @param fileUri The Uri of the file.
+	 * @param header  Is filled with the first bytes of the file.
+	 * @return The number of bytes read, less than the size of the header if the file is shorter.
+	 * @throws IOException If the file could not be read.
+	 */
+	private int readHeader(Uri fileUri, byte[] header) throws IOException {
+		try (InputStream in = context.getContentResolver().openInputStream(fileUri)) {
+			if (in == null) {
+				throw new IOException("Could not open given file URI.");
+			}
+
+			int length = 0;
+			while (length < header.length) {
+				final int count = in.read(header, length, header.length - length);
+				if (count < 0) {
+					break;
+				}
+				length += count;
+			}
+			return length;
+		}
+	}
+
 	/**
 	 * Creates a suitable datasource for the given file uri. If no suitable datasource could be found then null is
 	 * returned.
@@ -51,21 +103,43 @@ public class DatasourceFactory {
 	 */
 	public Datasource getDatasource(Uri fileUri) {
 
-		// Check which filetype is contained inside the uri.
-		final File file = new File(fileUri.getPath());
-		String mime = getMimeType(file.toString());
+		final DatasourceType type;
+		if (isWebUri(fileUri)) {
+			// Web pages can not be read through the content resolver.
+			type = registry.findType(null, 0, "text/html");
+		} else {
+			byte[] header = new byte[registry.getHeaderSize()];
+			int length = 0;
+			try {
+				length = readHeader(fileUri, header);
+			} catch (IOException e) {
+				Log.w(TAG, "Could not read file header, relying on mime type.", e);
+				header = null;
+			}
 
-		// We must check the mime type form the fileURI how is this done?
-		return createPDFSource(fileUri);
-	}
+			type = registry.findType(header, length, getMimeType(fileUri));
+		}
 
-	private PDFDatasource createPDFSource(Uri file) {
+		if (type == null) {
+			Log.e(TAG, "No datasource for file: " + fileUri);
+			return null;
+		}
 
 		try {
-			return new PDFDatasource(file, context);
+			Log.d(TAG, "Opening file as " + type);
+			return type.create(fileUri, context, bitmapPool);
 		} catch (IOException e) {
-			Log.e(TAG, "Could not open PDF file.", e);
+			Log.e(TAG, "Could not open file as " + type, e);
 			return null;
 		}
 	}
+
+	/**
+	 * @param uri The URI to check.
+	 * @return TRUE if the URI points to a web page, e.g. a link which was shared with the app.
+	 */
+	private static boolean isWebUri(Uri uri) {
+		final String scheme = uri.getScheme();
+		return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+	}
 }
@@ -0,0 +1,141 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.fraunhofer.ipa.vrread.AppSettings;
+
+/**
+ * Holds the known {@link DatasourceType}s and finds the type of a file. The content of a file is checked before its
+ * mime type, because the mime type is often only guessed from the file name or missing. Types are checked in the
+ * order they were registered, so more specific formats must be registered first, e.g. EPUB before ZIP.
+ */
+public class DatasourceRegistry {
+
+	private final List<DatasourceType> types = new ArrayList<>();
+	private int headerSize = 0;
+
+	/**
+	 * @return A registry with all datasources of the app.
+	 */
+	public static DatasourceRegistry createDefault() {
+		final DatasourceRegistry registry = new DatasourceRegistry();
+
+		registry.register(new DatasourceType("PDF", PDFDatasource.getSupportedMimeTypes(),
+				PDFDatasource.getSignatures()) {
+			@Override
+			public Datasource create(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+				return new PDFDatasource(file, context, bitmapPool);
+			}
+		});
+
+		registry.register(new DatasourceType("EPUB", EpubDatasource.getSupportedMimeTypes(),
+				EpubDatasource.getSignatures()) {
+			@Override
+			public Datasource create(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+				// The text is reflowed for the zoom the user reads with.
+				return new EpubDatasource(file, context, bitmapPool, new AppSettings(context).getZoomFactor());
+			}
+		});
+
+		registry.register(new DatasourceType("Archive", ArchiveDatasource.getSupportedMimeTypes(),
+				ArchiveDatasource.getSignatures()) {
+			@Override
+			public Datasource create(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+				return new ArchiveDatasource(file, context, bitmapPool);
+			}
+		});
+
+		registry.register(new DatasourceType("Image", ImageDatasource.getSupportedMimeTypes(),
+				ImageDatasource.getSignatures()) {
+			@Override
+			public Datasource create(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+				return new ImageDatasource(file, context, bitmapPool);
+			}
+		});
+
+		registry.register(new DatasourceType("Text", PlainTextDatasource.getSupportedMimeTypes(),
+				PlainTextDatasource.getSignatures()) {
+			@Override
+			public Datasource create(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+				return new PlainTextDatasource(file, context, bitmapPool);
+			}
+		});
+
+		registry.register(new DatasourceType("Web", WebDatasource.getSupportedMimeTypes(),
+				WebDatasource.getSignatures()) {
+			@Override
+			public Datasource create(Uri file, Context context, BitmapPool bitmapPool) {
+				return new WebDatasource(file, context, bitmapPool);
+			}
+		});
+
+		return registry;
+	}
+
+	/**
+	 * Adds a type. It is checked after all types registered before.
+	 *
+	 * @param type The type to add.
+	 */
+	public void register(DatasourceType type) {
+		types.add(type);
+		headerSize = Math.max(headerSize, type.getSignatureEnd());
+	}
+
+	public List<DatasourceType> getTypes() {
+		return Collections.unmodifiableList(types);
+	}
+
+	/**
+	 * @return The number of bytes from the start of a file which are needed to check all signatures.
+	 */
+	public int getHeaderSize() {
+		return headerSize;
+	}
+
+	/**
+	 * @return The mime types of all registered types.
+	 */
+	public String[] getSupportedMimeTypes() {
+		final Set<String> mimes = new LinkedHashSet<>();
+		for (DatasourceType type : types) {
+			mimes.addAll(type.getMimeTypes());
+		}
+		return mimes.toArray(new String[mimes.size()]);
+	}
+
+	/**
+	 * Finds the type of a file.
+	 *
+	 * @param header The first bytes of the file, see {@link #getHeaderSize()}. Might be null if the file can not be
+	 *               read directly.
+	 * @param length The number of valid bytes in the header.
+	 * @param mime   The mime type of the file or null if it is unknown.
+	 * @return The type or null if no registered type can read the file.
+	 */
+	public DatasourceType findType(byte[] header, int length, String mime) {
+		if (header != null) {
+			for (DatasourceType type : types) {
+				if (type.matchesContent(header, length)) {
+					return type;
+				}
+			}
+		}
+
+		for (DatasourceType type : types) {
+			if (type.matchesMimeType(mime)) {
+				return type;
+			}
+		}
+
+		return null;
+	}
+}
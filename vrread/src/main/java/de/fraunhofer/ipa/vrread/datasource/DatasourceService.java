@@ -1,12 +1,6 @@
 package de.fraunhofer.ipa.vrread.datasource;
 
-import android.util.Log;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Objects;
 
 /**
  * Service class which uses and performs operations upon the available datasource implementations.
@@ -15,38 +9,26 @@ import java.util.List;
 
 public class DatasourceService {
 
-	private static final String TAG = DatasourceService.class.getSimpleName();
-	private static final String DATASOURCE_PKG = "de.fraunhofer.ipa.vrread";
-	private static final String MIME_METHOD_NAME = "getSupportedMimeTypes";
+	private final DatasourceRegistry registry;
+
+	public DatasourceService() {
+		this(DatasourceRegistry.createDefault());
+	}
+
+	/**
+	 * @param registry The registry of the available datasources.
+	 */
+	public DatasourceService(DatasourceRegistry registry) {
 
-	private static final Class[] CLAZZES = new Class[] {
-			PDFDatasource.class,
-			//ImageDatasource.class
-	};
+		this.registry = Objects.requireNonNull(registry);
+	}
 
 	/**
 	 * Returns a list of all mime types supported by the implemented Datasources.
 	 *
 	 * @return A array of mimetypes which are supported by the implementations.
 	 */
-	@SuppressWarnings("unchecked")
 	public String[] getSupportedMimeTypes() {
-
-		// Get all classes implementing datasource.
-		List<String> mimes = new ArrayList<>();
-
-		for (Class clazz : CLAZZES) {
-			try {
-
-				final Method method = clazz.getMethod(MIME_METHOD_NAME);
-				String[] supportedMimes = (String[]) method.invoke(null);
-				mimes.addAll(Arrays.asList(supportedMimes));
-
-			} catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException  e) {
-				Log.e(TAG, "Error while extracting supported mime types.", e);
-			}
-		}
-
-		return mimes.toArray(new String[]{});
+		return registry.getSupportedMimeTypes();
 	}
 }
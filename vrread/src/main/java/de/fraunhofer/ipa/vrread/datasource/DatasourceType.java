@@ -0,0 +1,101 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes a kind of datasource inside the {@link DatasourceRegistry}: the mime types and magic signatures of the
+ * files it can read and how it is created. Datasources are only created when a file of their type is opened.
+ */
+public abstract class DatasourceType {
+
+	private final String name;
+	private final List<String> mimeTypes;
+	private final List<MagicSignature> signatures;
+
+	/**
+	 * @param name       The name of the type for logging.
+	 * @param mimeTypes  The supported mime types. A type may end with a wildcard, e.g. "image/*".
+	 * @param signatures The signatures of the supported files. Might be empty if the format has none.
+	 */
+	protected DatasourceType(String name, String[] mimeTypes, MagicSignature[] signatures) {
+
+		this.name = Objects.requireNonNull(name);
+		this.mimeTypes = Collections.unmodifiableList(Arrays.asList(mimeTypes));
+		this.signatures = Collections.unmodifiableList(Arrays.asList(signatures));
+	}
+
+	/**
+	 * Creates the datasource for a file of this type.
+	 *
+	 * @param file       The URI of the file.
+	 * @param context    The context to open the URI with.
+	 * @param bitmapPool The pool the datasource borrows its texture bitmaps from.
+	 * @return The datasource.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public abstract Datasource create(Uri file, Context context, BitmapPool bitmapPool) throws IOException;
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getMimeTypes() {
+		return mimeTypes;
+	}
+
+	/**
+	 * @return The number of bytes from the start of the file needed to check all signatures of the type.
+	 */
+	int getSignatureEnd() {
+		int end = 0;
+		for (MagicSignature signature : signatures) {
+			end = Math.max(end, signature.getEnd());
+		}
+		return end;
+	}
+
+	/**
+	 * @param mime A mime type, might be null.
+	 * @return TRUE if the type supports files of this mime type.
+	 */
+	public boolean matchesMimeType(String mime) {
+		if (mime == null) {
+			return false;
+		}
+
+		for (String mimeType : mimeTypes) {
+			if (mimeType.endsWith("/*") ?
+					mime.startsWith(mimeType.substring(0, mimeType.length() - 1)) :
+					mimeType.equals(mime)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param header The first bytes of a file.
+	 * @param length The number of valid bytes in the header.
+	 * @return TRUE if the file has one of the signatures of the type.
+	 */
+	public boolean matchesContent(byte[] header, int length) {
+		for (MagicSignature signature : signatures) {
+			if (signature.matches(header, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
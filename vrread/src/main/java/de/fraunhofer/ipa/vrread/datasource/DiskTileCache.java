@@ -0,0 +1,401 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Persistent cache for rendered tiles. Users usually open the same documents over and over again, so tiles which
+ * were rendered once are written to the cache directory of the app and are read back in later sessions instead of
+ * rasterizing them again.
+ * <p>
+ * Tiles are stored as deflate compressed raw pixels, text tiles consist mostly of background and compress very well.
+ * Files are read via memory mapping and inflated straight into a pooled bitmap. The total size of the cache is
+ * bounded, the least recently used files are deleted first.
+ */
+public class DiskTileCache {
+
+	private static final String TAG = DiskTileCache.class.getSimpleName();
+
+	private static final String DIR_NAME = "tiles";
+	private static final String FILE_SUFFIX = ".tile";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final int MAGIC = 0x56525431; // "VRT1"
+	private static final int HEADER_SIZE = 12;
+
+	/**
+	 * Chunk size used when copying from the mapped file into the inflater.
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private final File directory;
+	private final long maxBytes;
+	private final ExecutorService writer;
+	private final BitmapPool bitmapPool;
+
+	/**
+	 * Known files in the order of their last access. It is used to evict the oldest files.
+	 */
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(64, 0.75f, true);
+	private long totalBytes = 0;
+
+	/**
+	 * Scratch buffers for reading tiles. Tiles might be read from multiple threads, so each has its own buffers.
+	 */
+	private static final class ReadBuffers {
+		private ByteBuffer pixels;
+		private final byte[] inputChunk = new byte[CHUNK_SIZE];
+	}
+
+	private final ThreadLocal<ReadBuffers> readBuffers = new ThreadLocal<ReadBuffers>() {
+		@Override
+		protected ReadBuffers initialValue() {
+			return new ReadBuffers();
+		}
+	};
+
+	// Scratch buffer, only used by the writer thread.
+	private ByteBuffer writeBuffer;
+
+	private int hitCount = 0;
+	private int missCount = 0;
+
+	/**
+	 * @param cacheDir   The cache directory of the app. The tiles are stored inside a subdirectory.
+	 * @param maxBytes   The maximum number of bytes the stored tiles may occupy.
+	 * @param bitmapPool The pool the bitmaps of the read tiles are borrowed from.
+	 */
+	public DiskTileCache(File cacheDir, long maxBytes, BitmapPool bitmapPool) {
+
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Cache size must be bigger then 0.");
+		}
+
+		this.directory = new File(cacheDir, DIR_NAME);
+		this.maxBytes = maxBytes;
+		this.bitmapPool = bitmapPool;
+
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		// Scanning the directory might take a moment, so do it in the background.
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				scanDirectory();
+			}
+		});
+	}
+
+	/**
+	 * Creates a cache with the default size inside the given cache directory.
+	 *
+	 * @param cacheDir   The cache directory of the app.
+	 * @param bitmapPool The pool the bitmaps of the read tiles are borrowed from.
+	 * @return The new cache.
+	 */
+	public static DiskTileCache withDefaultSize(File cacheDir, BitmapPool bitmapPool) {
+		return new DiskTileCache(cacheDir, DEFAULT_MAX_BYTES, bitmapPool);
+	}
+
+	private static String getFileName(TileKey key) {
+		final String keyString = String.format(Locale.US, "%s/%d/%d/%d/%f/%dx%d",
+				key.getDocumentId(), key.getPage(), key.getX(), key.getY(), key.getScale(),
+				key.getWidth(), key.getHeight());
+		return DocumentFingerprint.ofString(keyString) + FILE_SUFFIX;
+	}
+
+	private void scanDirectory() {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Log.e(TAG, "Could not create tile cache directory.");
+			return;
+		}
+
+		final File[] existing = directory.listFiles();
+		if (existing == null) {
+			return;
+		}
+
+		// Oldest files first so they are evicted first.
+		Arrays.sort(existing, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				final long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+			}
+		});
+
+		synchronized (this) {
+			for (File file : existing) {
+				if (file.getName().endsWith(TMP_SUFFIX)) {
+					// Left over from an interrupted write.
+					//noinspection ResultOfMethodCallIgnored
+					file.delete();
+				} else if (!files.containsKey(file.getName())) {
+					files.put(file.getName(), file.length());
+					totalBytes += file.length();
+				}
+			}
+		}
+
+		trimToSize();
+	}
+
+	/**
+	 * Reads a tile from the disk. This should be called from a background thread.
+	 *
+	 * @param key The key of the tile.
+	 * @return A new tile with a bitmap from the pool or null if the tile was not stored.
+	 */
+	public Tile get(TileKey key) {
+
+		final String name = getFileName(key);
+		final File file = new File(directory, name);
+
+		if (!file.isFile()) {
+			synchronized (this) {
+				missCount++;
+			}
+			return null;
+		}
+
+		try {
+			final Bitmap bitmap = readBitmap(file, key);
+
+			synchronized (this) {
+				hitCount++;
+				// Mark the file as recently used.
+				files.get(name);
+			}
+			//noinspection ResultOfMethodCallIgnored
+			file.setLastModified(System.currentTimeMillis());
+
+			return new Tile(new ReadPosition(key.getPage(), key.getX(), key.getY()), bitmap, bitmapPool);
+
+		} catch (IOException | DataFormatException e) {
+			Log.w(TAG, "Could not read cached tile, deleting it.", e);
+			remove(name);
+			return null;
+		}
+	}
+
+	private Bitmap readBitmap(File file, TileKey key) throws IOException, DataFormatException {
+
+		final ReadBuffers buffers = readBuffers.get();
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel channel = raf.getChannel()) {
+
+			final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (mapped.remaining() < HEADER_SIZE || mapped.getInt() != MAGIC) {
+				throw new IOException("Invalid tile file.");
+			}
+
+			final int width = mapped.getInt();
+			final int height = mapped.getInt();
+
+			if (width != key.getWidth() || height != key.getHeight()) {
+				throw new IOException("Tile has an unexpected size.");
+			}
+
+			final int byteCount = width * height * 4;
+			if (buffers.pixels == null || buffers.pixels.capacity() != byteCount) {
+				buffers.pixels = ByteBuffer.allocate(byteCount);
+			}
+
+			// Inflate directly into the pixel buffer.
+			final byte[] pixels = buffers.pixels.array();
+			final byte[] inputChunk = buffers.inputChunk;
+			int offset = 0;
+
+			final Inflater inflater = new Inflater();
+			try {
+				while (offset < byteCount) {
+					if (inflater.needsInput()) {
+						if (!mapped.hasRemaining()) {
+							throw new IOException("Tile file is truncated.");
+						}
+						final int length = Math.min(inputChunk.length, mapped.remaining());
+						mapped.get(inputChunk, 0, length);
+						inflater.setInput(inputChunk, 0, length);
+					}
+
+					final int count = inflater.inflate(pixels, offset, byteCount - offset);
+					if (count == 0 && inflater.needsDictionary()) {
+						// Tiles are written without a dictionary, without this the loop would never end.
+						throw new IOException("Tile file is corrupt.");
+					}
+					offset += count;
+
+					if (inflater.finished() && offset < byteCount) {
+						throw new IOException("Tile file is truncated.");
+					}
+				}
+			} finally {
+				inflater.end();
+			}
+		}
+
+		buffers.pixels.rewind();
+		final Bitmap bitmap = bitmapPool.acquire(new TextureSize(key.getWidth(), key.getHeight()),
+				Bitmap.Config.ARGB_8888);
+		bitmap.copyPixelsFromBuffer(buffers.pixels);
+
+		return bitmap;
+	}
+
+	/**
+	 * Writes the tile to the disk in the background. The tile is retained until it was written.
+	 *
+	 * @param key  The key of the tile.
+	 * @param tile The tile to store.
+	 */
+	public void put(final TileKey key, final Tile tile) {
+
+		if (tile.getBitmap().getConfig() != Bitmap.Config.ARGB_8888) {
+			// Only the format of the textures is supported.
+			return;
+		}
+
+		tile.retain();
+
+		try {
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						write(key, tile.getBitmap());
+					} finally {
+						tile.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			tile.release();
+		}
+	}
+
+	private void write(TileKey key, Bitmap bitmap) {
+
+		final String name = getFileName(key);
+		final File file = new File(directory, name);
+		final File tmpFile = new File(directory, name + TMP_SUFFIX);
+
+		if (file.isFile()) {
+			return;
+		}
+
+		if (writeBuffer == null || writeBuffer.capacity() != bitmap.getByteCount()) {
+			writeBuffer = ByteBuffer.allocate(bitmap.getByteCount());
+		}
+		writeBuffer.clear();
+		bitmap.copyPixelsToBuffer(writeBuffer);
+
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(bitmap.getWidth());
+			out.writeInt(bitmap.getHeight());
+
+			final DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, CHUNK_SIZE);
+			deflaterOut.write(writeBuffer.array(), 0, writeBuffer.position());
+			deflaterOut.finish();
+		} catch (IOException e) {
+			Log.w(TAG, "Could not write tile to cache.", e);
+			//noinspection ResultOfMethodCallIgnored
+			tmpFile.delete();
+			return;
+		} finally {
+			deflater.end();
+		}
+
+		if (!tmpFile.renameTo(file)) {
+			//noinspection ResultOfMethodCallIgnored
+			tmpFile.delete();
+			return;
+		}
+
+		synchronized (this) {
+			files.put(name, file.length());
+			totalBytes += file.length();
+		}
+
+		trimToSize();
+	}
+
+	private void trimToSize() {
+		synchronized (this) {
+			final Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+
+			while (totalBytes > maxBytes && it.hasNext()) {
+				final Map.Entry<String, Long> eldest = it.next();
+				it.remove();
+				totalBytes -= eldest.getValue();
+				//noinspection ResultOfMethodCallIgnored
+				new File(directory, eldest.getKey()).delete();
+			}
+		}
+	}
+
+	private synchronized void remove(String name) {
+		final Long size = files.remove(name);
+		if (size != null) {
+			totalBytes -= size;
+		}
+		//noinspection ResultOfMethodCallIgnored
+		new File(directory, name).delete();
+	}
+
+	/**
+	 * Stops the background writing. Tiles which are already queued are still written.
+	 */
+	public void close() {
+		writer.shutdown();
+	}
+
+	/**
+	 * Writes the current statistics of the cache to the log.
+	 */
+	public void logStatistics() {
+		Log.d(TAG, toString());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "DiskTileCache[hits: %d, misses: %d, size: %d/%d bytes, files: %d]",
+				hitCount, missCount, totalBytes, maxBytes, files.size());
+	}
+}
@@ -0,0 +1,148 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Calculates a fingerprint of a document which stays the same as long as the content of the document does not
+ * change. It is used to identify rendered tiles across sessions, even if the document is opened via a different URI.
+ */
+public final class DocumentFingerprint {
+
+	/**
+	 * Number of bytes from the start and from the end of the document which are hashed together with its size.
+	 */
+	private static final int HASHED_BYTES = 64 * 1024;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Priv. ctor so the class can only be used in static fashon.
+	 */
+	private DocumentFingerprint() {
+		// no op.
+	}
+
+	/**
+	 * Calculates the fingerprint of the document behind the URI. It is build from the size of the document, its first
+	 * and its last bytes, so it is fast even for very big documents. An edit in the middle which keeps the size is
+	 * told apart by the time of the last modification, where the provider of the document exposes it.
+	 *
+	 * @param resolver The resolver to open the document.
+	 * @param uri      The URI of the document.
+	 * @return The fingerprint as hex string.
+	 * @throws IOException If the document could not be read.
+	 */
+	public static String of(ContentResolver resolver, Uri uri) throws IOException {
+
+		final MessageDigest digest = createDigest();
+
+		try (ParcelFileDescriptor fd = resolver.openFileDescriptor(uri, "r")) {
+			if (fd == null) {
+				throw new IOException("Could not open given file URI.");
+			}
+
+			final long size = fd.getStatSize();
+			digest.update(ByteBuffer.allocate(16).putLong(size).putLong(getLastModified(resolver, uri)).array());
+
+			try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(fd.dup())) {
+				final byte[] buffer = new byte[8192];
+				int remaining = HASHED_BYTES;
+				int read;
+
+				while (remaining > 0 && (read = in.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+					digest.update(buffer, 0, read);
+					remaining -= read;
+				}
+
+				// The size is unknown for pipes, they can only be read from the start.
+				if (size > HASHED_BYTES) {
+					hashTail(digest, in.getChannel(), size);
+				}
+			}
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Hashes the last bytes of the document which were not hashed with its start.
+	 */
+	private static void hashTail(MessageDigest digest, FileChannel channel, long size) throws IOException {
+		long position = Math.max(HASHED_BYTES, size - HASHED_BYTES);
+		final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+		while (position < size) {
+			buffer.clear();
+			final int read = channel.read(buffer, position);
+			if (read == -1) {
+				break;
+			}
+			digest.update(buffer.array(), 0, read);
+			position += read;
+		}
+	}
+
+	/**
+	 * @return The time of the last modification of the document or 0 if the provider does not tell it.
+	 */
+	private static long getLastModified(ContentResolver resolver, Uri uri) {
+		if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+			return new File(uri.getPath()).lastModified();
+		}
+
+		final String[] projection = {DocumentsContract.Document.COLUMN_LAST_MODIFIED};
+		try (Cursor cursor = resolver.query(uri, projection, null, null, null)) {
+			if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+				return cursor.getLong(0);
+			}
+		} catch (RuntimeException e) {
+			// Providers which do not know the column might reject the query.
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Hashes an arbitrary string.
+	 *
+	 * @param value The string to hash.
+	 * @return The hash as hex string.
+	 */
+	public static String ofString(String value) {
+		final MessageDigest digest = createDigest();
+		try {
+			return toHex(digest.digest(value.getBytes("UTF-8")));
+		} catch (IOException e) {
+			throw new IllegalStateException("UTF-8 is not supported.", e);
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available.", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		final char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,463 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.text.Html;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads e-books in the EPUB format with reflowed text. Every chapter of the spine is one page. Opening the book only
+ * reads the central directory of the archive and the package document, a chapter is read from the archive when it is
+ * shown the first time.
+ * <p>
+ * The text is laid out for the zoom factor the book is opened with: the lines fill the width of the view at this zoom,
+ * so there is no need to scroll sideways. Chapters are laid out in chunks of paragraphs and only as far as they are
+ * read, see {@link ChapterLayout}. The layouts of the last chapters are cached. The height of a chapter is estimated
+ * until it is completely laid out.
+ * <p>
+ * The render thread asks for the boundaries of a chapter every frame, so it is never read or laid out there. Reading,
+ * converting and laying out a chapter is done on a background thread, meanwhile the boundaries are answered from the
+ * estimate. Only the render threads of the tiles wait for a chapter.
+ * <p>
+ * Only the text of the chapters is shown, images and style sheets are ignored. The text of a chapter is also available
+ * as a {@link TextDatasource}, so it can be displayed by a glyph layer instead of tiles.
+ */
+public class EpubDatasource implements TextDatasource {
+
+	private static final String TAG = EpubDatasource.class.getSimpleName();
+
+	private static final String CONTAINER_PATH = "META-INF/container.xml";
+
+	/**
+	 * Width of the view in pixels, the same as the tile size. Lines are laid out to fill it at the zoom factor.
+	 */
+	private static final int VIEW_WIDTH = 512;
+
+	/**
+	 * Margin around the text in pixels at the zoom factor.
+	 */
+	private static final int MARGIN = 16;
+
+	/**
+	 * Width of the lines, the view without the margins.
+	 */
+	private static final int LINE_WIDTH = VIEW_WIDTH - 2 * MARGIN;
+
+	/**
+	 * Size of the text in pixels at a zoom of 1.
+	 */
+	private static final float TEXT_SIZE = 16f;
+
+	private static final int CACHED_CHAPTERS = 3;
+
+	/**
+	 * Share of the XHTML of a chapter which is assumed to be text, for the estimate before the chapter was read.
+	 */
+	private static final float TEXT_SHARE = 0.5f;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Pattern ROOTFILE = Pattern.compile("<(?:\\w+:)?rootfile\\b[^>]*>");
+	private static final Pattern ITEM = Pattern.compile("<(?:\\w+:)?item\\b[^>]*>");
+	private static final Pattern ITEMREF = Pattern.compile("<(?:\\w+:)?itemref\\b[^>]*>");
+	private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+	private static final Pattern BODY = Pattern.compile("<body\\b[^>]*>(.*)</body>",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern NOT_SHOWN = Pattern.compile("<(script|style)\\b.*?</\\1>",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private final String documentId;
+	private final BitmapPool bitmapPool;
+	private final float zoom;
+
+	/**
+	 * Height a character adds to a chapter, for the estimate before the chapter was read.
+	 */
+	private final float heightPerChar;
+
+	private final ParcelFileDescriptor parcFile;
+	private final ZipIndex index;
+	private final List<ZipIndex.Entry> chapters;
+
+	private final LruCache<Integer, ChapterLayout> chapterLayouts = new LruCache<>(CACHED_CHAPTERS);
+
+	/**
+	 * Chapters which are prepared in the background. Guarded by itself.
+	 */
+	private final Set<Integer> pendingChapters = new HashSet<>();
+
+	private final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, TAG + "-layout");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	/**
+	 * @param file       The URI of the book.
+	 * @param context    The context to open the URI with.
+	 * @param bitmapPool The pool the bitmaps of the tiles are borrowed from.
+	 * @param zoom       The zoom factor the text is laid out for.
+	 * @throws IOException If the book could not be opened or is no valid EPUB.
+	 */
+	public EpubDatasource(Uri file, Context context, BitmapPool bitmapPool, float zoom) throws IOException {
+
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
+
+		if (zoom <= 0) {
+			throw new IllegalArgumentException("Zoom must be bigger then 0.");
+		}
+		this.zoom = zoom;
+		heightPerChar = ChapterLayout.estimateHeightPerChar(createPaint(), LINE_WIDTH);
+
+		final ContentResolver resolver = context.getContentResolver();
+		documentId = DocumentFingerprint.of(resolver, file) + "/" + zoom;
+
+		parcFile = resolver.openFileDescriptor(file, "r");
+		if (parcFile == null) {
+			throw new IOException("Could not open given file URI.");
+		}
+
+		try {
+			// The channel shares the descriptor, which is closed together with the book.
+			final FileChannel channel = new FileInputStream(parcFile.getFileDescriptor()).getChannel();
+			index = new ZipIndex(channel);
+			chapters = readSpine();
+		} catch (IOException | RuntimeException e) {
+			parcFile.close();
+			throw e;
+		}
+
+		Log.d(TAG, String.format("Opened book with %d chapters.", chapters.size()));
+	}
+
+	public static String[] getSupportedMimeTypes() {
+		return new String[]{"application/epub+zip"};
+	}
+
+	/**
+	 * An EPUB is a ZIP archive whose first entry is the uncompressed file "mimetype".
+	 */
+	public static MagicSignature[] getSignatures() {
+		return new MagicSignature[]{MagicSignature.ofText(30, "mimetypeapplication/epub+zip")};
+	}
+
+	/**
+	 * Finds the chapters of the book. The container names the package document, whose spine lists the chapters in
+	 * reading order by their ids in the manifest.
+	 */
+	private List<ZipIndex.Entry> readSpine() throws IOException {
+
+		final Map<String, ZipIndex.Entry> entries = new HashMap<>();
+		for (ZipIndex.Entry entry : index.getEntries()) {
+			entries.put(entry.getName(), entry);
+		}
+
+		final String container = readText(entries, CONTAINER_PATH);
+		final Matcher rootfile = ROOTFILE.matcher(container);
+		if (!rootfile.find()) {
+			throw new IOException("No package document in container.");
+		}
+		final String packagePath = getAttributes(rootfile.group()).get("full-path");
+		final String packageDocument = readText(entries, packagePath);
+
+		// Hrefs are relative to the package document.
+		final String baseDir = packagePath.contains("/") ?
+				packagePath.substring(0, packagePath.lastIndexOf('/') + 1) : "";
+
+		final Map<String, String> manifest = new HashMap<>();
+		final Matcher item = ITEM.matcher(packageDocument);
+		while (item.find()) {
+			final Map<String, String> attributes = getAttributes(item.group());
+			if (attributes.containsKey("id") && attributes.containsKey("href")) {
+				manifest.put(attributes.get("id"), resolvePath(baseDir, attributes.get("href")));
+			}
+		}
+
+		final List<ZipIndex.Entry> spine = new ArrayList<>();
+		final Matcher itemref = ITEMREF.matcher(packageDocument);
+		while (itemref.find()) {
+			final String path = manifest.get(getAttributes(itemref.group()).get("idref"));
+			final ZipIndex.Entry entry = path == null ? null : entries.get(path);
+			if (entry == null) {
+				Log.w(TAG, "Chapter of spine not found: " + path);
+				continue;
+			}
+			spine.add(entry);
+		}
+
+		if (spine.isEmpty()) {
+			throw new IOException("Book has no chapters.");
+		}
+
+		return Collections.unmodifiableList(spine);
+	}
+
+	private String readText(Map<String, ZipIndex.Entry> entries, String path) throws IOException {
+		final ZipIndex.Entry entry = path == null ? null : entries.get(path);
+		if (entry == null) {
+			throw new IOException("Missing file in book: " + path);
+		}
+		return new String(index.read(entry), UTF8);
+	}
+
+	private static Map<String, String> getAttributes(String tag) {
+		final Map<String, String> attributes = new HashMap<>();
+		final Matcher attribute = ATTRIBUTE.matcher(tag);
+		while (attribute.find()) {
+			final String value = attribute.group(2) != null ? attribute.group(2) : attribute.group(3);
+			attributes.put(attribute.group(1), value);
+		}
+		return attributes;
+	}
+
+	/**
+	 * Resolves a relative href against a directory of the archive.
+	 */
+	private static String resolvePath(String baseDir, String href) {
+		final String withoutFragment = href.contains("#") ? href.substring(0, href.indexOf('#')) : href;
+
+		final Deque<String> segments = new ArrayDeque<>();
+		for (String segment : (baseDir + Uri.decode(withoutFragment)).split("/")) {
+			if (segment.equals("..")) {
+				segments.pollLast();
+			} else if (!segment.isEmpty() && !segment.equals(".")) {
+				segments.addLast(segment);
+			}
+		}
+
+		final StringBuilder path = new StringBuilder();
+		for (String segment : segments) {
+			if (path.length() > 0) {
+				path.append('/');
+			}
+			path.append(segment);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Returns the layout of a chapter. If it is not cached the chapter is read, so this must not be called on the
+	 * render thread.
+	 */
+	private ChapterLayout getChapterLayout(int chapter) {
+		ChapterLayout layout = chapterLayouts.get(chapter);
+		if (layout == null) {
+			layout = layoutChapter(chapter);
+			chapterLayouts.put(chapter, layout);
+		}
+		return layout;
+	}
+
+	/**
+	 * Prepares a chapter in the background and lays it out up to the given position.
+	 *
+	 * @param chapter The index of the chapter.
+	 * @param y       The position in pixels of the layout which should be laid out.
+	 */
+	private void prepareChapter(final int chapter, final float y) {
+		if (chapter < 0 || chapter >= chapters.size()) {
+			return;
+		}
+
+		synchronized (pendingChapters) {
+			if (!pendingChapters.add(chapter)) {
+				return;
+			}
+		}
+
+		try {
+			layoutExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						getChapterLayout(chapter).layoutUntil(y);
+					} finally {
+						synchronized (pendingChapters) {
+							pendingChapters.remove(chapter);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Datasource was closed in the meantime.
+		}
+	}
+
+	/**
+	 * Estimates the height of a chapter without reading it. Once it is prepared the estimate of its layout is used.
+	 *
+	 * @return The height in pixels of the layout without the margin.
+	 */
+	private int estimateChapterHeight(int chapter) {
+		final ChapterLayout layout = chapterLayouts.get(chapter);
+		if (layout != null) {
+			return layout.estimateHeight();
+		}
+
+		return ChapterLayout.estimateHeight((int) (chapters.get(chapter).getSize() * TEXT_SHARE), heightPerChar);
+	}
+
+	/**
+	 * Reads a chapter from the archive and prepares its layout. Nothing is laid out yet.
+	 */
+	private ChapterLayout layoutChapter(int chapter) {
+
+		CharSequence text;
+		try {
+			text = readChapter(chapter);
+		} catch (IOException e) {
+			// Show the chapter empty instead of failing the whole book.
+			Log.e(TAG, "Could not read chapter " + chapters.get(chapter).getName(), e);
+			text = "";
+		}
+
+		return new ChapterLayout(text, createPaint(), LINE_WIDTH);
+	}
+
+	/**
+	 * @return A new paint to lay out a chapter with. Each layout owns its paint.
+	 */
+	private TextPaint createPaint() {
+		final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+		paint.setTextSize(TEXT_SIZE * zoom);
+		paint.setColor(Color.BLACK);
+		return paint;
+	}
+
+	/**
+	 * Reads a chapter from the archive and converts the body of the XHTML into styled text.
+	 */
+	private Spanned readChapter(int chapter) throws IOException {
+		final String xhtml = new String(index.read(chapters.get(chapter)), UTF8);
+		final Matcher bodyMatcher = BODY.matcher(xhtml);
+		final String body = NOT_SHOWN.matcher(bodyMatcher.find() ? bodyMatcher.group(1) : xhtml).replaceAll("");
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+			return Html.fromHtml(body, Html.FROM_HTML_MODE_LEGACY);
+		}
+		return fromHtmlLegacy(body);
+	}
+
+	@SuppressWarnings("deprecation")
+	private static Spanned fromHtmlLegacy(String body) {
+		return Html.fromHtml(body);
+	}
+
+	@Override
+	public CharSequence getPageText(int page) throws IOException {
+		return readChapter(page);
+	}
+
+	/**
+	 * Closes the book. After this call the datasource must not be used anymore.
+	 */
+	@Override
+	public void close() {
+		layoutExecutor.shutdownNow();
+		chapterLayouts.evictAll();
+
+		try {
+			parcFile.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Could not close book.", e);
+		}
+	}
+
+	@Override
+	public Bitmap getTextureBitmap(ReadPosition position, float scale, TextureSize size) {
+
+		final Bitmap bitmap = bitmapPool.acquire(size, Bitmap.Config.ARGB_8888);
+		final ChapterLayout layout = getChapterLayout(position.getPage());
+		prepareChapter(position.getPage() + 1, 0);
+
+		// The layout is done in pixels at the zoom factor.
+		final float layoutScale = scale / zoom;
+		final float top = (float) (position.getY() / layoutScale) - MARGIN;
+		final float bottom = (float) ((position.getY() + size.getHeight()) / layoutScale) - MARGIN;
+
+		final Canvas canvas = new Canvas(bitmap);
+		canvas.translate((float) -position.getX(), (float) -position.getY());
+		canvas.scale(layoutScale, layoutScale);
+		canvas.translate(MARGIN, MARGIN);
+
+		layout.draw(canvas, top, bottom);
+
+		return bitmap;
+	}
+
+	@Override
+	public int getPageCount() {
+		return chapters.size();
+	}
+
+	@Override
+	public boolean isInsidePage(ReadPosition tempReadPosition, float scale) {
+		final float layoutScale = scale / zoom;
+
+		if (tempReadPosition.getX() / layoutScale >= VIEW_WIDTH) {
+			return false;
+		}
+
+		final int page = tempReadPosition.getPage();
+		final float y = (float) (tempReadPosition.getY() / layoutScale);
+
+		// Called on the render thread, so the chapter is laid out in the background and the estimate is used meanwhile.
+		final float visibleHeight = VIEW_WIDTH / layoutScale;
+		final ChapterLayout layout = chapterLayouts.get(page);
+		if (layout == null || !layout.isComplete() && y + visibleHeight >= layout.getLaidOutHeight()) {
+			prepareChapter(page, y + visibleHeight);
+		}
+
+		return y < estimateChapterHeight(page) + 2 * MARGIN;
+	}
+
+	@Override
+	public int getPageHeight(int page, float scale) {
+		if (chapterLayouts.get(page) == null) {
+			prepareChapter(page, 0);
+		}
+
+		final int height = estimateChapterHeight(page) + 2 * MARGIN;
+		return (int) (height * scale / zoom);
+	}
+
+	@Override
+	public String getDocumentId() {
+		return documentId;
+	}
+}
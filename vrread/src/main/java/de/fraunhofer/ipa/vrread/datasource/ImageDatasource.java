@@ -1,43 +1,106 @@
 package de.fraunhofer.ipa.vrread.datasource;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.util.Log;
 
-import de.fraunhofer.ipa.vrread.R;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
 
 /**
- * Reads and gives access to an image resource.
- *
+ * Reads and gives access to an image. The image is never decoded as a whole, only the part of it which is covered by
+ * a requested tile is decoded via a {@link BitmapRegionDecoder}, see {@link RegionTileDecoder}. So the memory needed
+ * stays bounded by the tile size, regardless of how big the image is.
+ * <p>
  * Created by tbf on 02.03.2017.
  */
 
 public class ImageDatasource implements Datasource {
 
-	private Bitmap bitmap;
+	private static final String TAG = ImageDatasource.class.getSimpleName();
 
-	public ImageDatasource(Context ctx, int resId) {
+	private final String documentId;
+	private final BitmapPool bitmapPool;
+	private final BitmapRegionDecoder decoder;
 
-		bitmap = BitmapFactory.decodeResource(ctx.getResources(), R.drawable.text);
+	private final int width;
+	private final int height;
+
+	/**
+	 * @param file       The URI of the image.
+	 * @param context    The context to open the URI with.
+	 * @param bitmapPool The pool the bitmaps of the tiles are borrowed from.
+	 * @throws IOException If the image could not be opened.
+	 */
+	public ImageDatasource(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
+
+		final ContentResolver resolver = context.getContentResolver();
+		documentId = DocumentFingerprint.of(resolver, file);
+
+		try (InputStream in = resolver.openInputStream(file)) {
+			if (in == null) {
+				throw new IOException("Could not open given file URI.");
+			}
+
+			// The decoder only reads the header and keeps the compressed image.
+			decoder = BitmapRegionDecoder.newInstance(in, false);
+		}
+
+		width = decoder.getWidth();
+		height = decoder.getHeight();
+
+		Log.d(TAG, String.format("Opened image of %dx%d pixels.", width, height));
 	}
 
-	@SuppressWarnings("unused")
 	public static String[] getSupportedMimeTypes() {
 		return new String[]{"image/*"};
 	}
 
+	public static MagicSignature[] getSignatures() {
+		return new MagicSignature[]{
+				MagicSignature.of(0, 0xFF, 0xD8, 0xFF),
+				MagicSignature.of(0, 0x89, 'P', 'N', 'G'),
+				MagicSignature.ofText(0, "GIF8"),
+				MagicSignature.ofText(8, "WEBP")
+		};
+	}
+
+	/**
+	 * Closes the decoder. After this call the datasource must not be used anymore.
+	 */
+	@Override
+	public void close() {
+		decoder.recycle();
+	}
+
 	@Override
 	public Bitmap getTextureBitmap(ReadPosition position, float scale, TextureSize size) {
-		return bitmap;
+		return RegionTileDecoder.decodeTile(decoder, bitmapPool, position, scale, size);
 	}
 
 	@Override
 	public int getPageCount() {
-		return 0;
+		return 1;
 	}
 
 	@Override
 	public boolean isInsidePage(ReadPosition tempReadPosition, float scale) {
-		return true;
+		return tempReadPosition.getX() / scale < width && tempReadPosition.getY() / scale < height;
+	}
+
+	@Override
+	public int getPageHeight(int page, float scale) {
+		return (int) (height * scale);
+	}
+
+	@Override
+	public String getDocumentId() {
+		return documentId;
 	}
 }
@@ -0,0 +1,356 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Index of the lines of an UTF-8 encoded text held in a buffer, usually a memory mapped file. Lines longer than the
+ * row width are wrapped into several rows, so the index maps rows, the unit of the layout, to their position in the
+ * text.
+ * <p>
+ * The index is built incrementally. It only needs to reach the rows which are requested, the rest can be indexed in
+ * the background. To keep the memory independent of the length of the text only every
+ * {@link #LINES_PER_CHECKPOINT}th line is stored, the lines in between are scanned again when a row is looked up.
+ * Very long lines are split into segments of at most {@link #MAX_SEGMENT_BYTES}, so no lookup has to scan or decode
+ * more than a few segments.
+ */
+class LineIndex {
+
+	static final int LINES_PER_CHECKPOINT = 64;
+
+	/**
+	 * Lines are split after this many bytes. They are treated like separate lines, only without a line break.
+	 */
+	static final int MAX_SEGMENT_BYTES = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * A line segment of the text. Filled by the lookup methods.
+	 */
+	static final class Line {
+		/**
+		 * The offset of the first byte of the line.
+		 */
+		long start;
+
+		/**
+		 * The offset after the last character of the line, without the line break.
+		 */
+		long textEnd;
+
+		/**
+		 * The offset of the next line.
+		 */
+		long next;
+
+		/**
+		 * The number of characters of the line.
+		 */
+		int length;
+
+		/**
+		 * The row of the line inside the text which is wrapped.
+		 */
+		int rowInLine;
+	}
+
+	private final ByteBuffer text;
+	private final int columns;
+
+	/**
+	 * Byte offset and first row of every {@link #LINES_PER_CHECKPOINT}th line. Guarded by this.
+	 */
+	private long[] checkpointOffsets = new long[256];
+	private long[] checkpointRows = new long[256];
+	private int checkpointCount = 0;
+
+	/**
+	 * State of the indexing: the number of lines and rows indexed and the offset of the first line which was not.
+	 */
+	private long indexedLines = 0;
+	private long indexedRows = 0;
+	private long indexedEnd = 0;
+
+	/**
+	 * @param text    The UTF-8 encoded text. Only read with absolute methods, so the buffer can be shared.
+	 * @param columns The number of characters per row.
+	 */
+	LineIndex(ByteBuffer text, int columns) {
+
+		if (columns <= 0) {
+			throw new IllegalArgumentException("Need at least one column.");
+		}
+
+		this.text = text;
+		this.columns = columns;
+	}
+
+	/**
+	 * Indexes the next lines of the text.
+	 *
+	 * @param lineCount The maximum number of lines to index.
+	 * @return TRUE if the text is completely indexed.
+	 */
+	synchronized boolean indexLines(int lineCount) {
+
+		final Line line = new Line();
+
+		for (int i = 0; i < lineCount && !isComplete(); i++) {
+			if (indexedLines % LINES_PER_CHECKPOINT == 0) {
+				addCheckpoint(indexedEnd, indexedRows);
+			}
+
+			scanLine(indexedEnd, line);
+
+			indexedLines++;
+			indexedRows += getRowCount(line);
+			indexedEnd = line.next;
+		}
+
+		return isComplete();
+	}
+
+	/**
+	 * Indexes the text until the given row is indexed or the text ends.
+	 *
+	 * @param row The row which needs to be indexed.
+	 */
+	void indexUntilRow(long row) {
+		while (true) {
+			// Index in chunks, so the lock is not held for long.
+			synchronized (this) {
+				if (indexedRows > row || indexLines(LINES_PER_CHECKPOINT)) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void addCheckpoint(long offset, long row) {
+		if (checkpointCount == checkpointOffsets.length) {
+			checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpointCount * 2);
+			checkpointRows = Arrays.copyOf(checkpointRows, checkpointCount * 2);
+		}
+
+		checkpointOffsets[checkpointCount] = offset;
+		checkpointRows[checkpointCount] = row;
+		checkpointCount++;
+	}
+
+	synchronized boolean isComplete() {
+		return indexedEnd >= text.limit();
+	}
+
+	/**
+	 * @return The number of rows which were indexed so far.
+	 */
+	synchronized long getIndexedRowCount() {
+		return indexedRows;
+	}
+
+	/**
+	 * Estimates the number of rows of the text. Rows which were not indexed yet are extrapolated from the indexed
+	 * part, so the estimate gets better while the index grows and is exact once it is complete.
+	 *
+	 * @return The estimated number of rows.
+	 */
+	synchronized long estimateRowCount() {
+		if (isComplete()) {
+			return indexedRows;
+		}
+
+		if (indexedEnd == 0) {
+			return 1;
+		}
+
+		final double rowsPerByte = (double) indexedRows / indexedEnd;
+		return indexedRows + (long) Math.ceil((text.limit() - indexedEnd) * rowsPerByte);
+	}
+
+	/**
+	 * Finds the line containing a row. The text is indexed up to the row if needed.
+	 *
+	 * @param row  The row to look up.
+	 * @param line Is filled with the line containing the row.
+	 * @return TRUE if the row was found, FALSE if the text has less rows.
+	 */
+	boolean findRow(long row, Line line) {
+
+		indexUntilRow(row);
+
+		long offset;
+		long firstRow;
+		synchronized (this) {
+			if (row < 0 || row >= indexedRows) {
+				return false;
+			}
+
+			final int checkpoint = findCheckpoint(row);
+			offset = checkpointOffsets[checkpoint];
+			firstRow = checkpointRows[checkpoint];
+		}
+
+		// The text before the indexed end does not change, so it can be scanned without the lock.
+		while (true) {
+			scanLine(offset, line);
+			final int rows = getRowCount(line);
+
+			if (row < firstRow + rows) {
+				line.rowInLine = (int) (row - firstRow);
+				return true;
+			}
+
+			firstRow += rows;
+			offset = line.next;
+		}
+	}
+
+	/**
+	 * @return The index of the last checkpoint which starts at or before the row.
+	 */
+	private int findCheckpoint(long row) {
+		int low = 0;
+		int high = checkpointCount - 1;
+
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (checkpointRows[mid] <= row) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Reads the characters of a row.
+	 *
+	 * @param line The line containing the row, as found by {@link #findRow(long, Line)}.
+	 * @return The characters of the row. Tabs and other control characters are replaced by spaces.
+	 */
+	String getRowText(Line line) {
+		final String lineText = decode(line.start, line.textEnd);
+
+		final int length = lineText.codePointCount(0, lineText.length());
+		final int startColumn = Math.min(line.rowInLine * columns, length);
+		final int endColumn = Math.min(startColumn + columns, length);
+
+		final String rowText = lineText.substring(lineText.offsetByCodePoints(0, startColumn),
+				lineText.offsetByCodePoints(0, endColumn));
+
+		final StringBuilder result = new StringBuilder(rowText.length());
+		for (int i = 0; i < rowText.length(); i++) {
+			final char c = rowText.charAt(i);
+			result.append(Character.isISOControl(c) ? ' ' : c);
+		}
+		return result.toString();
+	}
+
+	private String decode(long start, long end) {
+		final byte[] bytes = new byte[(int) (end - start)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = text.get((int) start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	private int getRowCount(Line line) {
+		// An empty line still takes one row.
+		return Math.max(1, (line.length + columns - 1) / columns);
+	}
+
+	/**
+	 * Scans the line starting at the given offset. Characters are counted like the UTF-8 decoder emits them: a valid
+	 * sequence is one character, a continuation byte which does not continue a sequence and every other invalid byte
+	 * are replaced by one U+FFFD each. A sequence which breaks off counts as one U+FFFD, split into its maximal
+	 * subparts as the Unicode standard recommends for decoders.
+	 *
+	 * @param start The offset of the first byte of the line.
+	 * @param line  Is filled with the line.
+	 */
+	private void scanLine(long start, Line line) {
+		final int limit = text.limit();
+		final int maxEnd = (int) Math.min(limit, start + MAX_SEGMENT_BYTES);
+
+		int length = 0;
+
+		// The continuation bytes the current sequence still needs and the range the next one must lie in.
+		int pending = 0;
+		int low = 0x80;
+		int high = 0xBF;
+
+		int i = (int) start;
+		while (i < maxEnd) {
+			final int b = text.get(i) & 0xFF;
+			if (b == '\n') {
+				break;
+			}
+			if (pending > 0 && b >= low && b <= high) {
+				pending--;
+				low = 0x80;
+				high = 0xBF;
+			} else {
+				// Starts a new character, a broken sequence before it was already counted by its lead byte.
+				length++;
+				pending = getContinuationCount(b);
+				low = b == 0xE0 ? 0xA0 : b == 0xF0 ? 0x90 : 0x80;
+				high = b == 0xED ? 0x9F : b == 0xF4 ? 0x8F : 0xBF;
+			}
+			i++;
+		}
+
+		int textEnd = i;
+		int next = i;
+
+		if (i < limit && text.get(i) == '\n') {
+			next = i + 1;
+
+			// Windows line breaks.
+			if (textEnd > start && text.get(textEnd - 1) == '\r') {
+				textEnd--;
+				length--;
+			}
+		} else {
+			// The segment was cut, do not split an UTF-8 sequence.
+			while (pending > 0 && next < limit) {
+				final int b = text.get(next) & 0xFF;
+				if (b < low || b > high) {
+					break;
+				}
+				next++;
+				pending--;
+				low = 0x80;
+				high = 0xBF;
+			}
+			textEnd = next;
+		}
+
+		line.start = start;
+		line.textEnd = textEnd;
+		line.next = next;
+		line.length = length;
+		line.rowInLine = 0;
+	}
+
+	/**
+	 * @param b The first byte of a sequence.
+	 * @return The number of continuation bytes a valid sequence starting with the byte has, 0 for single bytes and
+	 * bytes which can not start a sequence.
+	 */
+	private static int getContinuationCount(int b) {
+		if (b < 0xC2) {
+			return 0;
+		} else if (b < 0xE0) {
+			return 1;
+		} else if (b < 0xF0) {
+			return 2;
+		} else if (b < 0xF5) {
+			return 3;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,78 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A sequence of bytes at a fixed offset from the start of a file which identifies its format, e.g. "%PDF-" at the
+ * start of every PDF document.
+ */
+public final class MagicSignature {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final int offset;
+	private final byte[] bytes;
+
+	private MagicSignature(int offset, byte[] bytes) {
+
+		if (offset < 0 || bytes.length == 0) {
+			throw new IllegalArgumentException("Signature needs bytes at a positive offset.");
+		}
+
+		this.offset = offset;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @param offset The offset of the signature from the start of the file.
+	 * @param bytes  The bytes of the signature. Values above 127 are allowed.
+	 * @return The signature.
+	 */
+	public static MagicSignature of(int offset, int... bytes) {
+		final byte[] signature = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			signature[i] = (byte) bytes[i];
+		}
+		return new MagicSignature(offset, signature);
+	}
+
+	/**
+	 * @param offset The offset of the signature from the start of the file.
+	 * @param text   The signature as ASCII text.
+	 * @return The signature.
+	 */
+	public static MagicSignature ofText(int offset, String text) {
+		return new MagicSignature(offset, text.getBytes(ASCII));
+	}
+
+	/**
+	 * @return The number of bytes from the start of the file needed to check this signature.
+	 */
+	public int getEnd() {
+		return offset + bytes.length;
+	}
+
+	/**
+	 * @param header The first bytes of a file.
+	 * @param length The number of valid bytes in the header.
+	 * @return TRUE if the file has this signature.
+	 */
+	public boolean matches(byte[] header, int length) {
+		if (length < getEnd()) {
+			return false;
+		}
+
+		for (int i = 0; i < bytes.length; i++) {
+			if (header[offset + i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "MagicSignature{offset=" + offset + ", bytes=" + Arrays.toString(bytes) + '}';
+	}
+}
@@ -3,108 +3,336 @@ package de.fraunhofer.ipa.vrread.datasource;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.pdf.PdfRenderer;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.util.Log;
 
 import java.io.IOException;
+import java.util.Objects;
 
 /**
  * The datasource is responsible for creation of new textures and sending them
  * <p>
+ * The {@link PdfRenderer} only allows one open page at a time and pdfium, the library behind it, can not render in
+ * parallel: since API 26 the framework serializes all renderers of the process on one lock and before it pdfium is
+ * not thread safe at all. So every call into a renderer of any document goes through {@link #RENDER_LOCK} and tiles
+ * are rendered one after another, no matter how many threads request them.
+ * <p>
+ * Previews are rendered at half the resolution in display mode and then scaled up to the size of the tile.
+ * <p>
+ * The sizes of all pages are collected into a {@link PageGeometry} when the document is opened, so boundary checks
+ * do not need to open pages. For long documents only the first pages are indexed right away, the rest is indexed in
+ * the background. Until a page is indexed its size is estimated from the last indexed page, so the boundary checks of
+ * the render thread never wait for the renderer.
+ * <p>
  * Created by tbf on 02.03.2017.
  */
 
-public class PDFDatasource implements Datasource {
+public class PDFDatasource implements ProgressiveDatasource {
 
 	private final static String TAG = PDFDatasource.class.getSimpleName();
 
-	private PdfRenderer renderer;
-	private ReadPosition pageBoundary = new ReadPosition();
+	/**
+	 * Resolution of the preview relative to the final tile.
+	 */
+	final static int PREVIEW_DOWNSCALE = 2;
+
+	/**
+	 * Number of pages which are indexed while opening the document. The remaining pages are indexed in the background.
+	 */
+	private final static int SYNC_INDEXED_PAGES = 16;
+
+	/**
+	 * Guards all calls into pdfium, for all documents of the process.
+	 */
+	private static final Object RENDER_LOCK = new Object();
+
+	private final String documentId;
 
-	public PDFDatasource(Uri file, Context context) throws IOException {
+	private final BitmapPool bitmapPool;
+
+	private final ParcelFileDescriptor parcFile;
+	private final PdfRenderer renderer;
+	private final int pageCount;
+	private final PageGeometry pageGeometry;
+
+	/**
+	 * Only changed while holding the {@link #RENDER_LOCK}.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * @param file       The URI of the PDF document.
+	 * @param context    The context to open the URI with.
+	 * @param bitmapPool The pool the bitmaps of the tiles are borrowed from.
+	 * @throws IOException If the document could not be opened.
+	 */
+	public PDFDatasource(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
 
 		final ContentResolver resolver = context.getContentResolver();
-		final ParcelFileDescriptor parcFile = resolver.openFileDescriptor(file, "r");
 
+		documentId = DocumentFingerprint.of(resolver, file);
+
+		parcFile = resolver.openFileDescriptor(file, "r");
 		if (parcFile == null) {
-			throw new IllegalArgumentException("Could not open given file URI.");
+			throw new IOException("Could not open given file URI.");
+		}
+
+		try {
+			synchronized (RENDER_LOCK) {
+				renderer = new PdfRenderer(parcFile);
+				pageCount = renderer.getPageCount();
+			}
+		} catch (IOException | RuntimeException e) {
+			parcFile.close();
+			throw e;
 		}
 
-		renderer = new PdfRenderer(parcFile);
+		pageGeometry = new PageGeometry(pageCount);
+
+		try {
+			indexPages(Math.min(SYNC_INDEXED_PAGES, pageCount));
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+
+		if (!pageGeometry.isComplete()) {
+			startBackgroundIndexing();
+		}
+	}
+
+	/**
+	 * Adds the next pages to the page index. Can be called from multiple threads, each page is only indexed once.
+	 *
+	 * @param endPage The index of the first page which is not indexed.
+	 */
+	void indexPages(int endPage) {
+		while (true) {
+			// Lock for each page only, so the background indexing does not block the rendering of tiles for long.
+			synchronized (RENDER_LOCK) {
+				final int i = pageGeometry.getIndexedPageCount();
+				if (i >= endPage) {
+					return;
+				}
+				checkOpen();
+
+				final PdfRenderer.Page page = renderer.openPage(i);
+				pageGeometry.addPage(i, page.getWidth(), page.getHeight());
+				page.close();
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the {@link #RENDER_LOCK}.
+	 */
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("PDF was already closed.");
+		}
+	}
+
+	private void startBackgroundIndexing() {
+		final Thread indexer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					indexPages(pageGeometry.getPageCount());
+					Log.d(TAG, String.format("Indexed %d pages.", pageGeometry.getPageCount()));
+				} catch (IllegalStateException e) {
+					// Datasource was closed in the meantime.
+					Log.d(TAG, "Page indexing stopped: " + e.getMessage());
+				}
+			}
+		}, TAG + "-index");
+		indexer.setDaemon(true);
+		indexer.setPriority(Thread.MIN_PRIORITY);
+		indexer.start();
+	}
+
+	/**
+	 * @return The index of the page sizes. It might not be complete yet.
+	 */
+	public PageGeometry getPageGeometry() {
+		return pageGeometry;
 	}
 
 	public static String[] getSupportedMimeTypes() {
 		return new String[]{"application/pdf"};
 	}
 
+	public static MagicSignature[] getSignatures() {
+		return new MagicSignature[]{MagicSignature.ofText(0, "%PDF-")};
+	}
+
 	/**
 	 * Closes all resources. After this call the datasource must not be used anymore.
 	 */
+	@Override
 	public void close() {
-		renderer.close();
-		renderer = null;
+		synchronized (RENDER_LOCK) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			renderer.close();
+		}
+
+		try {
+			parcFile.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Could not close PDF file.", e);
+		}
 	}
 
 	@Override
 	public Bitmap getTextureBitmap(ReadPosition position, float scale, TextureSize size) {
 
-		PdfRenderer.Page page = renderer.openPage(position.getPage());
+		final Bitmap bitmap = acquireBitmap(size);
+		renderInto(bitmap, position.getPage(), position.getX(), position.getY(), scale, 1, false);
 
-		// Check if we must invalidate the boundary.
-		pageBoundary.setPage(position.getPage());
-		pageBoundary.setX(page.getWidth());
-		pageBoundary.setY(page.getHeight());
+		return bitmap;
+	}
 
-		// We start to read at the top of the page, which is half of the PDF size.
-		float curY = - position.getY() / scale;
-		float curX = - position.getX() / scale;
+	@Override
+	public Bitmap getPreviewBitmap(ReadPosition position, float scale, TextureSize size) {
 
-		float maxOffsetX = - page.getWidth();
-		float maxOffsetY = - page.getHeight();
+		final Bitmap preview = acquireBitmap(getPreviewSize(size));
+		renderInto(preview, position.getPage(), position.getX(), position.getY(), scale, PREVIEW_DOWNSCALE, true);
 
-		if(curX < maxOffsetX) {
-			curX = maxOffsetX;
-		}
+		return upscalePreview(preview, size);
+	}
 
-		if(curY < maxOffsetY) {
-			curY = maxOffsetY;
-		}
+	/**
+	 * @param size The size of the bitmap.
+	 * @return An empty bitmap from the pool.
+	 */
+	Bitmap acquireBitmap(TextureSize size) {
+		return bitmapPool.acquire(size, Bitmap.Config.ARGB_8888);
+	}
 
-		// Generate a bitmap with the correct dimensions.
-		Rect bitmapRect = new Rect(0, 0,
-				size.getWidth(),
-				size.getHeight());
-		Bitmap bitmap = Bitmap.createBitmap(size.getWidth(), size.getHeight(), Bitmap.Config.ARGB_8888);
+	/**
+	 * @param size The size of the tile.
+	 * @return The size of the bitmap a preview of the tile is rendered into.
+	 */
+	TextureSize getPreviewSize(TextureSize size) {
+		return new TextureSize(Math.max(1, size.getWidth() / PREVIEW_DOWNSCALE),
+				Math.max(1, size.getHeight() / PREVIEW_DOWNSCALE));
+	}
 
-		Matrix transform = new Matrix();
-		transform.postTranslate(curX, curY);
-		transform.postScale(scale, scale);
+	/**
+	 * Scales a preview up so it can replace the tile. The preview bitmap is given back to the pool.
+	 *
+	 * @param preview The rendered preview.
+	 * @param size    The size of the tile.
+	 * @return The bitmap of the tile.
+	 */
+	Bitmap upscalePreview(Bitmap preview, TextureSize size) {
 
-		page.render(bitmap, bitmapRect, transform, PdfRenderer.Page.RENDER_MODE_FOR_PRINT);
-		page.close();
+		final Bitmap bitmap = acquireBitmap(size);
+		final Canvas canvas = new Canvas(bitmap);
+		canvas.drawBitmap(preview, null, new Rect(0, 0, size.getWidth(), size.getHeight()),
+				new Paint(Paint.FILTER_BITMAP_FLAG));
+		bitmapPool.release(preview);
 
 		return bitmap;
 	}
 
+	/**
+	 * Renders a part of a page into the bitmap. The upper left corner of the bitmap shows the given position of the
+	 * page. The position might lie outside of the page, e.g. above it, then only the part of the bitmap covered by the
+	 * page is drawn and the rest stays untouched. This allows to compose a bitmap from multiple pages.
+	 *
+	 * @param bitmap    The bitmap to render into.
+	 * @param pageIndex The page to render.
+	 * @param x         The x position of the upper left corner of the bitmap at the given scale.
+	 * @param y         The y position of the upper left corner of the bitmap at the given scale.
+	 * @param scale     The scale of the document.
+	 * @param downscale Factor by which the bitmap is smaller then the tile at the given scale.
+	 * @param preview   TRUE to render faster in display quality.
+	 */
+	void renderInto(Bitmap bitmap, int pageIndex, double x, double y, float scale, int downscale,
+					boolean preview) {
+
+		synchronized (RENDER_LOCK) {
+			checkOpen();
+			final PdfRenderer.Page page = renderer.openPage(pageIndex);
+
+			// The part of the bitmap which is covered by the page.
+			final double pixelScale = scale / downscale;
+			final Rect destClip = new Rect(
+					clampToBitmap(-x / downscale, bitmap.getWidth()),
+					clampToBitmap(-y / downscale, bitmap.getHeight()),
+					clampToBitmap((-x + page.getWidth() * scale) / downscale, bitmap.getWidth()),
+					clampToBitmap((-y + page.getHeight() * scale) / downscale, bitmap.getHeight()));
+
+			if (destClip.right > destClip.left && destClip.bottom > destClip.top) {
+				Matrix transform = new Matrix();
+				transform.postTranslate((float) (-x / scale), (float) (-y / scale));
+				transform.postScale((float) pixelScale, (float) pixelScale);
+
+				page.render(bitmap, destClip, transform, preview ?
+						PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY : PdfRenderer.Page.RENDER_MODE_FOR_PRINT);
+			}
+
+			page.close();
+		}
+	}
+
+	private static int clampToBitmap(double value, int size) {
+		return (int) Math.max(0, Math.min(Math.round(value), size));
+	}
+
 	@Override
 	public int getPageCount() {
-		return renderer.getPageCount();
+		return pageCount;
 	}
 
 	@Override
 	public boolean isInsidePage(ReadPosition tempReadPosition, float scale) {
-		boolean isInPageX = tempReadPosition.getX() / scale < pageBoundary.getX();
-		boolean isInPageY = tempReadPosition.getY() / scale < pageBoundary.getY();
+		final int page = tempReadPosition.getPage();
+
+		boolean isInPageX = tempReadPosition.getX() / scale < getPageWidth(page);
+		boolean isInPageY = tempReadPosition.getY() / scale < getUnscaledPageHeight(page);
 		return isInPageX && isInPageY;
 	}
 
-	public int getPageHeight(int previousPage, float scale) {
-		PdfRenderer.Page page = renderer.openPage(previousPage);
-		final int pageHeight = (int)(page.getHeight() * scale);
-		page.close();
-		return pageHeight;
+	private float getPageWidth(int page) {
+		return pageGeometry.getPageWidth(getIndexedPage(page));
+	}
+
+	private float getUnscaledPageHeight(int page) {
+		return pageGeometry.getPageHeight(getIndexedPage(page));
+	}
+
+	/**
+	 * Pages which are not indexed yet are assumed to have the size of the last indexed page, most documents have pages
+	 * of equal size. Waiting for the index would block the render thread while tiles are rendered.
+	 *
+	 * @return The page itself or the last indexed page.
+	 */
+	private int getIndexedPage(int page) {
+		if (pageGeometry.isIndexed(page)) {
+			return page;
+		}
+		return Math.max(0, pageGeometry.getIndexedPageCount() - 1);
+	}
+
+	@Override
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	@Override
+	public int getPageHeight(int page, float scale) {
+		return (int) (getUnscaledPageHeight(page) * scale);
 	}
 }
@@ -0,0 +1,147 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import java.util.Arrays;
+
+/**
+ * Index of the page sizes of a document. It holds the width and height of every page together with the offset of
+ * each page from the start of the document, when all pages are placed below each other. All lookups are constant time
+ * and do not need to open a page.
+ * <p>
+ * For long documents the index is built in the background. Pages are added in order, so at any time the first
+ * {@link #getIndexedPageCount()} pages are known. The index can be read from any thread while it is built.
+ * <p>
+ * Sizes are given in document units at a scale of 1.
+ */
+public final class PageGeometry {
+
+	private final float[] widths;
+	private final float[] heights;
+
+	/**
+	 * The offset of the top of each page. It has one more entry than pages, the last one is the total height.
+	 */
+	private final double[] offsets;
+
+	/**
+	 * Number of pages which were added. Written after the arrays, so reading it first makes the entries visible.
+	 */
+	private volatile int indexedPages = 0;
+
+	/**
+	 * @param pageCount The number of pages of the document.
+	 */
+	public PageGeometry(int pageCount) {
+
+		if (pageCount < 0) {
+			throw new IllegalArgumentException("Page count can not be negative.");
+		}
+
+		widths = new float[pageCount];
+		heights = new float[pageCount];
+		offsets = new double[pageCount + 1];
+	}
+
+	/**
+	 * Adds the size of the next page to the index.
+	 *
+	 * @param page   The index of the page. Must be the next page which was not added yet.
+	 * @param width  The width of the page.
+	 * @param height The height of the page.
+	 */
+	public synchronized void addPage(int page, float width, float height) {
+
+		if (page != indexedPages) {
+			throw new IllegalArgumentException("Pages must be added in order.");
+		}
+
+		widths[page] = width;
+		heights[page] = height;
+		offsets[page + 1] = offsets[page] + height;
+
+		indexedPages = page + 1;
+	}
+
+	public int getPageCount() {
+		return widths.length;
+	}
+
+	/**
+	 * @return The number of pages which are already indexed.
+	 */
+	public int getIndexedPageCount() {
+		return indexedPages;
+	}
+
+	/**
+	 * @param page The index of the page.
+	 * @return TRUE if the size of the page is known.
+	 */
+	public boolean isIndexed(int page) {
+		return page >= 0 && page < indexedPages;
+	}
+
+	/**
+	 * @return TRUE if all pages are indexed.
+	 */
+	public boolean isComplete() {
+		return indexedPages == widths.length;
+	}
+
+	public float getPageWidth(int page) {
+		checkIndexed(page);
+		return widths[page];
+	}
+
+	public float getPageHeight(int page) {
+		checkIndexed(page);
+		return heights[page];
+	}
+
+	/**
+	 * @param page The index of the page.
+	 * @return The offset of the top of the page from the start of the document.
+	 */
+	public double getPageOffset(int page) {
+		if (page < 0 || page > indexedPages) {
+			throw new IllegalStateException("Page " + page + " is not indexed yet.");
+		}
+		return offsets[page];
+	}
+
+	/**
+	 * @return The height of all pages together. Only available when the index is complete.
+	 */
+	public double getTotalHeight() {
+		if (!isComplete()) {
+			throw new IllegalStateException("Page index is not complete yet.");
+		}
+		return offsets[widths.length];
+	}
+
+	/**
+	 * Finds the page containing the given offset from the start of the document. Offsets behind the indexed pages
+	 * return the last indexed page.
+	 *
+	 * @param offset The offset from the start of the document.
+	 * @return The index of the page or -1 if no page is indexed yet.
+	 */
+	public int findPage(double offset) {
+
+		final int count = indexedPages;
+		if (count == 0) {
+			return -1;
+		}
+
+		// Offsets of page starts are sorted, search the last start which is not behind the offset.
+		final int pos = Arrays.binarySearch(offsets, 0, count, offset);
+		final int page = pos >= 0 ? pos : -pos - 2;
+
+		return Math.max(0, Math.min(page, count - 1));
+	}
+
+	private void checkIndexed(int page) {
+		if (!isIndexed(page)) {
+			throw new IllegalStateException("Page " + page + " is not indexed yet.");
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Displays large plain text files like logs or transcripts. The file is memory mapped, so it is never read as a whole,
+ * and the lines are found via a {@link LineIndex} which is built incrementally: on demand up to the rows which are
+ * read and completely in the background. Only the rows which fall into a requested tile are decoded and drawn, so
+ * the time to open the file and the memory needed do not depend on its size.
+ * <p>
+ * The text is set in a monospaced font and wrapped at a fixed number of columns, so wrapping does not need to measure
+ * the text. The whole file is one long page. Its height is estimated from the indexed part until the index is
+ * complete. The boundaries asked for on the render thread are answered from this estimate, only the tile rendering
+ * indexes on demand.
+ * <p>
+ * The file is expected to be UTF-8 encoded, which includes plain ASCII. Files bigger than 2 GB can not be mapped.
+ */
+public class PlainTextDatasource implements Datasource {
+
+	private static final String TAG = PlainTextDatasource.class.getSimpleName();
+
+	/**
+	 * Width of the layout in pixels at a scale of 1. The same as the tile size, so at a scale of 1 a tile spans the
+	 * page.
+	 */
+	private static final int LAYOUT_WIDTH = 512;
+	private static final int MARGIN = 16;
+	private static final float TEXT_SIZE = 16f;
+	private static final int LINE_HEIGHT = 20;
+
+	/**
+	 * Number of lines which are indexed while opening the file, enough for the first screens and the estimate of the
+	 * height.
+	 */
+	private static final int SYNC_INDEXED_LINES = 1024;
+
+	/**
+	 * Number of lines the background indexing indexes at once. The index is locked meanwhile, so the chunks are kept
+	 * small enough for the render thread to read the estimate without noticeable waiting.
+	 */
+	private static final int INDEX_CHUNK_LINES = LineIndex.LINES_PER_CHECKPOINT;
+
+	private final String documentId;
+	private final BitmapPool bitmapPool;
+
+	private final ParcelFileDescriptor parcFile;
+	private final LineIndex lineIndex;
+
+	/**
+	 * Used for measuring only, drawing uses a copy per tile because a paint is not thread safe.
+	 */
+	private final Paint textPaint;
+	private final float baselineOffset;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param file       The URI of the text file.
+	 * @param context    The context to open the URI with.
+	 * @param bitmapPool The pool the bitmaps of the tiles are borrowed from.
+	 * @throws IOException If the file could not be opened or mapped.
+	 */
+	public PlainTextDatasource(Uri file, Context context, BitmapPool bitmapPool) throws IOException {
+
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
+
+		final ContentResolver resolver = context.getContentResolver();
+		documentId = DocumentFingerprint.of(resolver, file);
+
+		parcFile = resolver.openFileDescriptor(file, "r");
+		if (parcFile == null) {
+			throw new IOException("Could not open given file URI.");
+		}
+
+		final MappedByteBuffer text;
+		try {
+			final FileChannel channel = new FileInputStream(parcFile.getFileDescriptor()).getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Text file is too big to be mapped.");
+			}
+
+			// The mapping stays valid after the descriptor was closed.
+			text = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException | RuntimeException e) {
+			parcFile.close();
+			throw e;
+		}
+
+		textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		textPaint.setTypeface(Typeface.MONOSPACE);
+		textPaint.setTextSize(TEXT_SIZE);
+		textPaint.setColor(Color.BLACK);
+
+		// Center the glyphs vertically inside of their row.
+		baselineOffset = (LINE_HEIGHT - textPaint.descent() - textPaint.ascent()) / 2f;
+
+		final int columns = (int) ((LAYOUT_WIDTH - 2 * MARGIN) / textPaint.measureText("M"));
+		lineIndex = new LineIndex(text, Math.max(1, columns));
+
+		if (!lineIndex.indexLines(SYNC_INDEXED_LINES)) {
+			startBackgroundIndexing();
+		}
+
+		Log.d(TAG, String.format("Mapped text of %d bytes with %d columns.", text.limit(), columns));
+	}
+
+	public static String[] getSupportedMimeTypes() {
+		return new String[]{"text/plain"};
+	}
+
+	/**
+	 * Plain text has no signature, only text starting with an UTF-8 byte order mark can be recognized.
+	 */
+	public static MagicSignature[] getSignatures() {
+		return new MagicSignature[]{MagicSignature.of(0, 0xEF, 0xBB, 0xBF)};
+	}
+
+	private void startBackgroundIndexing() {
+		final Thread indexer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!closed && !lineIndex.indexLines(INDEX_CHUNK_LINES)) {
+					// Lets the threads waiting for the lock go first.
+					Thread.yield();
+				}
+				Log.d(TAG, String.format("Indexed %d rows.", lineIndex.getIndexedRowCount()));
+			}
+		}, TAG + "-index");
+		indexer.setDaemon(true);
+		indexer.setPriority(Thread.MIN_PRIORITY);
+		indexer.start();
+	}
+
+	/**
+	 * Stops the background indexing and closes the file. After this call the datasource must not be used anymore.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+
+		try {
+			parcFile.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Could not close text file.", e);
+		}
+	}
+
+	@Override
+	public Bitmap getTextureBitmap(ReadPosition position, float scale, TextureSize size) {
+
+		final Bitmap bitmap = bitmapPool.acquire(size, Bitmap.Config.ARGB_8888);
+
+		// The rows covered by the tile.
+		final double top = position.getY() / scale - MARGIN;
+		final double bottom = (position.getY() + size.getHeight()) / scale - MARGIN;
+		final long firstRow = (long) Math.max(0, Math.floor(top / LINE_HEIGHT));
+		final long endRow = (long) Math.ceil(bottom / LINE_HEIGHT);
+
+		final Canvas canvas = new Canvas(bitmap);
+		canvas.scale(scale, scale);
+
+		// The rows are drawn relative to the tile origin. Far down a long text the absolute position has more digits
+		// than a float holds, so it is only handled as double.
+		final double originX = position.getX() / scale;
+		final double originY = position.getY() / scale;
+
+		final Paint paint = new Paint(textPaint);
+		final LineIndex.Line line = new LineIndex.Line();
+
+		for (long row = firstRow; row < endRow; row++) {
+			if (!lineIndex.findRow(row, line)) {
+				break;
+			}
+
+			final float y = (float) (MARGIN + row * LINE_HEIGHT - originY + baselineOffset);
+			canvas.drawText(lineIndex.getRowText(line), (float) (MARGIN - originX), y, paint);
+		}
+
+		return bitmap;
+	}
+
+	@Override
+	public int getPageCount() {
+		return 1;
+	}
+
+	@Override
+	public boolean isInsidePage(ReadPosition tempReadPosition, float scale) {
+		if (tempReadPosition.getX() / scale >= LAYOUT_WIDTH) {
+			return false;
+		}
+
+		final double y = tempReadPosition.getY() / scale - MARGIN;
+		if (y < 0) {
+			return true;
+		}
+
+		// Called on the render thread, so the text is not indexed here. The estimate is exact once the background
+		// indexing is complete.
+		final long row = (long) (y / LINE_HEIGHT);
+		return row < lineIndex.estimateRowCount() || y < LINE_HEIGHT;
+	}
+
+	@Override
+	public int getPageHeight(int page, float scale) {
+		final long height = 2 * MARGIN + lineIndex.estimateRowCount() * LINE_HEIGHT;
+		return (int) Math.min(Integer.MAX_VALUE, height * scale);
+	}
+
+	@Override
+	public String getDocumentId() {
+		return documentId;
+	}
+}
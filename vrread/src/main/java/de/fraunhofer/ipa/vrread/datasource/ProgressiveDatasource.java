@@ -0,0 +1,22 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Bitmap;
+
+/**
+ * A datasource which can quickly produce a preview of a tile in lower quality. The {@link TileRenderer} shows the
+ * preview first and replaces it as soon as the tile is rendered in full quality. This shortens the time until the
+ * reader sees something readable after jumping to a new page or changing the zoom.
+ */
+public interface ProgressiveDatasource extends Datasource {
+
+	/**
+	 * Returns a preview of the bitmap {@link #getTextureBitmap(ReadPosition, float, TextureSize)} would return. It
+	 * has the same size and shows the same part of the document, but is rendered faster in lower quality.
+	 *
+	 * @param position The position of the upper left corner of the tile.
+	 * @param scale    The current scale level of the texture.
+	 * @param size     The texture size in px.
+	 * @return The preview bitmap.
+	 */
+	Bitmap getPreviewBitmap(ReadPosition position, float scale, TextureSize size);
+}
@@ -4,15 +4,16 @@ import java.util.Locale;
 
 /**
  * Helper class to locate the current position inside a document.
- * It consists of the page, and the x and y coordinates.
+ * It consists of the page, and the x and y coordinates. The coordinates are doubles so they stay precise when a whole
+ * document is treated as one tall page.
  *
  * Created by Thomas Felix on 22.02.2017.
  */
 public class ReadPosition {
 
 	private int page;
-	private float x;
-	private float y;
+	private double x;
+	private double y;
 
 	public ReadPosition() {
 		setY(0);
@@ -20,7 +21,7 @@ public class ReadPosition {
 		setPage(0);
 	}
 
-	public ReadPosition(int page, float x, float y ) {
+	public ReadPosition(int page, double x, double y) {
 		setPage(page);
 		setX(x);
 		setY(y);
@@ -33,7 +34,7 @@ public class ReadPosition {
 		this.page = page;
 	}
 
-	public void setX(float x) {
+	public void setX(double x) {
 		if(x < 0) {
 			x = 0;
 		}
@@ -41,7 +42,7 @@ public class ReadPosition {
 		this.x = x;
 	}
 
-	public void setY(float y) {
+	public void setY(double y) {
 		if(y < 0) {
 			y = 0;
 		}
@@ -49,11 +50,11 @@ public class ReadPosition {
 		this.y = y;
 	}
 
-	public float getX() {
+	public double getX() {
 		return x;
 	}
 
-	public float getY() {
+	public double getY() {
 		return y;
 	}
 
@@ -67,6 +68,7 @@ public class ReadPosition {
 	}
 
 	public void set(ReadPosition pos) {
+		this.page = pos.page;
 		this.x = pos.x;
 		this.y = pos.y;
 	}
@@ -0,0 +1,92 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * Decodes the part of an image which is covered by a tile. Only this region is decoded, subsampled if the image is
+ * shown smaller than its original size, so the memory needed is bounded by the tile size regardless of the size of
+ * the image.
+ */
+final class RegionTileDecoder {
+
+	private static final String TAG = RegionTileDecoder.class.getSimpleName();
+
+	/**
+	 * Priv. ctor so the class can only be used in static fashon.
+	 */
+	private RegionTileDecoder() {
+		// no op.
+	}
+
+	/**
+	 * Decodes a tile of the image.
+	 *
+	 * @param decoder    The decoder of the image.
+	 * @param bitmapPool The pool the bitmap of the tile is borrowed from.
+	 * @param position   The position of the upper left corner of the tile.
+	 * @param scale      The scale the image is shown at.
+	 * @param size       The size of the tile.
+	 * @return The bitmap of the tile. Parts outside of the image stay transparent.
+	 */
+	static Bitmap decodeTile(BitmapRegionDecoder decoder, BitmapPool bitmapPool, ReadPosition position, float scale,
+							 TextureSize size) {
+
+		final Bitmap bitmap = bitmapPool.acquire(size, Bitmap.Config.ARGB_8888);
+
+		// The part of the image covered by the tile.
+		final Rect visibleRegion = new Rect(
+				(int) Math.max(0, Math.floor(position.getX() / scale)),
+				(int) Math.max(0, Math.floor(position.getY() / scale)),
+				(int) Math.min(decoder.getWidth(), Math.ceil((position.getX() + size.getWidth()) / scale)),
+				(int) Math.min(decoder.getHeight(), Math.ceil((position.getY() + size.getHeight()) / scale)));
+
+		if (visibleRegion.left >= visibleRegion.right || visibleRegion.top >= visibleRegion.bottom) {
+			// The tile lies outside of the image.
+			return bitmap;
+		}
+
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = getSampleSize(scale);
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+		final Bitmap decoded = decoder.decodeRegion(visibleRegion, options);
+		if (decoded == null) {
+			Log.e(TAG, "Could not decode image region " + visibleRegion);
+			return bitmap;
+		}
+
+		// Place the decoded part at its position inside the tile.
+		final Rect destination = new Rect(
+				(int) Math.round(visibleRegion.left * scale - position.getX()),
+				(int) Math.round(visibleRegion.top * scale - position.getY()),
+				(int) Math.round(visibleRegion.right * scale - position.getX()),
+				(int) Math.round(visibleRegion.bottom * scale - position.getY()));
+
+		final Canvas canvas = new Canvas(bitmap);
+		canvas.drawBitmap(decoded, null, destination, new Paint(Paint.FILTER_BITMAP_FLAG));
+		decoded.recycle();
+
+		return bitmap;
+	}
+
+	/**
+	 * Calculates the subsampling of the image. The decoder only supports powers of two, so the biggest one is chosen
+	 * which still keeps at least the resolution of the tile.
+	 *
+	 * @param scale The scale the image is shown at.
+	 * @return The sample size for the decoder.
+	 */
+	private static int getSampleSize(float scale) {
+		int sampleSize = 1;
+		while (sampleSize * 2 * scale <= 1f) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+}
@@ -0,0 +1,22 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import java.io.IOException;
+
+import de.fraunhofer.ipa.vrread.graphics.layer.GlyphLayer;
+
+/**
+ * A datasource whose content is text. Instead of rasterizing tiles its pages are laid out into glyph quads and
+ * displayed by a {@link GlyphLayer}, which keeps the text sharp at every zoom level. The layer only lays out the pages
+ * around the read position, the tile methods of the {@link Datasource} are only used as a fallback.
+ */
+public interface TextDatasource extends Datasource {
+
+	/**
+	 * Returns the text of a page. Might be expensive, so it must not be called on the UI or render thread.
+	 *
+	 * @param page The index of the page.
+	 * @return The text of the page, line breaks are kept as '\n'.
+	 * @throws IOException If the page could not be read.
+	 */
+	CharSequence getPageText(int page) throws IOException;
+}
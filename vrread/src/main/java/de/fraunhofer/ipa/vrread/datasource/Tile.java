@@ -0,0 +1,82 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Bitmap;
+
+import java.util.Objects;
+
+/**
+ * A rendered texture tile. It holds the bitmap together with the read position of the upper left corner of the tile
+ * inside the document, so the renderer knows which part of the document the texture shows.
+ * <p>
+ * A tile can be shared, e.g. between a cache and the renderer, so it is reference counted. A new tile starts with one
+ * reference. Every user must {@link #retain()} it and {@link #release()} it when done. The bitmap is given back to
+ * its {@link BitmapPool} when the last reference is released, so it must not be recycled by anyone else.
+ */
+public final class Tile {
+
+	private final ReadPosition position;
+	private final Bitmap bitmap;
+	private final BitmapPool pool;
+
+	private int references = 1;
+
+	/**
+	 * @param position The position of the upper left corner of the tile.
+	 * @param bitmap   The rendered bitmap.
+	 * @param pool     The pool the bitmap is given back to once the tile is released. Can be null, then the bitmap is
+	 *                 recycled.
+	 */
+	public Tile(ReadPosition position, Bitmap bitmap, BitmapPool pool) {
+
+		this.position = Objects.requireNonNull(position);
+		this.bitmap = Objects.requireNonNull(bitmap);
+		this.pool = pool;
+	}
+
+	/**
+	 * @return The position of the upper left corner of this tile inside the document.
+	 */
+	public ReadPosition getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return The rendered bitmap of this tile.
+	 */
+	public Bitmap getBitmap() {
+		return bitmap;
+	}
+
+	/**
+	 * Adds a reference to this tile.
+	 *
+	 * @return This tile.
+	 */
+	public synchronized Tile retain() {
+		if (references <= 0) {
+			throw new IllegalStateException("Tile was already released.");
+		}
+
+		references++;
+		return this;
+	}
+
+	/**
+	 * Gives up a reference to this tile. If it was the last reference the bitmap is given back to the pool.
+	 */
+	public synchronized void release() {
+		if (references <= 0) {
+			throw new IllegalStateException("Tile was already released.");
+		}
+
+		references--;
+
+		if (references == 0) {
+			if (pool != null) {
+				pool.release(bitmap);
+			} else {
+				bitmap.recycle();
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.Locale;
+
+/**
+ * Memory cache for already rendered tiles. If the user scrolls back and forth over the same region of a document
+ * the tiles are taken from this cache instead of rasterizing them again. The cache is bounded by the total number of
+ * bytes of the cached bitmaps and evicts the least recently used tiles first.
+ * <p>
+ * The cache holds a reference to each of its tiles. Tiles handed out by {@link #get(TileKey)} are retained for the
+ * caller which must release them after use.
+ */
+public class TileCache {
+
+	private static final String TAG = TileCache.class.getSimpleName();
+
+	/**
+	 * Fraction of the available heap which is used by the cache by default.
+	 */
+	private static final int DEFAULT_HEAP_FRACTION = 8;
+
+	private final LruCache<TileKey, Tile> cache;
+
+	/**
+	 * @param maxBytes The maximum number of bytes of all cached bitmaps.
+	 */
+	public TileCache(int maxBytes) {
+
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Cache size must be bigger then 0.");
+		}
+
+		cache = new LruCache<TileKey, Tile>(maxBytes) {
+			@Override
+			protected int sizeOf(TileKey key, Tile tile) {
+				return tile.getBitmap().getByteCount();
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, TileKey key, Tile oldTile, Tile newTile) {
+				// Give up our reference. The tile might still be in use by the renderer.
+				oldTile.release();
+			}
+		};
+	}
+
+	/**
+	 * Creates a cache which uses a fraction of the available heap memory.
+	 *
+	 * @return A new cache with a default size.
+	 */
+	public static TileCache withDefaultSize() {
+		final long maxMemory = Runtime.getRuntime().maxMemory();
+		return new TileCache((int) Math.min(Integer.MAX_VALUE, maxMemory / DEFAULT_HEAP_FRACTION));
+	}
+
+	/**
+	 * Looks up a tile. If the tile was found it is retained and the caller must release it once it is not needed
+	 * anymore.
+	 *
+	 * @param key The key of the tile.
+	 * @return The retained tile or null if it is not inside the cache.
+	 */
+	public synchronized Tile get(TileKey key) {
+		final Tile tile = cache.get(key);
+
+		if (tile != null) {
+			tile.retain();
+		}
+
+		return tile;
+	}
+
+	/**
+	 * Puts a tile into the cache. The cache retains its own reference, the reference of the caller is not touched.
+	 *
+	 * @param key  The key of the tile.
+	 * @param tile The tile to cache.
+	 */
+	public synchronized void put(TileKey key, Tile tile) {
+		cache.put(key, tile.retain());
+	}
+
+	/**
+	 * Removes all tiles from the cache.
+	 */
+	public synchronized void clear() {
+		cache.evictAll();
+	}
+
+	public synchronized int getHitCount() {
+		return cache.hitCount();
+	}
+
+	public synchronized int getMissCount() {
+		return cache.missCount();
+	}
+
+	/**
+	 * @return The number of bytes currently used by the cached bitmaps.
+	 */
+	public synchronized int getSize() {
+		return cache.size();
+	}
+
+	public synchronized int getMaxSize() {
+		return cache.maxSize();
+	}
+
+	/**
+	 * Writes the current statistics of the cache to the log.
+	 */
+	public void logStatistics() {
+		Log.d(TAG, toString());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "TileCache[hits: %d, misses: %d, size: %d/%d bytes]",
+				cache.hitCount(), cache.missCount(), cache.size(), cache.maxSize());
+	}
+}
@@ -0,0 +1,100 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Identifies a rendered tile. Two tiles with the same key have the exact same content, so the key can be used to
+ * look up already rendered tiles.
+ */
+public final class TileKey {
+
+	private final String documentId;
+	private final int page;
+	private final int x;
+	private final int y;
+	private final float scale;
+	private final int width;
+	private final int height;
+
+	public TileKey(String documentId, ReadPosition position, float scale, TextureSize size) {
+
+		this.documentId = Objects.requireNonNull(documentId);
+		this.page = position.getPage();
+		// The positions of tiles are snapped to the texture grid so rounding does not loose information.
+		this.x = (int) Math.round(position.getX());
+		this.y = (int) Math.round(position.getY());
+		this.scale = scale;
+		this.width = size.getWidth();
+		this.height = size.getHeight();
+	}
+
+	/**
+	 * Creates the key for the tile which would be rendered by the given request.
+	 *
+	 * @param documentId The id of the document the request is rendered from.
+	 * @param request    The tile request.
+	 * @return The key of the tile.
+	 */
+	static TileKey fromRequest(String documentId, TileRequest request) {
+		return new TileKey(documentId, request.getPosition(), request.getScale(), request.getSize());
+	}
+
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	public int getPage() {
+		return page;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public float getScale() {
+		return scale;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+
+		final TileKey other = (TileKey) o;
+		return page == other.page &&
+				x == other.x &&
+				y == other.y &&
+				Float.compare(scale, other.scale) == 0 &&
+				width == other.width &&
+				height == other.height &&
+				documentId.equals(other.documentId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(documentId, page, x, y, scale, width, height);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "TileKey[%s, page: %d, x: %d, y: %d, scale: %.2f, size: %dx%d]",
+				documentId, page, x, y, scale, width, height);
+	}
+}
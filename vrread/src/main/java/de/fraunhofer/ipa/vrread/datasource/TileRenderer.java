@@ -0,0 +1,326 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.Objects;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders the texture tiles of a {@link Datasource} inside background threads. Rasterizing a tile can take a
+ * considerable amount of time, which would otherwise block the render loop and cause judder inside the headset. The
+ * requests are started in the order they were queued, with multiple threads they might finish in a different order.
+ * Finished tiles are handed to a {@link OnTileRenderedListener}.
+ * <p>
+ * Rendered tiles are kept inside a {@link TileCache}. If a requested tile is found there it is delivered without
+ * touching the datasource at all. Otherwise an optional {@link DiskTileCache} is asked, which keeps tiles across
+ * sessions. Tiles can also be prefetched into the cache. Prefetching has a lower priority then requests for tiles
+ * which are needed for display right now.
+ * <p>
+ * If the datasource is a {@link ProgressiveDatasource} tiles which are needed for display and were not cached are
+ * rendered in two passes. At first a quick preview is delivered, then the rendering in full quality is queued again.
+ * So after a page jump all tiles are readable before the first one is rendered in full quality.
+ */
+public class TileRenderer {
+
+	private static final String TAG = TileRenderer.class.getSimpleName();
+
+	private static final int PRIORITY_DISPLAY = 0;
+	private static final int PRIORITY_PREFETCH = 1;
+
+	/**
+	 * Upper bound of the default number of render threads. More threads hardly pay off because they compete with the
+	 * render loop. Decoders like the one of images work in parallel, PDF pages are rendered one at a time anyway and
+	 * the other threads only read the disk cache and prepare bitmaps meanwhile.
+	 */
+	private static final int MAX_DEFAULT_THREADS = 2;
+
+	/**
+	 * How long {@link #shutdown()} waits for the tiles which are rendered right now. It is called on the UI thread, so
+	 * the wait is bounded.
+	 */
+	private static final long SHUTDOWN_TIMEOUT_MS = 500;
+
+	/**
+	 * Callback which is informed about finished tiles. Note: It is called from inside the tile render thread.
+	 */
+	public interface OnTileRenderedListener {
+
+		/**
+		 * Called when a requested tile was rendered and was not cancelled in the meantime. The listener takes over
+		 * the reference to the tile and must release it when done. For a progressive datasource this is called
+		 * twice, first with the preview and then with the final tile.
+		 *
+		 * @param request The request which lead to the tile.
+		 * @param tile    The rendered tile.
+		 */
+		void onTileRendered(TileRequest request, Tile tile);
+	}
+
+	/**
+	 * A queued render job. Jobs are ordered by their priority and then by the order they were queued.
+	 */
+	private class RenderTask implements Runnable, Comparable<RenderTask> {
+
+		private final TileRequest request;
+		private final OnTileRenderedListener listener;
+		private final int priority;
+		private final boolean allowPreview;
+		private final long sequence = taskSequence.getAndIncrement();
+
+		RenderTask(TileRequest request, OnTileRenderedListener listener, int priority, boolean allowPreview) {
+			this.request = request;
+			this.listener = listener;
+			this.priority = priority;
+			this.allowPreview = allowPreview;
+		}
+
+		@Override
+		public void run() {
+			renderTile(request, listener, allowPreview);
+		}
+
+		@Override
+		public int compareTo(RenderTask other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	private final AtomicLong taskSequence = new AtomicLong();
+	private final ThreadPoolExecutor executor;
+	private final TileCache cache;
+	private final DiskTileCache diskCache;
+	private final BitmapPool bitmapPool;
+
+	private volatile Datasource datasource;
+
+	/**
+	 * Creates a renderer with the default number of threads.
+	 *
+	 * @param cache      The cache which holds the already rendered tiles.
+	 * @param diskCache  The persistent cache for rendered tiles. Can be null if tiles should not be persisted.
+	 * @param bitmapPool The pool the datasource borrows its bitmaps from. Released tiles are given back to it.
+	 */
+	public TileRenderer(TileCache cache, DiskTileCache diskCache, BitmapPool bitmapPool) {
+		this(cache, diskCache, bitmapPool, getDefaultThreadCount());
+	}
+
+	/**
+	 * @param cache       The cache which holds the already rendered tiles.
+	 * @param diskCache   The persistent cache for rendered tiles. Can be null if tiles should not be persisted.
+	 * @param bitmapPool  The pool the datasource borrows its bitmaps from. Released tiles are given back to it.
+	 * @param threadCount The number of tiles which are rendered in parallel.
+	 */
+	public TileRenderer(TileCache cache, DiskTileCache diskCache, BitmapPool bitmapPool, int threadCount) {
+
+		if (threadCount <= 0) {
+			throw new IllegalArgumentException("At least one render thread is needed.");
+		}
+
+		this.cache = Objects.requireNonNull(cache);
+		this.diskCache = diskCache;
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
+
+		executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicLong threadNumber = new AtomicLong();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, TAG + "-" + threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * The default number of render threads. One core is left for the render loop.
+	 *
+	 * @return The number of threads to use.
+	 */
+	public static int getDefaultThreadCount() {
+		final int cores = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(cores - 1, MAX_DEFAULT_THREADS));
+	}
+
+	/**
+	 * Sets the datasource which is used to render the tiles. Already queued requests will be rendered with the new
+	 * datasource.
+	 *
+	 * @param datasource The datasource to render the tiles from.
+	 */
+	public void setDatasource(Datasource datasource) {
+		this.datasource = datasource;
+	}
+
+	/**
+	 * Queues a new tile for rendering. The method returns immediately.
+	 *
+	 * @param position The position of the upper left corner of the tile.
+	 * @param scale    The scale of the texture.
+	 * @param size     The size of the texture.
+	 * @param listener The listener which receives the rendered tile.
+	 * @return The request which can be used to cancel the rendering.
+	 */
+	public TileRequest requestTile(ReadPosition position, float scale, TextureSize size,
+								   OnTileRenderedListener listener) {
+
+		Objects.requireNonNull(listener);
+
+		return queue(new TileRequest(position, scale, size), listener, PRIORITY_DISPLAY, true);
+	}
+
+	/**
+	 * Queues a tile for rendering into the cache only. It is rendered after all tiles which were requested via
+	 * {@link #requestTile(ReadPosition, float, TextureSize, OnTileRenderedListener)}. If the tile is requested for
+	 * display later on it is taken from the cache.
+	 *
+	 * @param position The position of the upper left corner of the tile.
+	 * @param scale    The scale of the texture.
+	 * @param size     The size of the texture.
+	 * @return The request which can be used to cancel the prefetching.
+	 */
+	public TileRequest prefetchTile(ReadPosition position, float scale, TextureSize size) {
+
+		return queue(new TileRequest(position, scale, size), null, PRIORITY_PREFETCH, false);
+	}
+
+	private TileRequest queue(TileRequest request, OnTileRenderedListener listener, int priority,
+							  boolean allowPreview) {
+		try {
+			executor.execute(new RenderTask(request, listener, priority, allowPreview));
+		} catch (RejectedExecutionException e) {
+			Log.w(TAG, "Tile renderer was already shut down. Ignoring request.");
+			request.cancel();
+		}
+
+		return request;
+	}
+
+	/**
+	 * Stops the render threads. Pending requests are discarded and the tiles which are rendered right now are waited
+	 * for, so the caches are not torn down below them and the datasource can be closed afterwards. After this call the
+	 * renderer must not be used anymore.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		datasource = null;
+
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				Log.w(TAG, "Render threads did not finish in time.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		cache.logStatistics();
+		cache.clear();
+
+		if (diskCache != null) {
+			diskCache.logStatistics();
+			diskCache.close();
+		}
+
+		bitmapPool.logStatistics();
+		bitmapPool.clear();
+	}
+
+	/**
+	 * Renders the tile of the request or takes it from the cache.
+	 *
+	 * @param request      The request to render.
+	 * @param listener     The listener to deliver the tile to. If null the tile is only put into the cache.
+	 * @param allowPreview TRUE if a preview should be delivered first in case the tile is not cached.
+	 */
+	private void renderTile(TileRequest request, OnTileRenderedListener listener, boolean allowPreview) {
+
+		final Datasource ds = datasource;
+
+		if (request.isCancelled() || ds == null) {
+			return;
+		}
+
+		final TileKey key = TileKey.fromRequest(ds.getDocumentId(), request);
+		Tile tile = cache.get(key);
+
+		// The tiles of volatile sources can not be found again in a later session.
+		final boolean useDiskCache = diskCache != null && !(ds instanceof VolatileDatasource);
+
+		if (tile == null && useDiskCache) {
+			tile = diskCache.get(key);
+
+			if (tile != null) {
+				cache.put(key, tile);
+			}
+		}
+
+		if (tile == null && allowPreview && ds instanceof ProgressiveDatasource) {
+			renderPreview((ProgressiveDatasource) ds, request, listener);
+			return;
+		}
+
+		if (tile == null) {
+			final Bitmap bitmap;
+			try {
+				bitmap = ds.getTextureBitmap(request.getPosition(), request.getScale(), request.getSize());
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Error while rendering tile: " + request, e);
+				return;
+			}
+
+			tile = new Tile(request.getPosition(), bitmap, bitmapPool);
+			cache.put(key, tile);
+
+			if (useDiskCache) {
+				diskCache.put(key, tile);
+			}
+		} else {
+			Log.d(TAG, "Tile cache hit: " + key);
+		}
+
+		if (request.isCancelled() || listener == null) {
+			// Nobody is interested in this tile anymore or it was only prefetched.
+			tile.release();
+			return;
+		}
+
+		listener.onTileRendered(request, tile);
+	}
+
+	/**
+	 * Delivers a preview of the tile and queues the rendering in full quality. The preview is not cached.
+	 */
+	private void renderPreview(ProgressiveDatasource ds, TileRequest request, OnTileRenderedListener listener) {
+
+		final Bitmap bitmap;
+		try {
+			bitmap = ds.getPreviewBitmap(request.getPosition(), request.getScale(), request.getSize());
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Error while rendering tile preview: " + request, e);
+			return;
+		}
+
+		final Tile preview = new Tile(request.getPosition(), bitmap, bitmapPool);
+
+		if (request.isCancelled()) {
+			preview.release();
+			return;
+		}
+
+		listener.onTileRendered(request, preview);
+
+		// Queued behind the previews of the other requested tiles.
+		queue(request, listener, PRIORITY_DISPLAY, false);
+	}
+}
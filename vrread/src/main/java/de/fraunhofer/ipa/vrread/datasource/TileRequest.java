@@ -0,0 +1,56 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * A request for rendering a single tile which was queued at the {@link TileRenderer}. The request can be cancelled if
+ * the tile is not needed anymore, e.g. because the user has moved on before the tile was rendered.
+ */
+public final class TileRequest {
+
+	private final ReadPosition position;
+	private final float scale;
+	private final TextureSize size;
+
+	private volatile boolean cancelled = false;
+
+	TileRequest(ReadPosition position, float scale, TextureSize size) {
+
+		Objects.requireNonNull(position);
+
+		// Copy the position because the caller might change it while we are rendering.
+		this.position = new ReadPosition(position.getPage(), position.getX(), position.getY());
+		this.scale = scale;
+		this.size = Objects.requireNonNull(size);
+	}
+
+	public ReadPosition getPosition() {
+		return position;
+	}
+
+	public float getScale() {
+		return scale;
+	}
+
+	public TextureSize getSize() {
+		return size;
+	}
+
+	/**
+	 * Cancels the request. If the tile was not yet rendered it will not be rendered at all. If it is currently
+	 * rendering the result is discarded and not delivered.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "TileRequest[%s, scale: %.2f, cancelled: %b]", position, scale, cancelled);
+	}
+}
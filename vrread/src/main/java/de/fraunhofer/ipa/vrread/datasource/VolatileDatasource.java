@@ -0,0 +1,9 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+/**
+ * A datasource whose content is only valid for the current session, e.g. a web page which might change until it is
+ * opened again. Its document id changes every time it is opened, so its tiles can never be found again later. The
+ * {@link TileRenderer} keeps them in memory only and does not write them to the {@link DiskTileCache}.
+ */
+public interface VolatileDatasource extends Datasource {
+}
@@ -3,61 +3,232 @@ package de.fraunhofer.ipa.vrread.datasource;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Displays a web page. The page is loaded into an offscreen {@link WebView} which is laid out with the width of a
+ * tile at a scale of 1. Tiles are captured on demand by drawing the web view into a translated canvas, so only the
+ * requested part of the page is rasterized.
+ * <p>
+ * A web view must only be used from the main thread. The render threads post the capture to it and wait until it is
+ * done. Before the first capture they wait until the page has finished loading.
+ * <p>
+ * The extent of the page is not known in advance and can grow while the page is read, e.g. when a long article loads
+ * more content. The height is read again after each capture, so reading can go on tile by tile as long as there is
+ * content.
+ * <p>
+ * The web view is created with the application context, so it does not keep the activity alive, and is destroyed when
+ * the datasource is closed. If the page does not finish loading in time no tile is returned, so an empty tile is never
+ * cached.
+ * <p>
  * Created by tbf on 31.05.2017.
  */
 
-public class WebDatasource implements Datasource {
+public class WebDatasource implements VolatileDatasource {
 
-	final AtomicBoolean ready = new AtomicBoolean(false);
+	private static final String TAG = WebDatasource.class.getSimpleName();
 
-	private class MyWebViewClient extends WebViewClient {
+	/**
+	 * Width of the page layout in pixels. The same as the tile size, so at a scale of 1 a tile spans the page.
+	 */
+	private static final int LAYOUT_WIDTH = 512;
+
+	/**
+	 * Height of the viewport the page is laid out with. It only influences elements sized relative to the viewport.
+	 */
+	private static final int VIEWPORT_HEIGHT = 1024;
+
+	private static final long LOAD_TIMEOUT_S = 30;
+	private static final long CAPTURE_TIMEOUT_S = 5;
+
+	private class ReadyWebViewClient extends WebViewClient {
 		@Override
 		public void onPageFinished(WebView view, String url) {
 			super.onPageFinished(view, url);
 
-			ready.set(true);
+			if (closed) {
+				return;
+			}
+
+			layoutPage();
+			Log.d(TAG, String.format("Page finished: %s, height: %d", url, contentHeight));
+			pageFinished.countDown();
 		}
 	}
 
-	private WebView webview;
+	private final CountDownLatch pageFinished = new CountDownLatch(1);
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final BitmapPool bitmapPool;
+	private final String documentId;
+
+	/**
+	 * Created on the main thread.
+	 */
+	private volatile WebView webview;
+
+	/**
+	 * Height of the laid out page in pixels at a scale of 1.
+	 */
+	private volatile int contentHeight = 0;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Starts loading the page. This method can be called from any thread.
+	 *
+	 * @param url        The URL of the page.
+	 * @param ctx        The context whose application context creates the web view.
+	 * @param bitmapPool The pool the bitmaps of the tiles are borrowed from.
+	 */
+	public WebDatasource(final Uri url, Context ctx, BitmapPool bitmapPool) {
+
+		Objects.requireNonNull(url);
+		final Context appContext = ctx.getApplicationContext();
+		this.bitmapPool = Objects.requireNonNull(bitmapPool);
 
-	public WebDatasource(Context ctx) {
+		// Web pages change, so tiles are only reused within one session.
+		documentId = "web:" + url + "@" + System.currentTimeMillis();
 
-		webview = new WebView(ctx);
+		// Must be called before the web view is created, otherwise only the visible part is drawn.
+		WebView.enableSlowWholeDocumentDraw();
 
-		// Setup the webview to draw correctly.
-		//webview.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-		webview.setInitialScale(1);
-		webview.enableSlowWholeDocumentDraw();
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (closed) {
+					return;
+				}
 
-		// Test
-		String RESULTDATA ="<html><body><h1>It's working</h1></body></html>";
-		webview.loadData(RESULTDATA, "text/html", null);
+				webview = new WebView(appContext);
+				webview.setWebViewClient(new ReadyWebViewClient());
+				webview.setInitialScale(100);
+				layoutPage();
+
+				webview.loadUrl(url.toString());
+			}
+		});
 	}
 
 	public static String[] getSupportedMimeTypes() {
 		return new String[]{"text/html"};
 	}
 
+	public static MagicSignature[] getSignatures() {
+		return new MagicSignature[0];
+	}
+
+	/**
+	 * Lays out the web view offscreen and updates the known height of the page. Must be called on the main thread.
+	 */
+	private void layoutPage() {
+		webview.measure(View.MeasureSpec.makeMeasureSpec(LAYOUT_WIDTH, View.MeasureSpec.EXACTLY),
+				View.MeasureSpec.makeMeasureSpec(VIEWPORT_HEIGHT, View.MeasureSpec.EXACTLY));
+		webview.layout(0, 0, LAYOUT_WIDTH, VIEWPORT_HEIGHT);
+
+		// The content height is given in CSS pixels. The initial scale of 100 % maps them 1:1 to view pixels.
+		contentHeight = webview.getContentHeight();
+	}
+
+	/**
+	 * Waits until the page has finished loading.
+	 *
+	 * @return TRUE if the page is ready, FALSE if it did not finish in time.
+	 */
+	private boolean awaitPage() {
+		try {
+			return pageFinished.await(LOAD_TIMEOUT_S, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Stops loading and destroys the web view. Render threads waiting for the page are released. After this call the
+	 * datasource must not be used anymore.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		pageFinished.countDown();
+
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (webview != null) {
+					webview.stopLoading();
+					webview.destroy();
+					webview = null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Captures a tile of the page.
+	 *
+	 * @throws IllegalStateException If the page did not finish loading in time or the datasource was closed. No
+	 *                               tile is returned, so nothing is cached.
+	 */
 	@Override
-	public Bitmap getTextureBitmap(ReadPosition position, float scale, TextureSize size) {
+	public Bitmap getTextureBitmap(final ReadPosition position, final float scale, TextureSize size) {
+
+		if (!awaitPage()) {
+			throw new IllegalStateException("Page did not finish loading in time.");
+		}
+
+		if (closed) {
+			throw new IllegalStateException("Web page was closed.");
+		}
 
-		final Bitmap bitmap = Bitmap.createBitmap(size.getWidth(), size.getHeight(), Bitmap.Config.ARGB_8888);
-		final Canvas canvas = new Canvas(bitmap);
-		webview.draw(canvas);
+		final Bitmap bitmap = bitmapPool.acquire(size, Bitmap.Config.ARGB_8888);
+		final CountDownLatch captured = new CountDownLatch(1);
+
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (webview == null) {
+						// Closed meanwhile, the tile is not used anymore.
+						return;
+					}
+
+					// The page might have grown since the last capture.
+					layoutPage();
+
+					final Canvas canvas = new Canvas(bitmap);
+					canvas.translate((float) -position.getX(), (float) -position.getY());
+					canvas.scale(scale, scale);
+					webview.draw(canvas);
+				} finally {
+					captured.countDown();
+				}
+			}
+		});
 
-		/*
 		try {
-			signal.await();
+			if (!captured.await(CAPTURE_TIMEOUT_S, TimeUnit.SECONDS)) {
+				// Drawing might still happen on the main thread, so the bitmap must not be given back to the pool.
+				throw new IllegalStateException("Capturing the web page timed out.");
+			}
 		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}*/
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while capturing the web page.", e);
+		}
 
 		return bitmap;
 	}
@@ -65,11 +236,21 @@ public class WebDatasource implements Datasource {
 	@Override
 	public int getPageCount() {
 		// HTML not really has a notion of pages.
-		return 0;
+		return 1;
 	}
 
 	@Override
 	public boolean isInsidePage(ReadPosition tempReadPosition, float scale) {
-		return false;
+		return tempReadPosition.getX() / scale < LAYOUT_WIDTH && tempReadPosition.getY() / scale < contentHeight;
+	}
+
+	@Override
+	public int getPageHeight(int page, float scale) {
+		return (int) (contentHeight * scale);
+	}
+
+	@Override
+	public String getDocumentId() {
+		return documentId;
 	}
 }
@@ -0,0 +1,230 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Index of the entries of a ZIP archive. Only the central directory at the end of the archive is read, so building
+ * the index costs one read regardless of how many entries the archive has and nothing is unpacked. The data of an
+ * entry is read and inflated only when it is requested via {@link #read(Entry)}.
+ * <p>
+ * Reads are positional, so entries can be read from multiple threads in parallel through the same channel.
+ * <p>
+ * ZIP64 archives and encrypted entries are not supported.
+ */
+class ZipIndex {
+
+	private static final int END_OF_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+	private static final int END_OF_DIRECTORY_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int DIRECTORY_ENTRY_SIZE = 46;
+	private static final int LOCAL_HEADER_SIZE = 30;
+
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+
+	private static final int FLAG_ENCRYPTED = 0x1;
+	private static final int FLAG_UTF8 = 0x800;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Charset LEGACY = Charset.forName("ISO-8859-1");
+
+	/**
+	 * An entry of the archive as found in the central directory.
+	 */
+	static final class Entry {
+		private final String name;
+		private final int method;
+		private final int compressedSize;
+		private final int size;
+		private final long localHeaderOffset;
+
+		private Entry(String name, int method, int compressedSize, int size, long localHeaderOffset) {
+			this.name = name;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The size of the entry after it was unpacked.
+		 */
+		int getSize() {
+			return size;
+		}
+	}
+
+	private final FileChannel channel;
+	private final List<Entry> entries;
+
+	/**
+	 * Reads the central directory of the archive.
+	 *
+	 * @param channel The channel of the archive. It is not closed by the index.
+	 * @throws IOException If the archive is not a supported ZIP file.
+	 */
+	ZipIndex(FileChannel channel) throws IOException {
+
+		this.channel = channel;
+		entries = Collections.unmodifiableList(readDirectory());
+	}
+
+	/**
+	 * @return All files of the archive in the order of the central directory. Directories are left out.
+	 */
+	List<Entry> getEntries() {
+		return entries;
+	}
+
+	private List<Entry> readDirectory() throws IOException {
+
+		final ByteBuffer end = findEndOfDirectory();
+
+		final int entryCount = end.getShort(10) & 0xFFFF;
+		final long directorySize = end.getInt(12) & 0xFFFFFFFFL;
+		final long directoryOffset = end.getInt(16) & 0xFFFFFFFFL;
+
+		if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+			throw new IOException("ZIP64 archives are not supported.");
+		}
+
+		final ByteBuffer directory = readFully(directoryOffset, (int) directorySize);
+		final List<Entry> result = new ArrayList<>(entryCount);
+
+		for (int i = 0; i < entryCount; i++) {
+			final int start = directory.position();
+			if (directory.getInt(start) != DIRECTORY_ENTRY_SIGNATURE) {
+				throw new IOException("Corrupt central directory.");
+			}
+
+			final int flags = directory.getShort(start + 8) & 0xFFFF;
+			final int method = directory.getShort(start + 10) & 0xFFFF;
+			final long compressedSize = directory.getInt(start + 20) & 0xFFFFFFFFL;
+			final long size = directory.getInt(start + 24) & 0xFFFFFFFFL;
+			final int nameLength = directory.getShort(start + 28) & 0xFFFF;
+			final int extraLength = directory.getShort(start + 30) & 0xFFFF;
+			final int commentLength = directory.getShort(start + 32) & 0xFFFF;
+			final long localHeaderOffset = directory.getInt(start + 42) & 0xFFFFFFFFL;
+
+			final byte[] nameBytes = new byte[nameLength];
+			directory.position(start + DIRECTORY_ENTRY_SIZE);
+			directory.get(nameBytes);
+			final String name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? UTF8 : LEGACY);
+
+			directory.position(start + DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength);
+
+			if (name.endsWith("/")) {
+				continue;
+			}
+
+			if ((flags & FLAG_ENCRYPTED) != 0 || (method != METHOD_STORED && method != METHOD_DEFLATED) ||
+					compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE) {
+				// Can not be read, but must not prevent reading the other entries.
+				continue;
+			}
+
+			result.add(new Entry(name, method, (int) compressedSize, (int) size, localHeaderOffset));
+		}
+
+		return result;
+	}
+
+	/**
+	 * The end of central directory record is the last record of the archive, only followed by a comment of variable
+	 * length. So it is searched backwards from the end.
+	 */
+	private ByteBuffer findEndOfDirectory() throws IOException {
+
+		final long archiveSize = channel.size();
+		final int searchSize = (int) Math.min(archiveSize, END_OF_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+		final ByteBuffer tail = readFully(archiveSize - searchSize, searchSize);
+
+		for (int i = searchSize - END_OF_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_DIRECTORY_SIGNATURE) {
+				tail.position(i);
+				return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+
+		throw new IOException("Not a ZIP archive.");
+	}
+
+	/**
+	 * Reads and unpacks an entry.
+	 *
+	 * @param entry The entry of this archive.
+	 * @return The content of the entry.
+	 * @throws IOException If the entry could not be read.
+	 */
+	byte[] read(Entry entry) throws IOException {
+
+		// The local header can have a different extra field than the central directory, so its length is read again.
+		final ByteBuffer header = readFully(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Corrupt local header of " + entry.name);
+		}
+
+		final int nameLength = header.getShort(26) & 0xFFFF;
+		final int extraLength = header.getShort(28) & 0xFFFF;
+		final long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+
+		final ByteBuffer data = readFully(dataOffset, entry.compressedSize);
+
+		if (entry.method == METHOD_STORED) {
+			return data.array();
+		}
+
+		final byte[] content = new byte[entry.size];
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data.array());
+			int inflated = 0;
+			while (inflated < content.length && !inflater.finished()) {
+				final int count = inflater.inflate(content, inflated, content.length - inflated);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += count;
+			}
+
+			if (inflated != content.length) {
+				throw new IOException("Truncated entry " + entry.name);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt entry " + entry.name, e);
+		} finally {
+			inflater.end();
+		}
+
+		return content;
+	}
+
+	private ByteBuffer readFully(long position, int length) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, position + buffer.position());
+			if (count < 0) {
+				throw new IOException("Unexpected end of archive.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -13,9 +13,12 @@ import java.util.Arrays;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
+import de.fraunhofer.ipa.vrread.StartupTrace;
 import de.fraunhofer.ipa.vrread.control.GestureController;
 import de.fraunhofer.ipa.vrread.graphics.layer.Layer;
 import de.fraunhofer.ipa.vrread.graphics.shader.GLHelper;
+import de.fraunhofer.ipa.vrread.graphics.shader.GLState;
+import de.fraunhofer.ipa.vrread.graphics.shader.ShaderProgramManager;
 
 /**
  * This handles all the rendering of the reader app. The renderer will calls and uses openGL for drawing the text layer.
@@ -39,9 +42,15 @@ public class Renderer implements GvrView.StereoRenderer {
 	private float[] cameraMatrix = new float[16];
 
 	/**
-	 * Positions the model.
+	 * Positions the layers, one matrix per layer. They never change.
 	 */
-	private float[] modelMatrix = new float[16];
+	private final float[][] layerModelMatrices = new float[MAX_LAYERS][16];
+
+	/**
+	 * View and projection of the current eye, shared by all layers.
+	 */
+	private final float[] view = new float[16];
+	private final float[] viewProjection = new float[16];
 
 	/**
 	 * Projection matrix.
@@ -55,14 +64,24 @@ public class Renderer implements GvrView.StereoRenderer {
 	private boolean[] layersInitialized = new boolean[MAX_LAYERS];
 	private Layer[] layers = new Layer[MAX_LAYERS];
 
+	private final ShaderProgramManager programManager;
 	private GestureController gestureController;
+	private StartupTrace startupTrace;
 
 	public Renderer(GvrView gvrView) {
+		programManager = ShaderProgramManager.getInstance(gvrView.getContext());
+
 		gvrView.setEGLConfigChooser(8, 8, 8, 8, 16, 8);
 		gvrView.setRenderer(this);
 		gvrView.setTransitionViewEnabled(true);
 
 		Arrays.fill(layersInitialized, false);
+
+		// Each layer is placed with a slightly z-offset towards the viewer starting from index 0 as the farthest away.
+		for (int i = 0; i < MAX_LAYERS; i++) {
+			Matrix.setIdentityM(layerModelMatrices[i], 0);
+			Matrix.translateM(layerModelMatrices[i], 0, 0f, 0f, -(Z_MODEL_POS - i * Z_LAYER_DISTANCE));
+		}
 	}
 
 	/**
@@ -76,8 +95,19 @@ public class Renderer implements GvrView.StereoRenderer {
 	}
 
 	/**
-	 * TODO Den Zugriff hier threadsafe machen.
+	 * Sets the trace which records when the surface is ready and the first readable frame is drawn.
+	 *
+	 * @param startupTrace The trace of the start or null.
+	 */
+	public void setStartupTrace(StartupTrace startupTrace) {
+		this.startupTrace = startupTrace;
+	}
+
+	/**
 	 * Adds a new layer to the renderer. There must be a position given in order to place it on the right layer.
+	 * <p>
+	 * The layers are read while drawing without a lock. So once the view renders this must be called on the render
+	 * thread, e.g. via {@link GvrView#queueEvent(Runnable)}. Before that the layers can be set from the UI thread.
 	 *
 	 * @param pos   The position to add the layer.
 	 * @param layer The layer to add.
@@ -87,12 +117,13 @@ public class Renderer implements GvrView.StereoRenderer {
 			throw new IllegalArgumentException("Pos must be between 0 and " + (MAX_LAYERS - 1));
 		}
 
-		layers[pos] = layer;
+		// Marked first, so the layer is never drawn before it was created.
 		layersInitialized[pos] = false;
+		layers[pos] = layer;
 	}
 
 	/**
-	 * Removes the layer at position pos again.
+	 * Removes the layer at position pos again. The same threading rules as for {@link #addLayer(int, Layer)} apply.
 	 *
 	 * @param pos Removes a layer.
 	 */
@@ -101,8 +132,8 @@ public class Renderer implements GvrView.StereoRenderer {
 			throw new IllegalArgumentException("Pos must be between 0 and " + (MAX_LAYERS - 1));
 		}
 
-		layers[pos] = null;
 		layersInitialized[pos] = false;
+		layers[pos] = null;
 	}
 
 	@Override
@@ -129,10 +160,47 @@ public class Renderer implements GvrView.StereoRenderer {
 		GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f); // Dark background so text shows up well.
 		GLHelper.checkGLError("onSurfaceCreated");
 
-		// Position the wall in front of the user. (-1 unit/meter in worldspace).
-		Matrix.setIdentityM(modelMatrix, 0);
-		Matrix.translateM(modelMatrix, 0, 0f, 0f, Z_MODEL_POS);
 		Matrix.setLookAtM(cameraMatrix, 0, 0.0f, 0.0f, CAMERA_Z, 0f, 0f, 0f, 0f, 1.0f, 0f);
+
+		markPhase(StartupTrace.Phase.SURFACE_CREATED);
+
+		// Compile the shaders right away instead of on the first frame. A new surface also needs them again.
+		programManager.onContextCreated();
+		GLState.onContextCreated();
+		Arrays.fill(layersInitialized, false);
+		initializeLayers();
+
+		markPhase(StartupTrace.Phase.SHADERS_COMPILED);
+	}
+
+	/**
+	 * Initializes the layers which were added since the last call. Must be called on the render thread.
+	 */
+	private void initializeLayers() {
+		for (int i = 0; i < MAX_LAYERS; i++) {
+			if (!layersInitialized[i] && layers[i] != null) {
+				layers[i].onCreated();
+				layersInitialized[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * @return TRUE if all layers show their content.
+	 */
+	private boolean isReadable() {
+		for (Layer layer : layers) {
+			if (layer != null && !layer.hasContent()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void markPhase(StartupTrace.Phase phase) {
+		if (startupTrace != null) {
+			startupTrace.mark(phase);
+		}
 	}
 
 	/**
@@ -142,8 +210,11 @@ public class Renderer implements GvrView.StereoRenderer {
 	 */
 	@Override
 	public void onDrawEye(Eye eye) {
+		// The distortion of the VR SDK changes the GL state between the eyes.
+		GLState.invalidate();
+
 		GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0f);
-		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+		GLState.setDepthTest(true);
 		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
 		// Remove the rotation from the matrix.
@@ -158,30 +229,17 @@ public class Renderer implements GvrView.StereoRenderer {
 		eyeMat[9] = 0;
 		eyeMat[10] = 1;
 
-		// Now step through the different layer and render them each with a slightly z-offest towards the viewer
-		// starting from index 0 as the farthest away.
+		// Camera and projection are the same for all layers of the eye.
+		Matrix.multiplyMM(view, 0, eyeMat, 0, cameraMatrix, 0);
+		Matrix.multiplyMM(viewProjection, 0, eye.getPerspective(Z_NEAR, Z_FAR), 0, view, 0);
+
+		// Now step through the different layer and render them.
 		for (int i = 0; i < MAX_LAYERS; i++) {
 			if (layers[i] == null) {
 				continue;
 			}
 
-			// Set camera to eye position.
-			Matrix.multiplyMM(modelViewProjection, 0, eyeMat, 0, cameraMatrix, 0);
-
-			// Prepare the model matrix.
-			Matrix.setIdentityM(modelMatrix, 0);
-
-			final float modelZPos = -(Z_MODEL_POS - i * Z_LAYER_DISTANCE);
-			Matrix.translateM(modelMatrix, 0, 0f, 0f, modelZPos);
-
-			// This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-			// (which currently contains model * view).
-			Matrix.multiplyMM(modelViewProjection, 0, modelViewProjection, 0, modelMatrix, 0);
-
-			// This multiplies the modelview matrix by the projection matrix, and stores the result in the MVP matrix
-			// (which now contains model * view * projection).
-			Matrix.multiplyMM(modelViewProjection, 0, eye.getPerspective(Z_NEAR, Z_FAR), 0, modelViewProjection, 0);
-
+			Matrix.multiplyMM(modelViewProjection, 0, viewProjection, 0, layerModelMatrices[i], 0);
 			layers[i].onDrawEye(modelViewProjection);
 		}
 	}
@@ -194,18 +252,19 @@ public class Renderer implements GvrView.StereoRenderer {
 	@Override
 	public void onNewFrame(HeadTransform headTransform) {
 		// Check if new layers must be initialized, we must to this in the render thread.
-		for (int i = 0; i < MAX_LAYERS; i++) {
-			if (!layersInitialized[i] && layers[i] != null) {
-
-				layers[i].onCreated();
-				layersInitialized[i] = true;
-			}
+		initializeLayers();
 
+		for (int i = 0; i < MAX_LAYERS; i++) {
 			if (layers[i] != null) {
 				layers[i].onNewFrame(headTransform);
 			}
 		}
 
+		if (startupTrace != null && !startupTrace.isMarked(StartupTrace.Phase.FIRST_READABLE_FRAME) &&
+				isReadable()) {
+			startupTrace.mark(StartupTrace.Phase.FIRST_READABLE_FRAME);
+		}
+
 		// Tell the head gesture controller about the new position.
 		if (gestureController != null) {
 			gestureController.onHeadMovement(headTransform);
@@ -216,6 +275,6 @@ public class Renderer implements GvrView.StereoRenderer {
 
 	@Override
 	public void onFinishFrame(Viewport viewport) {
-		// no op.
+		GLState.onFrameFinished();
 	}
 }
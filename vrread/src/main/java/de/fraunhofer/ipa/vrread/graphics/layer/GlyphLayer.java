@@ -0,0 +1,385 @@
+package de.fraunhofer.ipa.vrread.graphics.layer;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.vr.sdk.base.HeadTransform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.fraunhofer.ipa.vrread.control.Contrast;
+import de.fraunhofer.ipa.vrread.datasource.ReadPosition;
+import de.fraunhofer.ipa.vrread.datasource.TextDatasource;
+import de.fraunhofer.ipa.vrread.graphics.shader.GLState;
+import de.fraunhofer.ipa.vrread.graphics.shader.GlyphShader;
+import de.fraunhofer.ipa.vrread.graphics.text.GlyphAtlas;
+import de.fraunhofer.ipa.vrread.graphics.text.TextLayout;
+
+/**
+ * Displays the pages of a {@link TextDatasource} as glyph quads. It is the counterpart of the
+ * {@link ScrollingTextLayer} for text based sources: instead of rasterized tiles the glyphs are drawn from a signed
+ * distance field atlas, so the text stays sharp at every zoom level and neither scrolling nor zooming needs any
+ * rendering on the CPU.
+ * <p>
+ * The read position is given in the same units as for the tiles, pixels at the current zoom, so the layer can be
+ * controlled like the tile layer. The lines fill the width of the view at the current zoom.
+ * <p>
+ * Pages are laid out on a background thread when they are prepared, see {@link #preparePage(int)}, and the last
+ * layouts are kept. Until the page of the read position is laid out, the layer has no content. The chunks of the
+ * displayed layout are uploaded into vertex buffers once and only the chunks in the visible area are drawn.
+ */
+public class GlyphLayer extends Layer {
+
+	private static final String TAG = GlyphLayer.class.getSimpleName();
+
+	private static final int BACKGROUND_VERTICES = 6;
+
+	private static final float MIN_SMOOTHING = 0.01f;
+	private static final float MAX_SMOOTHING = 0.5f;
+
+	/**
+	 * Number of laid out pages which are kept: the current one and its neighbours.
+	 */
+	private static final int CACHED_PAGES = 3;
+
+	/**
+	 * Width of the visible area in pixels at the current zoom, the same as the cell size of the tile grid.
+	 */
+	private final float viewSize;
+
+	private final GlyphShader glyphShader;
+
+	private final ExecutorService layoutExecutor;
+	private final LruCache<Integer, TextLayout> layouts = new LruCache<>(CACHED_PAGES);
+	private final Set<Integer> pendingPages = new HashSet<>();
+
+	private TextDatasource datasource;
+	private GlyphAtlas atlas;
+	private boolean shutdown = false;
+
+	private final ReadPosition readPosition = new ReadPosition();
+	private float zoom = 1f;
+
+	/**
+	 * The visible area in layout coordinates. Only accessed from the render thread.
+	 */
+	private FloatBuffer backgroundVertices;
+	private float visibleTop;
+	private float visibleBottom;
+
+	/**
+	 * The layout drawn in this frame and the vertex buffers of its chunks. Only accessed from the render thread.
+	 */
+	private TextLayout frameLayout;
+	private TextLayout uploadedLayout;
+	private int[] chunkBuffers = new int[0];
+
+	public GlyphLayer(Context ctx) {
+		this(ctx, TileGrid.withDefaultSize().getCellSize());
+	}
+
+	/**
+	 * @param ctx      The context to load the shader with.
+	 * @param viewSize The size of the visible area in pixels at the current zoom.
+	 */
+	public GlyphLayer(Context ctx, float viewSize) {
+		super(new GlyphShader(ctx));
+
+		if (viewSize <= 0) {
+			throw new IllegalArgumentException("View size must be bigger then 0.");
+		}
+
+		this.viewSize = viewSize;
+		glyphShader = (GlyphShader) getShader();
+
+		layoutExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, TAG);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Sets the document to display. Its pages are laid out when they are prepared. This method can be called from any
+	 * thread.
+	 *
+	 * @param datasource The text document.
+	 */
+	public synchronized void setDatasource(TextDatasource datasource) {
+		this.datasource = Objects.requireNonNull(datasource);
+		layouts.evictAll();
+		pendingPages.clear();
+		preparePage(readPosition.getPage());
+	}
+
+	/**
+	 * Stops laying out pages. Must be called when the layer is not used anymore.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		layoutExecutor.shutdownNow();
+	}
+
+	/**
+	 * Sets the position the user is currently reading. Its page is laid out if it was not already.
+	 *
+	 * @param position The current read position in pixels at the given zoom.
+	 * @param zoom     The current zoom factor.
+	 */
+	public synchronized void setReadPosition(ReadPosition position, float zoom) {
+		if (zoom != this.zoom) {
+			// The lines fill the view, so all pages need a new layout.
+			layouts.evictAll();
+		}
+
+		readPosition.set(position);
+		this.zoom = zoom;
+		preparePage(position.getPage());
+	}
+
+	/**
+	 * Lays out a page in the background if it is not laid out yet, e.g. the page the user moves to next.
+	 *
+	 * @param page The index of the page.
+	 */
+	public synchronized void preparePage(final int page) {
+		if (datasource == null || shutdown || page < 0 || page >= datasource.getPageCount() ||
+				layouts.get(page) != null || !pendingPages.add(page)) {
+			return;
+		}
+
+		final TextDatasource pageSource = datasource;
+		final float lineWidth = getLineWidth();
+
+		layoutExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				layoutPage(pageSource, page, lineWidth);
+			}
+		});
+	}
+
+	/**
+	 * Lays out a page. Runs on the layout thread.
+	 */
+	private void layoutPage(TextDatasource pageSource, int page, float lineWidth) {
+
+		if (atlas == null) {
+			final GlyphAtlas newAtlas = GlyphAtlas.create(Typeface.SERIF, GlyphAtlas.DEFAULT_CHARACTERS);
+			glyphShader.setAtlas(newAtlas);
+			synchronized (this) {
+				atlas = newAtlas;
+			}
+		}
+
+		CharSequence text;
+		try {
+			text = pageSource.getPageText(page);
+		} catch (IOException | RuntimeException e) {
+			// Show the page empty instead of waiting for it forever.
+			Log.e(TAG, "Could not read page " + page, e);
+			text = "";
+		}
+
+		final TextLayout layout = TextLayout.create(text, atlas, TextLayout.DEFAULT_FONT_SIZE, lineWidth);
+
+		synchronized (this) {
+			pendingPages.remove(page);
+
+			if (pageSource != datasource) {
+				return;
+			}
+
+			if (lineWidth == getLineWidth()) {
+				layouts.put(page, layout);
+			} else if (page == readPosition.getPage()) {
+				// The zoom changed meanwhile.
+				preparePage(page);
+			}
+		}
+	}
+
+	/**
+	 * @return The width of the lines in layout units, so they fill the view at the current zoom.
+	 */
+	private float getLineWidth() {
+		return viewSize / zoom;
+	}
+
+	/**
+	 * @param page The index of the page.
+	 * @return TRUE if the page is laid out and can be displayed right away.
+	 */
+	public synchronized boolean isPageReady(int page) {
+		return layouts.get(page) != null;
+	}
+
+	/**
+	 * Checks if a read position lies inside of the laid out text of its page.
+	 *
+	 * @param position The read position in pixels at the given zoom.
+	 * @param zoom     The zoom factor.
+	 * @return TRUE if the position is inside of the text. FALSE if the page is not laid out yet.
+	 */
+	public synchronized boolean isInsideText(ReadPosition position, float zoom) {
+		final TextLayout layout = layouts.get(position.getPage());
+		return layout != null &&
+				position.getX() / zoom < layout.getWidth() &&
+				position.getY() / zoom < layout.getHeight();
+	}
+
+	/**
+	 * @param page The index of the page.
+	 * @param zoom The zoom factor.
+	 * @return The height of the page in pixels at the given zoom or 0 if it is not laid out yet.
+	 */
+	public synchronized int getTextHeight(int page, float zoom) {
+		final TextLayout layout = layouts.get(page);
+		return layout == null ? 0 : (int) (layout.getHeight() * zoom);
+	}
+
+	/**
+	 * @return TRUE once the page of the read position is laid out.
+	 */
+	@Override
+	public synchronized boolean hasContent() {
+		return layouts.get(readPosition.getPage()) != null;
+	}
+
+	public void setContrastMode(Contrast contrast) {
+		glyphShader.setContrastMode(contrast);
+	}
+
+	@Override
+	public void onCreated() {
+		super.onCreated();
+
+		backgroundVertices = ByteBuffer.allocateDirect(BACKGROUND_VERTICES * TextLayout.FLOATS_PER_VERTEX * 4)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+
+		// The buffers of the old context are gone with it.
+		uploadedLayout = null;
+		chunkBuffers = new int[0];
+	}
+
+	/**
+	 * Transfers the visible part of the layout into the shader. A newly displayed layout is uploaded into vertex
+	 * buffers.
+	 *
+	 * @param headTransform The new head tranform.
+	 */
+	@Override
+	public void onNewFrame(HeadTransform headTransform) {
+		super.onNewFrame(headTransform);
+
+		final float offsetX;
+		final float offsetY;
+		final float visibleSize;
+
+		synchronized (this) {
+			frameLayout = layouts.get(readPosition.getPage());
+			offsetX = (float) (readPosition.getX() / zoom);
+			offsetY = (float) (readPosition.getY() / zoom);
+			visibleSize = viewSize / zoom;
+
+			glyphShader.setView(offsetX, offsetY, 1f / visibleSize, getSmoothing());
+		}
+
+		if (frameLayout != uploadedLayout) {
+			uploadLayout(frameLayout);
+		}
+
+		visibleTop = offsetY;
+		visibleBottom = offsetY + visibleSize;
+
+		// The background covers exactly the visible area. Its texture coordinate is a padding texel of the atlas.
+		backgroundVertices.position(0);
+		putVertex(offsetX, offsetY);
+		putVertex(offsetX, offsetY + visibleSize);
+		putVertex(offsetX + visibleSize, offsetY + visibleSize);
+		putVertex(offsetX, offsetY);
+		putVertex(offsetX + visibleSize, offsetY + visibleSize);
+		putVertex(offsetX + visibleSize, offsetY);
+		backgroundVertices.position(0);
+	}
+
+	/**
+	 * Replaces the vertex buffers with the chunks of another layout.
+	 *
+	 * @param layout The layout or null to only delete the buffers.
+	 */
+	private void uploadLayout(TextLayout layout) {
+		GLState.deleteVertexBuffers(chunkBuffers);
+
+		final List<TextLayout.Chunk> chunks = layout == null ? null : layout.getChunks();
+		chunkBuffers = new int[chunks == null ? 0 : chunks.size()];
+		for (int i = 0; i < chunkBuffers.length; i++) {
+			chunkBuffers[i] = GLState.createVertexBuffer(chunks.get(i).getVertices());
+		}
+
+		uploadedLayout = layout;
+	}
+
+	/**
+	 * Calculates the width of the anti aliased glyph edges so they cover about one screen pixel. The visible area is
+	 * assumed to be about as many pixels wide on the screen as the view size.
+	 *
+	 * @return Half of the edge width in distance field units.
+	 */
+	private float getSmoothing() {
+		if (frameLayout == null || atlas == null) {
+			return MAX_SMOOTHING;
+		}
+
+		// The distance field covers the spread on both sides of the outline with values from 0 to 1.
+		final float distancePerAtlasPixel = 0.5f / atlas.getSpread();
+		final float screenPixelsPerAtlasPixel = frameLayout.getFontSize() / atlas.getRenderSize() * zoom;
+		final float smoothing = 0.5f * distancePerAtlasPixel / screenPixelsPerAtlasPixel;
+
+		return Math.max(MIN_SMOOTHING, Math.min(MAX_SMOOTHING, smoothing));
+	}
+
+	private void putVertex(float x, float y) {
+		backgroundVertices.put(x).put(y).put(0f).put(0f);
+	}
+
+	@Override
+	public void onDrawEye(float[] modelViewProjection) {
+
+		glyphShader.useShader();
+		glyphShader.setModelViewProjection(modelViewProjection);
+
+		// Background and glyphs lie in the same plane.
+		GLState.setDepthTest(false);
+
+		glyphShader.drawBackground(backgroundVertices, BACKGROUND_VERTICES);
+
+		if (uploadedLayout != null) {
+			final List<TextLayout.Chunk> chunks = uploadedLayout.getChunks();
+			for (int i = 0; i < chunkBuffers.length; i++) {
+				final TextLayout.Chunk chunk = chunks.get(i);
+				if (chunk.getBottom() >= visibleTop && chunk.getTop() <= visibleBottom) {
+					glyphShader.drawGlyphs(chunkBuffers[i], chunk.getVertexCount());
+				}
+			}
+		}
+
+		GLState.setDepthTest(true);
+	}
+}
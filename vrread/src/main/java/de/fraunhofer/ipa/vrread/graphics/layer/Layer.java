@@ -5,15 +5,12 @@ import android.util.Log;
 
 import com.google.vr.sdk.base.HeadTransform;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import java.util.Objects;
 
 import de.fraunhofer.ipa.vrread.datasource.TextureSize;
 import de.fraunhofer.ipa.vrread.graphics.Renderer;
-import de.fraunhofer.ipa.vrread.graphics.WorldLayoutData;
 import de.fraunhofer.ipa.vrread.graphics.shader.GLHelper;
+import de.fraunhofer.ipa.vrread.graphics.shader.GLState;
 import de.fraunhofer.ipa.vrread.graphics.shader.QuadShader;
 
 
@@ -30,10 +27,6 @@ public class Layer {
 
 	private final QuadShader shader;
 
-	// Store our model data in a float buffer.
-	@SuppressWarnings("WeakerAccess")
-	protected FloatBuffer quadVertices;
-
 	Layer(QuadShader shader) {
 
 		this.shader = Objects.requireNonNull(shader);
@@ -56,19 +49,23 @@ public class Layer {
 		return new TextureSize(1024, 1024);
 	}
 
+	/**
+	 * Layers showing a document have no content until the first part of it was loaded. Layers drawing only an overlay
+	 * always have content.
+	 *
+	 * @return TRUE if the layer shows its content.
+	 */
+	public boolean hasContent() {
+		return true;
+	}
+
 	/**
 	 * Calls when the object is added to the scene.
 	 */
 	public void onCreated() {
 		Log.i(TAG, "onCreated");
 
-		// make a floor
-		ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(WorldLayoutData.PLANE_COORDS.length * 4);
-		bbFloorVertices.order(ByteOrder.nativeOrder());
-		quadVertices = bbFloorVertices.asFloatBuffer();
-		quadVertices.put(WorldLayoutData.PLANE_COORDS);
-		quadVertices.position(0);
-
+		// The vertices of the quad are shared by all layers, see GLState.
 		if (shader != null) {
 			shader.loadShader();
 		}
@@ -86,10 +83,10 @@ public class Layer {
 		if (shader != null) {
 			shader.useShader();
 			shader.setModelViewProjection(modelViewProjection);
-			shader.setModelVertices(quadVertices);
+			shader.setModelVertices();
 		}
 
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
+		GLState.drawArrays(GLES20.GL_TRIANGLES, 0, 6);
 		GLHelper.checkGLError(GL_ERROR_TAG);
 	}
 
@@ -0,0 +1,72 @@
+package de.fraunhofer.ipa.vrread.graphics.layer;
+
+import android.content.Context;
+
+import com.google.vr.sdk.base.HeadTransform;
+
+import de.fraunhofer.ipa.vrread.graphics.shader.LoadingShader;
+
+/**
+ * Covers the document with a progress bar while it is opened. The layer is drawn in front of the layer showing the
+ * document until this layer has content, see {@link Layer#hasContent()}. It only needs a tiny shader, so it shows up
+ * with the first frame.
+ */
+public class LoadingLayer extends Layer {
+
+	/**
+	 * Time for the bar to move from one end of the track to the other.
+	 */
+	private static final long SWEEP_MS = 1000;
+
+	private final LoadingShader loadingShader;
+
+	/**
+	 * The layer which shows the document. Might change while loading, e.g. when a text document gets a glyph layer.
+	 */
+	private volatile Layer contentLayer;
+
+	/**
+	 * @param ctx          The context to load the shader with.
+	 * @param contentLayer The layer which shows the document.
+	 */
+	public LoadingLayer(Context ctx, Layer contentLayer) {
+		super(new LoadingShader(ctx));
+
+		loadingShader = (LoadingShader) getShader();
+		setContentLayer(contentLayer);
+	}
+
+	/**
+	 * @param contentLayer The layer which shows the document.
+	 */
+	public void setContentLayer(Layer contentLayer) {
+		if (contentLayer == null) {
+			throw new IllegalArgumentException("Content layer can not be null.");
+		}
+
+		this.contentLayer = contentLayer;
+	}
+
+	/**
+	 * @return TRUE while the document is loading.
+	 */
+	public boolean isLoading() {
+		return !contentLayer.hasContent();
+	}
+
+	@Override
+	public void onNewFrame(HeadTransform headTransform) {
+		super.onNewFrame(headTransform);
+
+		// Moves back and forth.
+		final float phase = (System.currentTimeMillis() % (2 * SWEEP_MS)) / (float) SWEEP_MS;
+		loadingShader.setProgress(phase <= 1f ? phase : 2f - phase);
+	}
+
+	@Override
+	public void onDrawEye(float[] modelViewProjection) {
+		if (isLoading()) {
+			super.onDrawEye(modelViewProjection);
+		}
+	}
+}
@@ -1,38 +1,125 @@
 package de.fraunhofer.ipa.vrread.graphics.layer;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 
 import com.google.vr.sdk.base.HeadTransform;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
 import de.fraunhofer.ipa.vrread.control.Contrast;
 import de.fraunhofer.ipa.vrread.control.ReadController;
+import de.fraunhofer.ipa.vrread.datasource.ReadPosition;
+import de.fraunhofer.ipa.vrread.datasource.TextureSize;
+import de.fraunhofer.ipa.vrread.datasource.Tile;
 import de.fraunhofer.ipa.vrread.graphics.shader.ScrollingTextureShader;
 
 /**
  * Basic class for holding the textual representation. It has method to control the text. This is usually done by a
  * {@link ReadController} which will give control commands to this layer.
  * <p>
+ * The tiles of a neighbour page can be staged before the user switches to it, see {@link #stagePage(int)}. They are
+ * uploaded into a separate staging texture, so once the read position reaches the staged page the switch only
+ * exchanges the displayed texture.
+ * <p>
  * Created by Thomas Felix on 24.02.2017.
  */
 
 public class ScrollingTextLayer extends Layer {
 
+	/**
+	 * Informed when the textures lost the tiles uploaded into them, because the GL context was created again.
+	 */
+	public interface OnContentLostListener {
+
+		/**
+		 * Called on the render thread. All tiles around the read position have to be set again.
+		 */
+		void onContentLost();
+	}
+
 	private float x = 0;
 	private float y = 0;
-	private Bitmap newTexture;
+	private final List<Tile> newTiles = new ArrayList<>();
+
+	/**
+	 * Tiles which were uploaded into the texture which is displayed now. They still have to be uploaded into the other
+	 * texture of the shader. Only accessed from the render thread.
+	 */
+	private final List<Tile> laggingTiles = new ArrayList<>();
+
+	/**
+	 * Tiles which wait to be uploaded into the displayed grid. Only accessed from the render thread.
+	 */
+	private final List<Tile> pendingTiles = new ArrayList<>();
+
+	/**
+	 * The page which should be staged and the staged tiles which were not yet uploaded.
+	 */
+	private int requestedStagePage = -1;
+	private final List<Tile> newStagedTiles = new ArrayList<>();
+
+	/**
+	 * The page the staging texture holds tiles of and these tiles for each slot. They are kept until the page is
+	 * displayed, because they have to be uploaded into the other texture as well. Only accessed from the render thread.
+	 */
+	private int stagedPage = -1;
+	private final Tile[] stagedTiles;
 	private Contrast contrastMode = null;
 
+	/**
+	 * The position the user is currently reading. The uv offset of the shader is derived from it.
+	 */
+	private final ReadPosition readPosition = new ReadPosition();
+
+	/**
+	 * The positions of the tiles which are currently stored in the slots of the displayed texture atlas. Only accessed
+	 * from the render thread.
+	 */
+	private final ReadPosition[] slotContent;
+
+	/**
+	 * Set once the first tile is displayed.
+	 */
+	private volatile boolean hasContent = false;
+
+	/**
+	 * Set once the layer was released, tiles arriving afterwards are dropped right away.
+	 */
+	private boolean released = false;
+
+	/**
+	 * Set once the textures were created in a context. Only accessed from the render thread.
+	 */
+	private boolean texturesCreated = false;
+
+	private volatile OnContentLostListener contentLostListener;
+
 	private final ScrollingTextureShader textShader;
+	private final TileGrid tileGrid;
 
 	public ScrollingTextLayer(Context ctx) {
+		this(ctx, TileGrid.withDefaultSize());
+	}
+
+	/**
+	 * @param ctx      The context to load the shader with.
+	 * @param tileGrid The layout of the tile mosaic kept around the read position.
+	 */
+	public ScrollingTextLayer(Context ctx, TileGrid tileGrid) {
 		super(new ScrollingTextureShader(ctx));
 
+		this.tileGrid = Objects.requireNonNull(tileGrid);
+		slotContent = new ReadPosition[tileGrid.getGridSize() * tileGrid.getGridSize()];
+		stagedTiles = new Tile[slotContent.length];
+
 		// Get the shader back again.
 		textShader = (ScrollingTextureShader) getShader();
 
-		// Hardcoded value to 0.5 zoom so we have some margin to scroll.
-		textShader.setTextureScale(0.5f);
+		textShader.setTextureScale(tileGrid.getTextureScale());
+		textShader.setTextureSize(tileGrid.getAtlasSize());
 	}
 
 	public float getX() {
@@ -43,30 +130,162 @@ public class ScrollingTextLayer extends Layer {
 		return y;
 	}
 
-	public void setY(float y) {
-		this.y = y % 1;
+	/**
+	 * The grid describes which tiles this layer displays. A tile must have the size of a cell and must start at a
+	 * multiple of it inside the document.
+	 *
+	 * @return The tile grid of this layer.
+	 */
+	public TileGrid getTileGrid() {
+		return tileGrid;
+	}
+
+	/**
+	 * @return TRUE once a tile of the document is displayed.
+	 */
+	@Override
+	public boolean hasContent() {
+		return hasContent;
+	}
+
+	/**
+	 * @return The size of the texture atlas holding the tile mosaic.
+	 */
+	@Override
+	public TextureSize getTextureSize() {
+		return tileGrid.getAtlasSize();
+	}
+
+	/**
+	 * Sets the position inside the document the user is currently reading. The layer will scroll its texture
+	 * accordingly as long as all tiles around the position were set. If not the layer keeps displaying the last
+	 * position until the missing tiles are set via {@link #setTexture(Tile)}.
+	 *
+	 * @param position The current read position.
+	 */
+	public synchronized void setReadPosition(ReadPosition position) {
+		readPosition.setPage(position.getPage());
+		readPosition.setX(position.getX());
+		readPosition.setY(position.getY());
 	}
 
-	public void setX(float x) {
-		this.x = x % 1;
+	/**
+	 * Advises the layer to use a new tile. The tile must have the cell size of the {@link TileGrid}. In the next render
+	 * cycle it is uploaded into the slot of the atlas the document position wraps to, replacing the tile which was
+	 * stored there before. This method can be called from any thread.
+	 * <p>
+	 * Note: The layer takes over the reference of the caller and releases the tile after it was uploaded. This is
+	 * done in this method because it is not completly known when the render cycle picks up the saved texture.
+	 *
+	 * @param tile The new tile to use.
+	 */
+	public synchronized void setTexture(Tile tile) {
+		if (released) {
+			tile.release();
+			return;
+		}
+		newTiles.add(tile);
 	}
 
 	/**
-	 * Advises the layer to use a new bitmap. In the next render cycle the bitmap is exchanged.
+	 * Starts to stage the given page. Its tiles are set via {@link #setStagedTexture(Tile)} and uploaded into the
+	 * staging texture ahead of time. As soon as the read position is set to the staged page the staging texture is
+	 * displayed, if it holds all tiles of the visible area. Otherwise the staged tiles are used like tiles set via
+	 * {@link #setTexture(Tile)}.
 	 * <p>
-	 * Note: After the bitmap was used its memory is freed and its recycled. This is done in this method because it is
-	 * not completly known when the render cycle picks up the saved texture.
+	 * Staging a different page drops the tiles staged so far.
+	 *
+	 * @param page The page to stage or -1 to stop staging.
+	 */
+	public synchronized void stagePage(int page) {
+		requestedStagePage = page;
+	}
+
+	/**
+	 * Advises the layer to use a tile of the staged page. Tiles which do not belong to the staged page, e.g. because
+	 * it was displayed in the meantime, are handled like tiles set via {@link #setTexture(Tile)}. The layer takes over
+	 * the reference of the caller. This method can be called from any thread.
 	 *
-	 * @param bitmap The new bitmap to use.
+	 * @param tile The new tile of the staged page.
 	 */
-	public void setTexture(Bitmap bitmap) {
-		this.newTexture = bitmap;
+	public synchronized void setStagedTexture(Tile tile) {
+		if (released) {
+			tile.release();
+			return;
+		}
+		newStagedTiles.add(tile);
+	}
+
+	/**
+	 * Frees the textures and releases all tiles the layer still holds. Must be called on the render thread before the
+	 * layer is removed from the renderer, the layer can not be displayed anymore afterwards.
+	 */
+	public void release() {
+		synchronized (this) {
+			released = true;
+			pendingTiles.addAll(newTiles);
+			newTiles.clear();
+			pendingTiles.addAll(newStagedTiles);
+			newStagedTiles.clear();
+		}
+
+		for (Tile tile : pendingTiles) {
+			tile.release();
+		}
+		pendingTiles.clear();
+
+		for (Tile tile : laggingTiles) {
+			tile.release();
+		}
+		laggingTiles.clear();
+
+		releaseStagedTiles();
+		stagedPage = -1;
+		Arrays.fill(slotContent, null);
+		hasContent = false;
+
+		textShader.deleteTextures();
 	}
 
 	public void setContrastMode(Contrast contrast) {
 		this.contrastMode = contrast;
 	}
 
+	/**
+	 * @param listener The listener which sets the tiles again after the textures lost them, or null.
+	 */
+	public void setOnContentLostListener(OnContentLostListener listener) {
+		this.contentLostListener = listener;
+	}
+
+	/**
+	 * Creates new and empty textures. If the layer was created in a previous GL context before, the tiles displayed
+	 * there are gone, so they are forgotten and the listener is asked to set them again.
+	 */
+	@Override
+	public void onCreated() {
+		super.onCreated();
+
+		if (!texturesCreated) {
+			texturesCreated = true;
+			return;
+		}
+
+		// Tiles which were uploaded once are still valid, they are uploaded into the new textures again.
+		pendingTiles.addAll(laggingTiles);
+		laggingTiles.clear();
+
+		releaseStagedTiles();
+		stagedPage = -1;
+		Arrays.fill(slotContent, null);
+		hasContent = false;
+
+		final OnContentLostListener listener = contentLostListener;
+		if (listener != null) {
+			listener.onContentLost();
+		}
+	}
+
 	/**
 	 * Transfer the new x and y uv coordinates into the shader. This is done inside the render thread.
 	 *
@@ -76,20 +295,240 @@ public class ScrollingTextLayer extends Layer {
 	public void onNewFrame(HeadTransform headTransform) {
 		super.onNewFrame(headTransform);
 
+		final Tile[] stagingTiles;
+		final int stagePage;
+		final int readPage;
+		synchronized (this) {
+			pendingTiles.addAll(newTiles);
+			newTiles.clear();
+			stagingTiles = newStagedTiles.toArray(new Tile[newStagedTiles.size()]);
+			newStagedTiles.clear();
+			stagePage = requestedStagePage;
+			readPage = readPosition.getPage();
+		}
+
+		// The back texture misses the tiles of the last update.
+		for (Tile tile : laggingTiles) {
+			uploadTile(tile);
+			// has been loaded to both textures.
+			tile.release();
+		}
+		laggingTiles.clear();
+
+		updateStaging(stagePage, stagingTiles);
+
+		final boolean showsStagedPage = stagedPage >= 0 && stagedPage == readPage && showStagedPage();
+
+		// When the staging texture was just displayed the back texture first has to catch up with it. New tiles wait
+		// until the next frame then.
+		if (!showsStagedPage) {
+			uploadPendingTiles();
+		}
+
 		// Transfer the uv coordiantes.
+		updateUv();
 		textShader.setUv(x, y);
 
 		if(contrastMode != null) {
 			textShader.setContrastMode(contrastMode);
 			contrastMode = null;
 		}
+	}
+
+	/**
+	 * Transfers the pending tiles into their texture cells and displays them.
+	 */
+	private void uploadPendingTiles() {
+		for (Tile tile : pendingTiles) {
+			if (!isInsideGrid(tile.getPosition())) {
+				// Tiles are rendered in parallel, so an outdated tile might arrive after the grid moved on.
+				tile.release();
+				continue;
+			}
+
+			uploadTile(tile);
+			laggingTiles.add(tile);
+		}
+		pendingTiles.clear();
+
+		if (!laggingTiles.isEmpty()) {
+			textShader.swapTextures();
+			updateSlotContent(laggingTiles);
+			hasContent = true;
+		}
+	}
+
+	/**
+	 * Uploads the new tiles of the staged page into the staging texture.
+	 *
+	 * @param stagePage    The page which should be staged.
+	 * @param stagingTiles The new tiles of the staged page.
+	 */
+	private void updateStaging(int stagePage, Tile[] stagingTiles) {
+
+		if (stagePage != stagedPage) {
+			releaseStagedTiles();
+			stagedPage = stagePage;
+		}
+
+		for (Tile tile : stagingTiles) {
+			final ReadPosition position = tile.getPosition();
+
+			if (stagedPage < 0 || position.getPage() != stagedPage) {
+				pendingTiles.add(tile);
+				continue;
+			}
+
+			final int cellX = tileGrid.getCell(position.getX());
+			final int cellY = tileGrid.getCell(position.getY());
+			final int slot = tileGrid.getSlot(cellX, cellY);
+
+			textShader.updateStagingTexture(tile.getBitmap(), tileGrid.getTexelX(cellX), tileGrid.getTexelY(cellY));
+
+			// A preview is replaced by the final tile.
+			if (stagedTiles[slot] != null) {
+				stagedTiles[slot].release();
+			}
+			stagedTiles[slot] = tile;
+		}
+	}
 
-		// Transfer the new texture if there is one.
-		if(newTexture != null) {
-			textShader.useTexture(newTexture);
-			// has been loaded to opengl.
-			newTexture.recycle();
-			newTexture = null;
+	/**
+	 * Displays the staged page after the read position was set to it. If not all tiles of the visible area were
+	 * staged in time the staged tiles are uploaded like normal tiles instead.
+	 *
+	 * @return TRUE if the staging texture is displayed now.
+	 */
+	private boolean showStagedPage() {
+
+		final boolean complete = areVisibleCellsStaged();
+
+		if (complete) {
+			textShader.swapStagingTexture();
+			hasContent = true;
+
+			for (int i = 0; i < slotContent.length; i++) {
+				slotContent[i] = null;
+			}
 		}
+
+		for (int i = 0; i < stagedTiles.length; i++) {
+			final Tile tile = stagedTiles[i];
+			if (tile == null) {
+				continue;
+			}
+
+			if (complete) {
+				slotContent[i] = tile.getPosition();
+				laggingTiles.add(tile);
+			} else {
+				pendingTiles.add(tile);
+			}
+			stagedTiles[i] = null;
+		}
+
+		synchronized (this) {
+			if (requestedStagePage == stagedPage) {
+				requestedStagePage = -1;
+			}
+		}
+		stagedPage = -1;
+
+		return complete;
+	}
+
+	private synchronized boolean areVisibleCellsStaged() {
+
+		final double readX = readPosition.getX();
+		final double readY = readPosition.getY();
+
+		for (int cellY = tileGrid.getFirstVisibleCell(readY); cellY <= tileGrid.getLastVisibleCell(readY); cellY++) {
+			for (int cellX = tileGrid.getFirstVisibleCell(readX); cellX <= tileGrid.getLastVisibleCell(readX);
+				 cellX++) {
+				final Tile tile = stagedTiles[tileGrid.getSlot(cellX, cellY)];
+
+				if (tile == null || !tileGrid.isTileOfCell(tile.getPosition(), stagedPage, cellX, cellY)) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private void releaseStagedTiles() {
+		for (int i = 0; i < stagedTiles.length; i++) {
+			if (stagedTiles[i] != null) {
+				stagedTiles[i].release();
+				stagedTiles[i] = null;
+			}
+		}
+	}
+
+	private void uploadTile(Tile tile) {
+
+		final ReadPosition position = tile.getPosition();
+		final int cellX = tileGrid.getCell(position.getX());
+		final int cellY = tileGrid.getCell(position.getY());
+
+		textShader.updateTexture(tile.getBitmap(), tileGrid.getTexelX(cellX), tileGrid.getTexelY(cellY));
+	}
+
+	private void updateSlotContent(List<Tile> tiles) {
+		for (Tile tile : tiles) {
+			final ReadPosition position = tile.getPosition();
+			final int cellX = tileGrid.getCell(position.getX());
+			final int cellY = tileGrid.getCell(position.getY());
+
+			slotContent[tileGrid.getSlot(cellX, cellY)] = position;
+		}
+	}
+
+	/**
+	 * Checks if the tile belongs to the grid around the current read position.
+	 *
+	 * @param position The position of the tile.
+	 * @return TRUE if the tile is part of the grid.
+	 */
+	private synchronized boolean isInsideGrid(ReadPosition position) {
+
+		if (position.getPage() != readPosition.getPage()) {
+			return false;
+		}
+
+		final int cellX = tileGrid.getCell(position.getX()) - tileGrid.getFirstGridCell(readPosition.getX());
+		final int cellY = tileGrid.getCell(position.getY()) - tileGrid.getFirstGridCell(readPosition.getY());
+
+		return cellX >= 0 && cellX < tileGrid.getGridSize() && cellY >= 0 && cellY < tileGrid.getGridSize();
+	}
+
+	/**
+	 * Calculates the uv offset from the current read position. As the atlas wraps around the offset is just the read
+	 * position relative to the atlas size. The offset is only updated if all cells covered by the visible area contain
+	 * the right part of the document, otherwise the old offset is kept.
+	 */
+	private synchronized void updateUv() {
+
+		final double readX = readPosition.getX();
+		final double readY = readPosition.getY();
+
+		for (int cellY = tileGrid.getFirstVisibleCell(readY); cellY <= tileGrid.getLastVisibleCell(readY); cellY++) {
+			for (int cellX = tileGrid.getFirstVisibleCell(readX); cellX <= tileGrid.getLastVisibleCell(readX);
+				 cellX++) {
+				if (!isCellLoaded(readPosition.getPage(), cellX, cellY)) {
+					// Tile is not yet ready. Keep the old offset.
+					return;
+				}
+			}
+		}
+
+		x = tileGrid.getUvOffset(readX);
+		y = tileGrid.getUvOffset(readY);
+	}
+
+	private boolean isCellLoaded(int page, int cellX, int cellY) {
+		final ReadPosition content = slotContent[tileGrid.getSlot(cellX, cellY)];
+
+		return content != null && tileGrid.isTileOfCell(content, page, cellX, cellY);
 	}
 }
@@ -0,0 +1,196 @@
+package de.fraunhofer.ipa.vrread.graphics.layer;
+
+import de.fraunhofer.ipa.vrread.datasource.ReadPosition;
+import de.fraunhofer.ipa.vrread.datasource.TextureSize;
+
+/**
+ * Addresses the mosaic of tiles which is kept around the read position. The document is divided into cells of the size
+ * of the visible area. A grid of cells which is centered on the visible area is kept inside one texture atlas, so the
+ * reader can move half a cell into any direction, also diagonally, before a tile outside of the grid is needed.
+ * <p>
+ * The atlas is used as a ring buffer: a cell of the document is always stored in the same slot of the atlas, the cell
+ * index modulo the grid size. When the grid is shifted only the cells which enter the grid must be rendered, they
+ * replace the cells which left it.
+ */
+public final class TileGrid {
+
+	private static final int DEFAULT_GRID_SIZE = 3;
+	private static final int DEFAULT_CELL_SIZE = 512;
+
+	private final int gridSize;
+	private final int cellSize;
+
+	private final TextureSize cellTextureSize;
+	private final TextureSize atlasSize;
+
+	/**
+	 * @param gridSize Number of cells the grid has in each direction. Must be at least 2 so the visible area fits.
+	 * @param cellSize Size of a cell in pixels, which is the size of the visible area.
+	 */
+	public TileGrid(int gridSize, int cellSize) {
+
+		if (gridSize < 2) {
+			throw new IllegalArgumentException("The grid needs at least two cells in each direction.");
+		}
+
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be bigger then 0.");
+		}
+
+		this.gridSize = gridSize;
+		this.cellSize = cellSize;
+
+		cellTextureSize = new TextureSize(cellSize, cellSize);
+		atlasSize = new TextureSize(gridSize * cellSize, gridSize * cellSize);
+	}
+
+	/**
+	 * Creates a 3x3 grid of 512 pixel cells.
+	 *
+	 * @return The new grid.
+	 */
+	public static TileGrid withDefaultSize() {
+		return new TileGrid(DEFAULT_GRID_SIZE, DEFAULT_CELL_SIZE);
+	}
+
+	public int getGridSize() {
+		return gridSize;
+	}
+
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @return The size of the tiles which are stored inside the cells.
+	 */
+	public TextureSize getCellTextureSize() {
+		return cellTextureSize;
+	}
+
+	/**
+	 * @return The size of the texture atlas holding the whole grid.
+	 */
+	public TextureSize getAtlasSize() {
+		return atlasSize;
+	}
+
+	/**
+	 * @param coordinate A x or y coordinate inside the document.
+	 * @return The index of the cell containing the coordinate.
+	 */
+	public int getCell(double coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	/**
+	 * Calculates the first cell of the grid for a read position. The grid is centered on the visible area which
+	 * starts at the read position.
+	 *
+	 * @param coordinate A x or y coordinate of the read position.
+	 * @return The index of the first cell of the grid. Might be negative at the start of a page.
+	 */
+	public int getFirstGridCell(double coordinate) {
+		final int centerCell = getCell(coordinate + cellSize / 2.0);
+		return centerCell - (gridSize - 1) / 2;
+	}
+
+	/**
+	 * @param coordinate A x or y coordinate of the read position.
+	 * @return The index of the first cell touched by the visible area.
+	 */
+	public int getFirstVisibleCell(double coordinate) {
+		return getCell(coordinate);
+	}
+
+	/**
+	 * @param coordinate A x or y coordinate of the read position.
+	 * @return The index of the last cell touched by the visible area.
+	 */
+	public int getLastVisibleCell(double coordinate) {
+		return getCell(coordinate + cellSize);
+	}
+
+	/**
+	 * Calculates the slot of the atlas a cell of the document is stored in.
+	 *
+	 * @param cellX The x index of the cell.
+	 * @param cellY The y index of the cell.
+	 * @return The index of the slot, between 0 and gridSize * gridSize.
+	 */
+	public int getSlot(int cellX, int cellY) {
+		return getSlotY(cellY) * gridSize + getSlotX(cellX);
+	}
+
+	/**
+	 * @param cellX The x index of the cell.
+	 * @return The x texel offset of the slot inside the atlas.
+	 */
+	public int getTexelX(int cellX) {
+		return getSlotX(cellX) * cellSize;
+	}
+
+	/**
+	 * @param cellY The y index of the cell.
+	 * @return The y texel offset of the slot inside the atlas.
+	 */
+	public int getTexelY(int cellY) {
+		return getSlotY(cellY) * cellSize;
+	}
+
+	private int getSlotX(int cellX) {
+		return mod(cellX, gridSize);
+	}
+
+	private int getSlotY(int cellY) {
+		return mod(cellY, gridSize);
+	}
+
+	/**
+	 * @param page  The page of the tile.
+	 * @param cellX The x index of the cell.
+	 * @param cellY The y index of the cell.
+	 * @return The position of the upper left corner of the tile for this cell.
+	 */
+	public ReadPosition getTilePosition(int page, int cellX, int cellY) {
+		return new ReadPosition(page, cellX * cellSize, cellY * cellSize);
+	}
+
+	/**
+	 * Checks if the tile position is the one of the given cell.
+	 *
+	 * @param position The position of a tile.
+	 * @param page     The page of the cell.
+	 * @param cellX    The x index of the cell.
+	 * @param cellY    The y index of the cell.
+	 * @return TRUE if the tile belongs to this cell.
+	 */
+	public boolean isTileOfCell(ReadPosition position, int page, int cellX, int cellY) {
+		return position.getPage() == page &&
+				Math.round(position.getX()) == cellX * cellSize &&
+				Math.round(position.getY()) == cellY * cellSize;
+	}
+
+	/**
+	 * Calculates the uv offset of a coordinate inside the atlas. The atlas wraps around so the result is in [0, 1).
+	 *
+	 * @param coordinate A x or y coordinate inside the document.
+	 * @return The uv offset.
+	 */
+	public float getUvOffset(double coordinate) {
+		final double value = coordinate / atlasSize.getWidth();
+		return (float) (value - Math.floor(value));
+	}
+
+	/**
+	 * @return The part of the atlas which is visible at once.
+	 */
+	public float getTextureScale() {
+		return 1f / gridSize;
+	}
+
+	private static int mod(int value, int divisor) {
+		final int result = value % divisor;
+		return result < 0 ? result + divisor : result;
+	}
+}
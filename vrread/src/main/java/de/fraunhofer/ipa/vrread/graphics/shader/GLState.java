@@ -0,0 +1,364 @@
+package de.fraunhofer.ipa.vrread.graphics.shader;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import de.fraunhofer.ipa.vrread.graphics.WorldLayoutData;
+
+/**
+ * Keeps track of the GL state the layers share, so calls which would not change anything are skipped: the program in
+ * use, the depth test, the bound texture and the vertex attributes. It also holds the static vertex buffers of the
+ * quad every layer is drawn on.
+ * <p>
+ * The cached bindings are forgotten at the start of every eye via {@link #invalidate()}, because the VR SDK changes
+ * them for its distortion pass and the texture uploads before the eyes bind textures directly.
+ * <p>
+ * The calls made and skipped through this class are counted and logged every {@link #LOG_INTERVAL} frames. Made plus
+ * skipped calls are what was needed per frame without the cache.
+ * <p>
+ * All methods must be called on the render thread.
+ */
+public final class GLState {
+
+	private static final String TAG = GLState.class.getSimpleName();
+
+	/**
+	 * The call statistics are logged after this many frames.
+	 */
+	private static final int LOG_INTERVAL = 600;
+
+	private static final int MAX_ATTRIBUTES = 16;
+	private static final int UNKNOWN = -1;
+
+	private static int program = UNKNOWN;
+	private static int depthTest = UNKNOWN;
+	private static int texture = UNKNOWN;
+	private static int arrayBuffer = UNKNOWN;
+	private static boolean textureUnitActive = false;
+
+	/**
+	 * The buffer each attribute is read from, {@link #UNKNOWN} for client memory.
+	 */
+	private static final int[] attributeBuffers = new int[MAX_ATTRIBUTES];
+	private static final int[] attributeStrides = new int[MAX_ATTRIBUTES];
+	private static final int[] attributeOffsets = new int[MAX_ATTRIBUTES];
+	private static final boolean[] attributesEnabled = new boolean[MAX_ATTRIBUTES];
+
+	private static final int[] quadBuffers = new int[2];
+
+	private static long issuedCalls = 0;
+	private static long skippedCalls = 0;
+	private static int frames = 0;
+
+	static {
+		invalidate();
+	}
+
+	/**
+	 * Priv. ctor so the class can only be used in static fashon.
+	 */
+	private GLState() {
+		// no op.
+	}
+
+	/**
+	 * Must be called when a new GL context was created. The buffers of the old context are gone with it.
+	 */
+	public static void onContextCreated() {
+		quadBuffers[0] = 0;
+		quadBuffers[1] = 0;
+		invalidate();
+	}
+
+	/**
+	 * Forgets the cached bindings, the next calls are all made. Must be called when GL state might have been changed
+	 * without this class.
+	 */
+	public static void invalidate() {
+		program = UNKNOWN;
+		depthTest = UNKNOWN;
+		texture = UNKNOWN;
+		arrayBuffer = UNKNOWN;
+		textureUnitActive = false;
+		Arrays.fill(attributeBuffers, UNKNOWN);
+		Arrays.fill(attributesEnabled, false);
+	}
+
+	/**
+	 * Counts a finished frame and logs the call statistics every {@link #LOG_INTERVAL} frames.
+	 */
+	public static void onFrameFinished() {
+		frames++;
+		if (frames < LOG_INTERVAL) {
+			return;
+		}
+
+		Log.d(TAG, String.format("GL calls per frame: %.1f made, %.1f skipped, %.1f without cache.",
+				(float) issuedCalls / frames, (float) skippedCalls / frames,
+				(float) (issuedCalls + skippedCalls) / frames));
+
+		issuedCalls = 0;
+		skippedCalls = 0;
+		frames = 0;
+	}
+
+	public static void useProgram(int program) {
+		if (GLState.program == program) {
+			skippedCalls++;
+			return;
+		}
+		GLState.program = program;
+		issuedCalls++;
+		GLES20.glUseProgram(program);
+	}
+
+	public static void setDepthTest(boolean enabled) {
+		final int state = enabled ? 1 : 0;
+		if (depthTest == state) {
+			skippedCalls++;
+			return;
+		}
+		depthTest = state;
+		issuedCalls++;
+		if (enabled) {
+			GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+		} else {
+			GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+		}
+	}
+
+	/**
+	 * Binds a 2D texture to texture unit 0, the only unit the shaders use.
+	 *
+	 * @param texture The texture name.
+	 */
+	public static void bindTexture(int texture) {
+		if (textureUnitActive) {
+			skippedCalls++;
+		} else {
+			textureUnitActive = true;
+			issuedCalls++;
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		}
+
+		if (GLState.texture == texture) {
+			skippedCalls++;
+			return;
+		}
+		GLState.texture = texture;
+		issuedCalls++;
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+	}
+
+	/**
+	 * Lets an attribute read tightly packed floats from a vertex buffer.
+	 *
+	 * @param location The location of the attribute.
+	 * @param size     The number of floats per vertex.
+	 * @param buffer   The vertex buffer.
+	 */
+	public static void setAttributeBuffer(int location, int size, int buffer) {
+		setAttributeBuffer(location, size, 0, 0, buffer);
+	}
+
+	/**
+	 * Lets an attribute read interleaved floats from a vertex buffer.
+	 *
+	 * @param location The location of the attribute.
+	 * @param size     The number of floats per vertex.
+	 * @param stride   The distance between the vertices in bytes.
+	 * @param offset   The offset of the first float in bytes.
+	 * @param buffer   The vertex buffer.
+	 */
+	public static void setAttributeBuffer(int location, int size, int stride, int offset, int buffer) {
+		if (location < 0) {
+			return;
+		}
+
+		if (attributeBuffers[location] == buffer && attributeStrides[location] == stride &&
+				attributeOffsets[location] == offset) {
+			skippedCalls++;
+		} else {
+			bindArrayBuffer(buffer);
+			attributeBuffers[location] = buffer;
+			attributeStrides[location] = stride;
+			attributeOffsets[location] = offset;
+			issuedCalls++;
+			GLES20.glVertexAttribPointer(location, size, GLES20.GL_FLOAT, false, stride, offset);
+		}
+		enableAttribute(location);
+	}
+
+	/**
+	 * Lets an attribute read floats from client memory. The data can change between the calls, so this is always
+	 * made.
+	 *
+	 * @param location The location of the attribute.
+	 * @param size     The number of floats per vertex.
+	 * @param stride   The distance between the vertices in bytes.
+	 * @param vertices The vertices, read from their current position.
+	 */
+	public static void setAttributeArray(int location, int size, int stride, FloatBuffer vertices) {
+		if (location < 0) {
+			return;
+		}
+
+		// Client memory is only read while no buffer is bound.
+		bindArrayBuffer(0);
+		attributeBuffers[location] = UNKNOWN;
+		issuedCalls++;
+		GLES20.glVertexAttribPointer(location, size, GLES20.GL_FLOAT, false, stride, vertices);
+		enableAttribute(location);
+	}
+
+	/**
+	 * Creates a vertex buffer which is filled once and drawn many times.
+	 *
+	 * @param vertices The vertices, read from position 0 up to the limit.
+	 * @return The vertex buffer.
+	 */
+	public static int createVertexBuffer(FloatBuffer vertices) {
+		final int[] buffer = new int[1];
+		GLES20.glGenBuffers(1, buffer, 0);
+		if (buffer[0] == 0) {
+			throw new RuntimeException("Error creating vertex buffer.");
+		}
+
+		vertices.position(0);
+		bindArrayBuffer(buffer[0]);
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.limit() * 4, vertices, GLES20.GL_STATIC_DRAW);
+
+		GLHelper.checkGLError("create vertex buffer");
+		return buffer[0];
+	}
+
+	/**
+	 * Deletes textures. Their names might be reused by GL, so the binding of them is forgotten.
+	 *
+	 * @param textures The texture names.
+	 */
+	public static void deleteTextures(int[] textures) {
+		if (textures.length == 0) {
+			return;
+		}
+
+		for (int name : textures) {
+			if (texture == name) {
+				texture = UNKNOWN;
+			}
+		}
+
+		GLES20.glDeleteTextures(textures.length, textures, 0);
+	}
+
+	/**
+	 * Deletes vertex buffers created by {@link #createVertexBuffer(FloatBuffer)}. Their names might be reused by GL, so
+	 * the bindings of them are forgotten.
+	 *
+	 * @param buffers The vertex buffers.
+	 */
+	public static void deleteVertexBuffers(int[] buffers) {
+		if (buffers.length == 0) {
+			return;
+		}
+
+		for (int buffer : buffers) {
+			if (arrayBuffer == buffer) {
+				arrayBuffer = UNKNOWN;
+			}
+			for (int i = 0; i < MAX_ATTRIBUTES; i++) {
+				if (attributeBuffers[i] == buffer) {
+					attributeBuffers[i] = UNKNOWN;
+				}
+			}
+		}
+
+		GLES20.glDeleteBuffers(buffers.length, buffers, 0);
+	}
+
+	public static void drawArrays(int mode, int first, int count) {
+		issuedCalls++;
+		GLES20.glDrawArrays(mode, first, count);
+	}
+
+	/**
+	 * @return The vertex buffer with the positions of the quad, 3 floats per vertex.
+	 */
+	public static int getQuadVertexBuffer() {
+		if (quadBuffers[0] == 0) {
+			createQuadBuffers();
+		}
+		return quadBuffers[0];
+	}
+
+	/**
+	 * @return The vertex buffer with the texture coordinates of the quad, 2 floats per vertex.
+	 */
+	public static int getQuadTextureCoordinateBuffer() {
+		if (quadBuffers[1] == 0) {
+			createQuadBuffers();
+		}
+		return quadBuffers[1];
+	}
+
+	/**
+	 * Counts a call which was made, for calls which are not cached by this class.
+	 */
+	static void countIssued() {
+		issuedCalls++;
+	}
+
+	/**
+	 * Counts a call which was skipped by another cache, see {@link Uniform}.
+	 */
+	static void countSkipped() {
+		skippedCalls++;
+	}
+
+	private static void enableAttribute(int location) {
+		if (attributesEnabled[location]) {
+			skippedCalls++;
+			return;
+		}
+		attributesEnabled[location] = true;
+		issuedCalls++;
+		GLES20.glEnableVertexAttribArray(location);
+	}
+
+	private static void bindArrayBuffer(int buffer) {
+		if (arrayBuffer == buffer) {
+			skippedCalls++;
+			return;
+		}
+		arrayBuffer = buffer;
+		issuedCalls++;
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+	}
+
+	private static void createQuadBuffers() {
+		GLES20.glGenBuffers(quadBuffers.length, quadBuffers, 0);
+		if (quadBuffers[0] == 0 || quadBuffers[1] == 0) {
+			throw new RuntimeException("Error creating quad buffers.");
+		}
+
+		uploadBuffer(quadBuffers[0], WorldLayoutData.PLANE_COORDS);
+		uploadBuffer(quadBuffers[1], WorldLayoutData.PLANE_TEX_CORDS);
+
+		GLHelper.checkGLError("quad buffers");
+	}
+
+	private static void uploadBuffer(int buffer, float[] data) {
+		final FloatBuffer floats = ByteBuffer.allocateDirect(data.length * 4).order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+		floats.put(data);
+		floats.position(0);
+
+		bindArrayBuffer(buffer);
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, data.length * 4, floats, GLES20.GL_STATIC_DRAW);
+	}
+}
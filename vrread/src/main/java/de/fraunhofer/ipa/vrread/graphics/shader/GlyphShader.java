@@ -0,0 +1,228 @@
+package de.fraunhofer.ipa.vrread.graphics.shader;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+import java.util.Objects;
+
+import de.fraunhofer.ipa.vrread.R;
+import de.fraunhofer.ipa.vrread.control.Contrast;
+import de.fraunhofer.ipa.vrread.graphics.text.GlyphAtlas;
+import de.fraunhofer.ipa.vrread.graphics.text.TextLayout;
+
+/**
+ * Draws text from a {@link GlyphAtlas} holding signed distance fields. The vertices are glyph quads given in layout
+ * coordinates, see {@link TextLayout}. The vertex shader maps them onto the plane depending on the scroll offset and
+ * the zoom, glyphs outside of the plane are cut off by the fragment shader.
+ * <p>
+ * A frame is drawn in two passes: first the plane is filled with the background color, then the glyphs are blended on
+ * top of it with one draw call per visible chunk of the layout. The glyphs are read from vertex buffers, the
+ * background which moves every frame from client memory.
+ */
+public class GlyphShader extends QuadShader {
+
+	private static final int BYTES_PER_FLOAT = 4;
+	private static final int STRIDE = TextLayout.FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+
+	private static final float[] BLACK = {0f, 0f, 0f, 1f};
+	private static final float[] WHITE = {1f, 1f, 1f, 1f};
+	private static final float[] YELLOW = {1f, 1f, 0f, 1f};
+	private static final float[] BLUE = {0f, 0f, 1f, 1f};
+
+	private final Context ctx;
+
+	private final Uniform offsetParam = new Uniform(2);
+	private final Uniform scaleParam = new Uniform(1);
+	private final Uniform smoothingParam = new Uniform(1);
+	private final Uniform fillParam = new Uniform(1);
+	private final Uniform textColorParam = new Uniform(4);
+	private final Uniform backgroundColorParam = new Uniform(4);
+
+	private final int[] textureHandle = new int[1];
+
+	private GlyphAtlas atlas;
+	private boolean atlasChanged = false;
+
+	private float offsetX = 0f;
+	private float offsetY = 0f;
+	private float scale = 1f;
+	private float smoothing = 0.1f;
+
+	private float[] textColor = BLACK;
+	private float[] backgroundColor = WHITE;
+
+	public GlyphShader(Context ctx) {
+
+		this.ctx = Objects.requireNonNull(ctx);
+	}
+
+	/**
+	 * Sets the atlas the glyphs are drawn from. It is uploaded the next time the shader is used.
+	 *
+	 * @param atlas The glyph atlas.
+	 */
+	public synchronized void setAtlas(GlyphAtlas atlas) {
+		this.atlas = Objects.requireNonNull(atlas);
+		atlasChanged = true;
+	}
+
+	/**
+	 * Sets the part of the layout which is shown on the plane.
+	 *
+	 * @param offsetX   The x layout position shown in the upper left corner.
+	 * @param offsetY   The y layout position shown in the upper left corner.
+	 * @param scale     The part of the plane covered by one layout unit.
+	 * @param smoothing Half width of the anti aliased glyph edges in distance field units.
+	 */
+	public synchronized void setView(float offsetX, float offsetY, float scale, float smoothing) {
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		this.scale = scale;
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * Chooses the colors of text and background like the fragment shader of the tiles does.
+	 *
+	 * @param contrast The contrast mode.
+	 */
+	public synchronized void setContrastMode(Contrast contrast) {
+		switch (contrast) {
+			case NORMAL:
+				textColor = BLACK;
+				backgroundColor = WHITE;
+				break;
+			case INVERTED:
+				textColor = WHITE;
+				backgroundColor = BLACK;
+				break;
+			case BLACK_YELLOW:
+				textColor = YELLOW;
+				backgroundColor = BLACK;
+				break;
+			case YELLOW_BLUE:
+				textColor = YELLOW;
+				backgroundColor = BLUE;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown contrast mode: " + contrast);
+		}
+	}
+
+	@Override
+	protected void createShaderProgram() {
+		quadProgram = ShaderProgramManager.getInstance(ctx).getProgram(R.raw.glyph_vertex, R.raw.glyph);
+	}
+
+	@Override
+	public void loadShader() {
+		super.loadShader();
+
+		offsetParam.findLocation(quadProgram, "u_Offset");
+		scaleParam.findLocation(quadProgram, "u_Scale");
+		smoothingParam.findLocation(quadProgram, "u_Smoothing");
+		fillParam.findLocation(quadProgram, "u_Fill");
+		textColorParam.findLocation(quadProgram, "u_TextColor");
+		backgroundColorParam.findLocation(quadProgram, "u_BackgroundColor");
+
+		GLES20.glGenTextures(1, textureHandle, 0);
+		if (textureHandle[0] == 0) {
+			throw new RuntimeException("Error loading texture.");
+		}
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+		// The distance field must be interpolated linearly to reconstruct the outline.
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+		synchronized (this) {
+			// A new context needs the atlas again.
+			atlasChanged = atlas != null;
+		}
+
+		GLHelper.checkGLError("glyph shader params");
+	}
+
+	@Override
+	public void useShader() {
+		GLState.useProgram(quadProgram);
+		GLState.bindTexture(textureHandle[0]);
+
+		synchronized (this) {
+			if (atlasChanged) {
+				uploadAtlas();
+				atlasChanged = false;
+			}
+
+			offsetParam.set(offsetX, offsetY);
+			scaleParam.set(scale);
+			smoothingParam.set(smoothing);
+			textColorParam.set(textColor);
+			backgroundColorParam.set(backgroundColor);
+		}
+	}
+
+	private void uploadAtlas() {
+		// Rows of the single channel atlas are not aligned to 4 bytes.
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_ALPHA, atlas.getWidth(), atlas.getHeight(), 0,
+				GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, atlas.getDistances());
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+
+		GLHelper.checkGLError("upload glyph atlas");
+	}
+
+	/**
+	 * Fills the given area with the background color. The shader must be in use.
+	 *
+	 * @param vertices The vertices of the area in layout coordinates.
+	 * @param count    The number of vertices.
+	 */
+	public void drawBackground(FloatBuffer vertices, int count) {
+		fillParam.set(1f);
+		drawTriangles(vertices, count);
+	}
+
+	/**
+	 * Blends the glyph quads of a chunk of a text layout over the background. The shader must be in use.
+	 *
+	 * @param buffer The vertex buffer of the chunk, see {@link TextLayout.Chunk}.
+	 * @param count  The number of vertices.
+	 */
+	public void drawGlyphs(int buffer, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		fillParam.set(0f);
+
+		GLState.setAttributeBuffer(wallPositionParam, 2, STRIDE, 0, buffer);
+		GLState.setAttributeBuffer(textureCoordinateParam, 2, STRIDE, 2 * BYTES_PER_FLOAT, buffer);
+
+		GLES20.glEnable(GLES20.GL_BLEND);
+		GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		GLState.drawArrays(GLES20.GL_TRIANGLES, 0, count);
+		GLES20.glDisable(GLES20.GL_BLEND);
+
+		GLHelper.checkGLError("draw glyphs");
+	}
+
+	private void drawTriangles(FloatBuffer vertices, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		vertices.position(0);
+		GLState.setAttributeArray(wallPositionParam, 2, STRIDE, vertices);
+
+		vertices.position(2);
+		GLState.setAttributeArray(textureCoordinateParam, 2, STRIDE, vertices);
+		vertices.position(0);
+
+		GLState.drawArrays(GLES20.GL_TRIANGLES, 0, count);
+		GLHelper.checkGLError("draw background");
+	}
+}
@@ -1,7 +1,6 @@
 package de.fraunhofer.ipa.vrread.graphics.shader;
 
 import android.content.Context;
-import android.opengl.GLES20;
 
 import de.fraunhofer.ipa.vrread.R;
 
@@ -15,7 +14,7 @@ import de.fraunhofer.ipa.vrread.R;
 public class HelperLineShader extends QuadShader {
 
 	private Context ctx;
-	private int helperlinePositionParam;
+	private final Uniform helperlinePositionParam = new Uniform(1);
 
 	private float helperlinePosition = 0.5f;
 
@@ -26,31 +25,23 @@ public class HelperLineShader extends QuadShader {
 
 	@Override
 	public void useShader() {
-		GLES20.glUseProgram(quadProgram);
+		GLState.useProgram(quadProgram);
 
 		// Set the texture uv coordinates.
-		GLES20.glVertexAttribPointer(textureCoordinateParam, 2, GLES20.GL_FLOAT, false, 0, wallTextureCoordinates);
-		GLES20.glEnableVertexAttribArray(textureCoordinateParam);
-		GLES20.glUniform1f(helperlinePositionParam, helperlinePosition);
+		setTextureCoordinates();
+		helperlinePositionParam.set(helperlinePosition);
 	}
 
 	@Override
 	protected void createShaderProgram() {
-		final int vertexShader = loadGLShader(GLHelper.readRawTextFile(ctx, R.raw.vertex), GLES20.GL_VERTEX_SHADER);
-		final int lineShader = loadGLShader(GLHelper.readRawTextFile(ctx, R.raw.helperline),
-				GLES20.GL_FRAGMENT_SHADER);
-
-		quadProgram = GLES20.glCreateProgram();
-		GLES20.glAttachShader(quadProgram, vertexShader);
-		GLES20.glAttachShader(quadProgram, lineShader);
-		GLES20.glLinkProgram(quadProgram);
+		quadProgram = ShaderProgramManager.getInstance(ctx).getProgram(R.raw.vertex, R.raw.helperline);
 	}
 
 	@Override
 	public void loadShader() {
 		super.loadShader();
 
-		helperlinePositionParam = GLES20.glGetUniformLocation(quadProgram, "u_LinePosition");
+		helperlinePositionParam.findLocation(quadProgram, "u_LinePosition");
 	}
 
 	/**
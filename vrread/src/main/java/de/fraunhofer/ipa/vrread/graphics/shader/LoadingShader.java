@@ -0,0 +1,51 @@
+package de.fraunhofer.ipa.vrread.graphics.shader;
+
+import android.content.Context;
+
+import java.util.Objects;
+
+import de.fraunhofer.ipa.vrread.R;
+
+/**
+ * Draws an indeterminate progress bar onto the plane. It needs no texture, so it is ready as soon as the program is
+ * linked.
+ */
+public class LoadingShader extends QuadShader {
+
+	private final Context ctx;
+	private final Uniform progressParam = new Uniform(1);
+
+	private float progress = 0f;
+
+	public LoadingShader(Context ctx) {
+
+		this.ctx = Objects.requireNonNull(ctx);
+	}
+
+	/**
+	 * @param progress The position of the moving bar between 0 and 1.
+	 */
+	public void setProgress(float progress) {
+		this.progress = progress;
+	}
+
+	@Override
+	public void useShader() {
+		GLState.useProgram(quadProgram);
+
+		setTextureCoordinates();
+		progressParam.set(progress);
+	}
+
+	@Override
+	protected void createShaderProgram() {
+		quadProgram = ShaderProgramManager.getInstance(ctx).getProgram(R.raw.vertex, R.raw.loading);
+	}
+
+	@Override
+	public void loadShader() {
+		super.loadShader();
+
+		progressParam.findLocation(quadProgram, "u_Progress");
+	}
+}
@@ -2,26 +2,19 @@ package de.fraunhofer.ipa.vrread.graphics.shader;
 
 import android.opengl.GLES20;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
-import de.fraunhofer.ipa.vrread.graphics.WorldLayoutData;
-
 /**
  * Created by tbf on 24.02.2017.
  */
 @SuppressWarnings("WeakerAccess")
 public abstract class QuadShader extends Shader {
 
-	protected FloatBuffer wallTextureCoordinates;
 	// This will be used to pass in the texture image.
 	protected int textureCoordinateParam;
 
 	@SuppressWarnings("WeakerAccess")
 	protected int quadProgram;
 
-	private int wallPositionParam;
+	protected int wallPositionParam;
 	private int wallModelViewProjectionParam;
 
 	public QuadShader() {
@@ -55,35 +48,44 @@ public abstract class QuadShader extends Shader {
 
 	@Override
 	public void loadShader() {
-		// Get the UV coordiantes.
-		ByteBuffer bbFloorTexCords = ByteBuffer.allocateDirect(WorldLayoutData.PLANE_TEX_CORDS.length * 4);
-		bbFloorTexCords.order(ByteOrder.nativeOrder());
-		wallTextureCoordinates = bbFloorTexCords.asFloatBuffer();
-		wallTextureCoordinates.put(WorldLayoutData.PLANE_TEX_CORDS);
-		wallTextureCoordinates.position(0);
-
 		createShaderProgram();
 
 		checkShaderLinkError();
 
 		GLES20.glUseProgram(quadProgram);
 
+		findParams();
+
+		GLHelper.checkGLError("quad shader params");
+	}
+
+	/**
+	 * Looks up the attributes and uniforms of the current quadProgram. Subclasses which switch between programs must
+	 * call it again after the switch, because the locations can differ between programs.
+	 */
+	protected void findParams() {
 		wallPositionParam = GLES20.glGetAttribLocation(quadProgram, "a_Position");
 		textureCoordinateParam = GLES20.glGetAttribLocation(quadProgram, "a_TexCoordinate");
 		wallModelViewProjectionParam = GLES20.glGetUniformLocation(quadProgram, "u_MVPMatrix");
+	}
 
-		GLHelper.checkGLError("quad shader params");
+	/**
+	 * Lets the shader read the texture coordinates of the quad from their static vertex buffer.
+	 */
+	protected void setTextureCoordinates() {
+		GLState.setAttributeBuffer(textureCoordinateParam, 2, GLState.getQuadTextureCoordinateBuffer());
 	}
 
 	@Override
 	public void setModelViewProjection(float[] mvp) {
+		// Differs for every layer and eye, so it is not cached.
+		GLState.countIssued();
 		GLES20.glUniformMatrix4fv(wallModelViewProjectionParam, 1, false, mvp, 0);
 	}
 
 	@Override
-	public void setModelVertices(FloatBuffer vertices) {
+	public void setModelVertices() {
 		// Set the position of the model
-		GLES20.glVertexAttribPointer(wallPositionParam, 3, GLES20.GL_FLOAT, false, 0, vertices);
-		GLES20.glEnableVertexAttribArray(wallPositionParam);
+		GLState.setAttributeBuffer(wallPositionParam, 3, GLState.getQuadVertexBuffer());
 	}
 }
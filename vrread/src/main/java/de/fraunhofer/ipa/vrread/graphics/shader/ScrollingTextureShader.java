@@ -2,29 +2,69 @@ package de.fraunhofer.ipa.vrread.graphics.shader;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
 
 import de.fraunhofer.ipa.vrread.R;
 import de.fraunhofer.ipa.vrread.control.Contrast;
+import de.fraunhofer.ipa.vrread.datasource.TextureSize;
 
 /**
  * This creates a shader which is able to draw, scroll and scale a texture.
  * <p>
+ * The texture is used as a ring buffer: it is allocated once and wraps around in both directions, the fragment shader
+ * takes the uv offset modulo 1. When scrolling only the newly exposed parts are uploaded into the region they wrap
+ * to via {@link #updateTexture(Bitmap, int, int)}, the rest of the texture stays untouched.
+ * <p>
+ * There are two of these textures which are allocated once and then only updated in place. Updates always go into the
+ * back texture while the front texture is drawn, so the GPU never samples a texture which is being written. After
+ * {@link #swapTextures()} the back texture is drawn and the updates have to be repeated on the other texture to get
+ * both in sync again.
+ * <p>
+ * A third texture is used for staging: the tiles a page switch needs can be uploaded ahead of time via
+ * {@link #updateStagingTexture(Bitmap, int, int)}. On the switch {@link #swapStagingTexture()} makes it the front
+ * texture, the previous front texture is used for the next staging.
+ * <p>
  * Created by Thomas Felix on 23.02.2017.
  */
 
 public class ScrollingTextureShader extends QuadShader {
 
+	private static final String TAG = ScrollingTextureShader.class.getSimpleName();
+
+	/**
+	 * The upload statistics are logged after this many uploads.
+	 */
+	private static final int UPLOAD_LOG_INTERVAL = 50;
+
 	private Context ctx;
 
-	private int textureUvOffsetParam;
-	private int textureScaleParam;
-	private int contrastModeParam;
+	private final Uniform textureUvOffsetParam = new Uniform(2);
+	private final Uniform textureScaleParam = new Uniform(1);
+
+	/**
+	 * One program per contrast mode, indexed by its ordinal. The mode is compiled into the fragment shader so it does
+	 * not branch per fragment.
+	 */
+	private final int[] contrastPrograms = new int[Contrast.values().length];
+	private Contrast programContrast;
+
+	// These are the handles to our texture data.
+	private final int[] textureHandles = new int[3];
+	private int frontTexture = 0;
+	private int backTexture = 1;
+	private int stagingTexture = 2;
 
-	// This is a handle to our texture data.
-	private int textureDataHandle = -1;
+	private int uploadCount = 0;
+	private long uploadNanos = 0;
+	private long maxUploadNanos = 0;
 
 
 	/**
@@ -40,6 +80,8 @@ public class ScrollingTextureShader extends QuadShader {
 
 	private Contrast contrastMode = Contrast.NORMAL;
 
+	private TextureSize textureSize = new TextureSize(1024, 1024);
+
 
 	public synchronized void setTextureScale(float textureScale) {
 		// Invert this because the uv scale up works with the inverse.
@@ -55,10 +97,23 @@ public class ScrollingTextureShader extends QuadShader {
 		this.contrastMode = contrast;
 	}
 
+	/**
+	 * Sets the size of the ring buffer texture. Must be called before the shader is loaded.
+	 *
+	 * @param textureSize The size of the texture.
+	 */
+	public void setTextureSize(TextureSize textureSize) {
+		this.textureSize = Objects.requireNonNull(textureSize);
+	}
+
 	private synchronized float getTextureScale() {
 		return textureScale;
 	}
 
+	private synchronized Contrast getContrastMode() {
+		return contrastMode;
+	}
+
 	public ScrollingTextureShader(Context ctx) {
 
 		this.ctx = ctx;
@@ -66,84 +121,191 @@ public class ScrollingTextureShader extends QuadShader {
 
 	@Override
 	public void useShader() {
-		GLES20.glUseProgram(quadProgram);
+		final Contrast contrast = getContrastMode();
+		if (contrast != programContrast) {
+			quadProgram = contrastPrograms[contrast.ordinal()];
+			programContrast = contrast;
+			findParams();
+		}
+
+		GLState.useProgram(quadProgram);
 
 		// ### Prepare Texture
-		// Set the active texture unit to texture unit 0.
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		// Bind the texture to this unit.
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle);
-		GLHelper.checkGLError("texture binding");
+		// Bind the texture to texture unit 0.
+		GLState.bindTexture(textureHandles[frontTexture]);
 
 		// Set the texture uv coordinates.
-		GLES20.glVertexAttribPointer(textureCoordinateParam, 2, GLES20.GL_FLOAT, false, 0, wallTextureCoordinates);
-		GLES20.glEnableVertexAttribArray(textureCoordinateParam);
+		setTextureCoordinates();
 
 		// Send scale and offset
-		GLES20.glUniform1f(textureScaleParam, getTextureScale());
-		GLES20.glUniform2f(textureUvOffsetParam, u, v);
-		GLES20.glUniform1i(contrastModeParam, contrastMode.ordinal());
-		GLHelper.checkGLError("texture scale offset");
+		textureScaleParam.set(getTextureScale());
+		synchronized (this) {
+			textureUvOffsetParam.set(u, v);
+		}
 	}
 
 	@Override
 	protected void createShaderProgram() {
-		final int textVertShader = loadGLShader(GLHelper.readRawTextFile(ctx, R.raw.vertex), GLES20.GL_VERTEX_SHADER);
-		final int textFragShader = loadGLShader(GLHelper.readRawTextFile(ctx, R.raw.fragment),
-				GLES20.GL_FRAGMENT_SHADER);
+		final ShaderProgramManager programManager = ShaderProgramManager.getInstance(ctx);
+
+		// All variants are linked up front, so switching the contrast never compiles.
+		for (Contrast contrast : Contrast.values()) {
+			quadProgram = programManager.getProgram(R.raw.vertex, R.raw.fragment,
+					"#define CONTRAST_" + contrast.name() + "\n");
+			checkShaderLinkError();
+			contrastPrograms[contrast.ordinal()] = quadProgram;
+		}
+
+		programContrast = getContrastMode();
+		quadProgram = contrastPrograms[programContrast.ordinal()];
+	}
+
+	@Override
+	protected void findParams() {
+		super.findParams();
 
-		quadProgram = GLES20.glCreateProgram();
-		GLES20.glAttachShader(quadProgram, textVertShader);
-		GLES20.glAttachShader(quadProgram, textFragShader);
-		GLES20.glLinkProgram(quadProgram);
+		textureScaleParam.findLocation(quadProgram, "u_Scale");
+		textureUvOffsetParam.findLocation(quadProgram, "u_Offset");
 	}
 
 	@Override
 	public void loadShader() {
 		super.loadShader();
 
-		// Load texture
-		final BitmapFactory.Options options = new BitmapFactory.Options();
-		options.inScaled = false;   // No pre-scaling
-		final Bitmap bitmap = BitmapFactory.decodeResource(ctx.getResources(), R.drawable.text, options);
-		useTexture(bitmap);
+		GLES20.glGenTextures(textureHandles.length, textureHandles, 0);
 
-		GLES20.glUseProgram(quadProgram);
-
-		// Texture params
-		textureScaleParam = GLES20.glGetUniformLocation(quadProgram, "u_Scale");
-		textureUvOffsetParam = GLES20.glGetUniformLocation(quadProgram, "u_Offset");
-		contrastModeParam = GLES20.glGetUniformLocation(quadProgram, "u_ContrastMode");
+		final ByteBuffer emptyPixels = ByteBuffer.allocateDirect(textureSize.getWidth() * textureSize.getHeight() * 4);
+		for (int textureHandle : textureHandles) {
+			allocateTexture(textureHandle, emptyPixels);
+		}
+		frontTexture = 0;
+		backTexture = 1;
+		stagingTexture = 2;
 
 		GLHelper.checkGLError("loadShader params");
 	}
 
-	public void useTexture(Bitmap bitmap) {
-
-		if (textureDataHandle != -1) {
-			// Replace/delete the old texture.
-			final int[] textureHandle = new int[]{textureDataHandle};
-			GLES20.glDeleteTextures(1, textureHandle, 0);
-		}
+	/**
+	 * Deletes the three textures. Must be called on the render thread when the shader is not used anymore.
+	 */
+	public void deleteTextures() {
+		GLState.deleteTextures(textureHandles);
+		Arrays.fill(textureHandles, 0);
+	}
 
-		final int[] textureHandle = new int[1];
-		GLES20.glGenTextures(1, textureHandle, 0);
+	/**
+	 * Creates a ring buffer texture. It is cleared to transparent, which is displayed as the background color until
+	 * the first parts of the document are uploaded.
+	 *
+	 * @param textureHandle The generated texture name.
+	 * @param emptyPixels   Zeroed pixels of the size of the texture.
+	 */
+	private void allocateTexture(int textureHandle, ByteBuffer emptyPixels) {
 
-		if (textureHandle[0] == 0) {
+		if (textureHandle == 0) {
 			throw new RuntimeException("Error loading texture.");
 		}
 
 		// Bind to the texture in OpenGL
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
 
-		// Load the bitmap into the bound texture.
-		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-		bitmap.recycle();
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, textureSize.getWidth(), textureSize.getHeight(),
+				0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, emptyPixels);
 
 		// Set filtering of the texture
 		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
 		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
 
-		textureDataHandle = textureHandle[0];
+		// The shader wraps the coordinates itself. Repeating also lets the filtering wrap around, but OpenGL ES 2.0 only
+		// supports it for power of two textures.
+		final int wrapMode = isPowerOfTwo(textureSize) ? GLES20.GL_REPEAT : GLES20.GL_CLAMP_TO_EDGE;
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrapMode);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrapMode);
+
+		GLHelper.checkGLError("allocate texture");
+	}
+
+	private static boolean isPowerOfTwo(TextureSize size) {
+		return Integer.bitCount(size.getWidth()) == 1 && Integer.bitCount(size.getHeight()) == 1;
+	}
+
+	/**
+	 * Uploads the bitmap into a part of the back texture. The bitmap must fit into the texture at the given offset, it
+	 * is not wrapped around. The bitmap is not recycled, this is up to the caller.
+	 *
+	 * @param bitmap  The bitmap to upload.
+	 * @param xOffset The x texel offset inside the texture.
+	 * @param yOffset The y texel offset inside the texture.
+	 */
+	public void updateTexture(Bitmap bitmap, int xOffset, int yOffset) {
+		uploadBitmap(textureHandles[backTexture], bitmap, xOffset, yOffset);
+	}
+
+	/**
+	 * Uploads the bitmap into a part of the staging texture. The same rules as for
+	 * {@link #updateTexture(Bitmap, int, int)} apply.
+	 *
+	 * @param bitmap  The bitmap to upload.
+	 * @param xOffset The x texel offset inside the texture.
+	 * @param yOffset The y texel offset inside the texture.
+	 */
+	public void updateStagingTexture(Bitmap bitmap, int xOffset, int yOffset) {
+		uploadBitmap(textureHandles[stagingTexture], bitmap, xOffset, yOffset);
+	}
+
+	private void uploadBitmap(int textureHandle, Bitmap bitmap, int xOffset, int yOffset) {
+
+		if (xOffset < 0 || yOffset < 0 ||
+				xOffset + bitmap.getWidth() > textureSize.getWidth() ||
+				yOffset + bitmap.getHeight() > textureSize.getHeight()) {
+			throw new IllegalArgumentException("Bitmap does not fit into the texture at the given offset.");
+		}
+
+		final long start = SystemClock.elapsedRealtimeNanos();
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
+		GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, xOffset, yOffset, bitmap);
+		GLHelper.checkGLError("update texture");
+
+		final long duration = SystemClock.elapsedRealtimeNanos() - start;
+		uploadCount++;
+		uploadNanos += duration;
+		maxUploadNanos = Math.max(maxUploadNanos, duration);
+
+		if (uploadCount % UPLOAD_LOG_INTERVAL == 0) {
+			logUploadStatistics();
+		}
+	}
+
+	/**
+	 * Exchanges the front and the back texture. The updated back texture is drawn from now on.
+	 */
+	public void swapTextures() {
+		final int previousFront = frontTexture;
+		frontTexture = backTexture;
+		backTexture = previousFront;
+	}
+
+	/**
+	 * Makes the staging texture the front texture. The back texture stays as it is, so the tiles of the staging
+	 * texture have to be uploaded into it to get both in sync again. The previous front texture becomes the new staging
+	 * texture.
+	 */
+	public void swapStagingTexture() {
+		final int previousFront = frontTexture;
+		frontTexture = stagingTexture;
+		stagingTexture = previousFront;
+	}
+
+	/**
+	 * Writes the average and maximum time the texture uploads took to the log.
+	 */
+	public void logUploadStatistics() {
+		if (uploadCount == 0) {
+			return;
+		}
+
+		Log.d(TAG, String.format(Locale.US, "Texture uploads: %d, avg: %.2f ms, max: %.2f ms",
+				uploadCount, uploadNanos / 1e6 / uploadCount, maxUploadNanos / 1e6));
 	}
 }
@@ -0,0 +1,331 @@
+package de.fraunhofer.ipa.vrread.graphics.shader;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Creates the shader programs of the layers. Within a GL context every shader is only compiled once and then shared
+ * between the programs using it, e.g. the common vertex shader of the quads.
+ * <p>
+ * Linked programs are saved with {@code glGetProgramBinary} in the cache dir, so when the reader is opened again the
+ * programs are loaded without compiling anything. The binaries are kept per driver, a driver update starts with an
+ * empty cache. If no binary can be loaded, e.g. on a GL ES 2 context or because the driver rejects it, the program is
+ * compiled from source as before.
+ * <p>
+ * All methods except {@link #getInstance(Context)} must be called on the render thread.
+ */
+public class ShaderProgramManager {
+
+	private static final String TAG = ShaderProgramManager.class.getSimpleName();
+
+	private static final String CACHE_DIR = "program-binaries";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static ShaderProgramManager instance;
+
+	private final Context ctx;
+	private final File cacheRoot;
+
+	/**
+	 * The compiled shaders of the current context by their raw resource id and defines.
+	 */
+	private final Map<String, Integer> shaders = new HashMap<>();
+	private final Map<Integer, String> sources = new HashMap<>();
+
+	/**
+	 * Directory of the binaries of the current driver or null if binaries are not supported.
+	 */
+	private File binaryDir;
+	private boolean contextChecked = false;
+
+	private ShaderProgramManager(Context ctx) {
+
+		this.ctx = Objects.requireNonNull(ctx);
+		this.cacheRoot = new File(ctx.getCacheDir(), CACHE_DIR);
+	}
+
+	/**
+	 * @param ctx Context to read the shader sources and find the cache dir.
+	 * @return The manager of the app.
+	 */
+	public static synchronized ShaderProgramManager getInstance(Context ctx) {
+		if (instance == null) {
+			instance = new ShaderProgramManager(ctx.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Must be called when a new GL context was created. All shaders of the old context are gone with it.
+	 */
+	public void onContextCreated() {
+		shaders.clear();
+		binaryDir = null;
+		contextChecked = false;
+	}
+
+	/**
+	 * Creates a new linked program from a vertex and a fragment shader. It is loaded from the binary cache if
+	 * possible, otherwise it is compiled and saved in the cache.
+	 *
+	 * @param vertexResId   Raw resource id of the vertex shader.
+	 * @param fragmentResId Raw resource id of the fragment shader.
+	 * @return The handle of the linked program.
+	 */
+	public int getProgram(int vertexResId, int fragmentResId) {
+		return getProgram(vertexResId, fragmentResId, "");
+	}
+
+	/**
+	 * Creates a new linked program whose fragment shader is specialized by preprocessor defines. They are inserted in
+	 * front of the source, so the source must not start with a {@code #version} directive. Each set of defines is
+	 * compiled and cached separately.
+	 *
+	 * @param vertexResId     Raw resource id of the vertex shader.
+	 * @param fragmentResId   Raw resource id of the fragment shader.
+	 * @param fragmentDefines Lines like {@code #define NAME} or an empty string.
+	 * @return The handle of the linked program.
+	 */
+	public int getProgram(int vertexResId, int fragmentResId, String fragmentDefines) {
+		Objects.requireNonNull(fragmentDefines);
+
+		if (!contextChecked) {
+			binaryDir = findBinaryDir();
+			contextChecked = true;
+		}
+
+		final File binaryFile = binaryDir == null ? null : new File(binaryDir,
+				hash(getSource(vertexResId) + "\0" + fragmentDefines + getSource(fragmentResId)));
+
+		if (binaryFile != null && binaryFile.exists()) {
+			final int program = loadBinary(binaryFile);
+			if (program != 0) {
+				return program;
+			}
+		}
+
+		final int program = GLES20.glCreateProgram();
+		GLES20.glAttachShader(program, getShader(vertexResId, "", GLES20.GL_VERTEX_SHADER));
+		GLES20.glAttachShader(program, getShader(fragmentResId, fragmentDefines, GLES20.GL_FRAGMENT_SHADER));
+
+		if (binaryFile != null) {
+			GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+		}
+		GLES20.glLinkProgram(program);
+
+		if (binaryFile != null && isLinked(program)) {
+			saveBinary(program, binaryFile);
+		}
+
+		return program;
+	}
+
+	/**
+	 * Checks if the context can save program binaries and returns the cache dir of its driver. The binaries of other
+	 * drivers are deleted.
+	 */
+	private File findBinaryDir() {
+		final String version = GLES20.glGetString(GLES20.GL_VERSION);
+
+		// Program binaries are core since GL ES 3.0. The OES extension of GL ES 2 is not bound in the Java API.
+		if (version == null || !version.startsWith("OpenGL ES ") || version.length() < 11 ||
+				version.charAt(10) < '3') {
+			Log.d(TAG, "No program binaries for " + version);
+			return null;
+		}
+
+		final int[] formats = new int[1];
+		GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+		if (formats[0] == 0) {
+			Log.d(TAG, "Driver has no program binary formats.");
+			return null;
+		}
+
+		final String driver = GLES20.glGetString(GLES20.GL_VENDOR) + "\n" +
+				GLES20.glGetString(GLES20.GL_RENDERER) + "\n" + version;
+		final File dir = new File(cacheRoot, hash(driver));
+
+		final File[] oldDirs = cacheRoot.listFiles();
+		if (oldDirs != null) {
+			for (File oldDir : oldDirs) {
+				if (!oldDir.equals(dir)) {
+					deleteDir(oldDir);
+				}
+			}
+		}
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.w(TAG, "Could not create program binary dir.");
+			return null;
+		}
+
+		return dir;
+	}
+
+	private int getShader(int resId, String defines, int type) {
+		final String key = resId + "\n" + defines;
+		Integer shader = shaders.get(key);
+		if (shader == null) {
+			shader = compileShader(defines + getSource(resId), type);
+			shaders.put(key, shader);
+		}
+		return shader;
+	}
+
+	private String getSource(int resId) {
+		String source = sources.get(resId);
+		if (source == null) {
+			source = GLHelper.readRawTextFile(ctx, resId);
+			if (source == null) {
+				throw new IllegalStateException("Could not read shader source " + resId);
+			}
+			sources.put(resId, source);
+		}
+		return source;
+	}
+
+	/**
+	 * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
+	 *
+	 * @param shaderCode Contains the code of the shader to be used.
+	 * @param type       The type of shader we will be creating.
+	 * @return The shader object handler.
+	 */
+	private static int compileShader(String shaderCode, int type) {
+		int shader = GLES20.glCreateShader(type);
+
+		GLES20.glShaderSource(shader, shaderCode);
+		GLES20.glCompileShader(shader);
+
+		// Get the compilation status.
+		final int[] compileStatus = new int[1];
+		GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+
+		// If the compilation failed, delete the shader.
+		if (compileStatus[0] == 0) {
+			Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
+			GLES20.glDeleteShader(shader);
+			shader = 0;
+		}
+
+		if (shader == 0) {
+			throw new RuntimeException("Error creating shader.");
+		}
+
+		return shader;
+	}
+
+	/**
+	 * @return The linked program or 0 if the binary could not be read or was rejected by the driver.
+	 */
+	private static int loadBinary(File binaryFile) {
+		final int format;
+		final ByteBuffer binary;
+
+		try (DataInputStream in = new DataInputStream(new FileInputStream(binaryFile))) {
+			format = in.readInt();
+			final byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+
+			binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+			binary.put(bytes);
+			binary.position(0);
+		} catch (IOException | RuntimeException e) {
+			Log.w(TAG, "Could not read program binary " + binaryFile.getName(), e);
+			binaryFile.delete();
+			return 0;
+		}
+
+		final int program = GLES20.glCreateProgram();
+		GLES30.glProgramBinary(program, format, binary, binary.capacity());
+
+		if (!isLinked(program)) {
+			Log.i(TAG, "Program binary was rejected, compiling from source.");
+			GLES20.glDeleteProgram(program);
+			binaryFile.delete();
+
+			// Clear the error the driver might have set for the binary.
+			GLES20.glGetError();
+			return 0;
+		}
+
+		return program;
+	}
+
+	private static void saveBinary(int program, File binaryFile) {
+		final int[] length = new int[1];
+		GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+		if (length[0] == 0) {
+			return;
+		}
+
+		final ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+		final int[] format = new int[1];
+		GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+
+		final byte[] bytes = new byte[length[0]];
+		binary.get(bytes);
+
+		// Written to a temporary file first, so a broken binary is never read.
+		final File tempFile = new File(binaryFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+			out.writeInt(format[0]);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not save program binary.", e);
+			tempFile.delete();
+			return;
+		}
+
+		if (!tempFile.renameTo(binaryFile)) {
+			tempFile.delete();
+		}
+	}
+
+	private static boolean isLinked(int program) {
+		final int[] linkStatus = new int[1];
+		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+		return linkStatus[0] != 0;
+	}
+
+	private static String hash(String text) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(UTF8));
+			final StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available.", e);
+		}
+	}
+
+	private static void deleteDir(File dir) {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,79 @@
+package de.fraunhofer.ipa.vrread.graphics.shader;
+
+import android.opengl.GLES20;
+
+/**
+ * A float uniform of a program which remembers its value, so setting the same value again makes no GL call. Uniforms
+ * keep their values as long as the program exists, so the cache stays valid between frames until the location is set
+ * again for a new program.
+ */
+final class Uniform {
+
+	private final float[] values;
+	private int location = -1;
+	private boolean valid = false;
+
+	/**
+	 * @param size The number of floats of the uniform, 1, 2 or 4.
+	 */
+	Uniform(int size) {
+		if (size != 1 && size != 2 && size != 4) {
+			throw new IllegalArgumentException("Size must be 1, 2 or 4.");
+		}
+		values = new float[size];
+	}
+
+	/**
+	 * Looks up the uniform in a program. The next value is always sent.
+	 *
+	 * @param program The linked program.
+	 * @param name    The name of the uniform.
+	 */
+	void findLocation(int program, String name) {
+		location = GLES20.glGetUniformLocation(program, name);
+		valid = false;
+	}
+
+	void set(float x) {
+		set(x, 0f, 0f, 0f);
+	}
+
+	void set(float x, float y) {
+		set(x, y, 0f, 0f);
+	}
+
+	void set(float[] value) {
+		set(value[0], value[1], value[2], value[3]);
+	}
+
+	void set(float x, float y, float z, float w) {
+		if (valid && values[0] == x && (values.length < 2 || values[1] == y) &&
+				(values.length < 4 || values[2] == z && values[3] == w)) {
+			GLState.countSkipped();
+			return;
+		}
+
+		values[0] = x;
+		if (values.length >= 2) {
+			values[1] = y;
+		}
+		if (values.length == 4) {
+			values[2] = z;
+			values[3] = w;
+		}
+		valid = true;
+		GLState.countIssued();
+
+		switch (values.length) {
+			case 1:
+				GLES20.glUniform1f(location, x);
+				break;
+			case 2:
+				GLES20.glUniform2f(location, x, y);
+				break;
+			default:
+				GLES20.glUniform4f(location, x, y, z, w);
+				break;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package de.fraunhofer.ipa.vrread.graphics.text;
+
+/**
+ * The metrics of a single character inside a {@link GlyphAtlas}. All sizes are given in pixels of the size the glyphs
+ * were rendered at and are relative to the pen position on the baseline, with y pointing downwards. The box of the
+ * glyph includes the padding which holds the outer part of the distance field.
+ */
+public final class Glyph {
+
+	private final float advance;
+	private final float left;
+	private final float top;
+	private final float width;
+	private final float height;
+
+	private final float u0;
+	private final float v0;
+	private final float u1;
+	private final float v1;
+
+	Glyph(float advance, float left, float top, float width, float height, float u0, float v0, float u1, float v1) {
+		this.advance = advance;
+		this.left = left;
+		this.top = top;
+		this.width = width;
+		this.height = height;
+		this.u0 = u0;
+		this.v0 = v0;
+		this.u1 = u1;
+		this.v1 = v1;
+	}
+
+	/**
+	 * @return The distance the pen moves after this glyph.
+	 */
+	public float getAdvance() {
+		return advance;
+	}
+
+	/**
+	 * @return The x offset of the box from the pen position.
+	 */
+	public float getLeft() {
+		return left;
+	}
+
+	/**
+	 * @return The y offset of the box from the baseline. Negative for boxes reaching above the baseline.
+	 */
+	public float getTop() {
+		return top;
+	}
+
+	public float getWidth() {
+		return width;
+	}
+
+	public float getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return TRUE if the glyph has no visible part, like a space.
+	 */
+	public boolean isEmpty() {
+		return width == 0 || height == 0;
+	}
+
+	public float getU0() {
+		return u0;
+	}
+
+	public float getV0() {
+		return v0;
+	}
+
+	public float getU1() {
+		return u1;
+	}
+
+	public float getV1() {
+		return v1;
+	}
+}
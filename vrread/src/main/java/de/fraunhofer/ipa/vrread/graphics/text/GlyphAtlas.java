@@ -0,0 +1,337 @@
+package de.fraunhofer.ipa.vrread.graphics.text;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A texture atlas holding a signed distance field of each character of a font. Every texel stores the distance to the
+ * outline of the glyph, 0.5 is on the outline and bigger values are inside. Unlike a rasterized glyph the outline can
+ * be reconstructed at any magnification by the shader, so text drawn from the atlas stays crisp at every zoom level
+ * without rendering the glyphs again.
+ * <p>
+ * The atlas is created once on the CPU, it does not need an OpenGL context. It is a single channel texture which is
+ * uploaded by the {@link de.fraunhofer.ipa.vrread.graphics.shader.GlyphShader}.
+ */
+public final class GlyphAtlas {
+
+	private static final String TAG = GlyphAtlas.class.getSimpleName();
+
+	/**
+	 * Printable ASCII and the most common characters of german texts.
+	 */
+	public static final String DEFAULT_CHARACTERS;
+
+	static {
+		final StringBuilder characters = new StringBuilder();
+		for (char c = 32; c < 127; c++) {
+			characters.append(c);
+		}
+		characters.append("ÄÖÜäöüß€§°«»„“”‘’–—…·");
+		DEFAULT_CHARACTERS = characters.toString();
+	}
+
+	/**
+	 * Size in pixels the glyphs are rendered at before the distance field is computed.
+	 */
+	private static final int RENDER_SIZE = 48;
+
+	/**
+	 * Maximum distance in pixels which is stored, inside and outside of the outline. It is also the padding around
+	 * each glyph.
+	 */
+	private static final int SPREAD = 6;
+
+	private static final int ATLAS_WIDTH = 1024;
+
+	/**
+	 * Character which is used for characters which are not part of the atlas.
+	 */
+	private static final char REPLACEMENT = '?';
+
+	private final Map<Character, Glyph> glyphs;
+	private final Glyph replacement;
+	private final int width;
+	private final int height;
+	private final ByteBuffer distances;
+	private final float ascent;
+	private final float descent;
+
+	private GlyphAtlas(Map<Character, Glyph> glyphs, int width, int height, ByteBuffer distances, float ascent,
+					   float descent) {
+
+		this.glyphs = glyphs;
+		this.width = width;
+		this.height = height;
+		this.distances = distances;
+		this.ascent = ascent;
+		this.descent = descent;
+
+		replacement = glyphs.get(REPLACEMENT);
+	}
+
+	/**
+	 * Creates the atlas for the given characters. This takes a while and should not be done on the UI or render
+	 * thread.
+	 *
+	 * @param typeface   The font of the glyphs.
+	 * @param characters The characters which should be contained.
+	 * @return The new atlas.
+	 */
+	public static GlyphAtlas create(Typeface typeface, String characters) {
+
+		if (characters.indexOf(REPLACEMENT) < 0) {
+			characters = characters + REPLACEMENT;
+		}
+
+		final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setTypeface(typeface);
+		paint.setTextSize(RENDER_SIZE);
+		paint.setColor(Color.WHITE);
+
+		// Measure all glyphs and place them in rows.
+		final int count = characters.length();
+		final Rect[] bounds = new Rect[count];
+		final int[] cellX = new int[count];
+		final int[] cellY = new int[count];
+
+		int x = 0;
+		int y = 0;
+		int rowHeight = 0;
+		int maxCellWidth = 0;
+		int maxCellHeight = 0;
+
+		for (int i = 0; i < count; i++) {
+			bounds[i] = new Rect();
+			paint.getTextBounds(characters, i, i + 1, bounds[i]);
+
+			if (bounds[i].isEmpty()) {
+				continue;
+			}
+
+			final int cellWidth = bounds[i].width() + 2 * SPREAD;
+			final int cellHeight = bounds[i].height() + 2 * SPREAD;
+
+			if (x + cellWidth > ATLAS_WIDTH) {
+				x = 0;
+				y += rowHeight;
+				rowHeight = 0;
+			}
+
+			cellX[i] = x;
+			cellY[i] = y;
+			x += cellWidth;
+			rowHeight = Math.max(rowHeight, cellHeight);
+			maxCellWidth = Math.max(maxCellWidth, cellWidth);
+			maxCellHeight = Math.max(maxCellHeight, cellHeight);
+		}
+
+		final int atlasHeight = nextPowerOfTwo(y + rowHeight);
+		final ByteBuffer distances = ByteBuffer.allocateDirect(ATLAS_WIDTH * atlasHeight);
+		final Map<Character, Glyph> glyphs = new HashMap<>();
+
+		// Render each glyph into a scratch bitmap and store its distance field inside the atlas.
+		final Bitmap scratch = Bitmap.createBitmap(Math.max(1, maxCellWidth), Math.max(1, maxCellHeight),
+				Bitmap.Config.ALPHA_8);
+		final Canvas canvas = new Canvas(scratch);
+		final int[] pixels = new int[scratch.getWidth() * scratch.getHeight()];
+
+		for (int i = 0; i < count; i++) {
+			final char c = characters.charAt(i);
+			final Rect rect = bounds[i];
+			final float advance = paint.measureText(characters, i, i + 1);
+
+			if (rect.isEmpty()) {
+				glyphs.put(c, new Glyph(advance, 0, 0, 0, 0, 0, 0, 0, 0));
+				continue;
+			}
+
+			final int cellWidth = rect.width() + 2 * SPREAD;
+			final int cellHeight = rect.height() + 2 * SPREAD;
+
+			scratch.eraseColor(Color.TRANSPARENT);
+			canvas.drawText(characters, i, i + 1, SPREAD - rect.left, SPREAD - rect.top, paint);
+			scratch.getPixels(pixels, 0, cellWidth, 0, 0, cellWidth, cellHeight);
+
+			writeDistanceField(pixels, cellWidth, cellHeight, distances, cellX[i], cellY[i]);
+
+			glyphs.put(c, new Glyph(advance, rect.left - SPREAD, rect.top - SPREAD, cellWidth, cellHeight,
+					cellX[i] / (float) ATLAS_WIDTH, cellY[i] / (float) atlasHeight,
+					(cellX[i] + cellWidth) / (float) ATLAS_WIDTH, (cellY[i] + cellHeight) / (float) atlasHeight));
+		}
+
+		scratch.recycle();
+
+		Log.d(TAG, String.format("Created atlas of %d glyphs, %dx%d texels.", glyphs.size(), ATLAS_WIDTH,
+				atlasHeight));
+
+		final Paint.FontMetrics metrics = paint.getFontMetrics();
+		return new GlyphAtlas(glyphs, ATLAS_WIDTH, atlasHeight, distances, -metrics.ascent, metrics.descent);
+	}
+
+	/**
+	 * Computes the signed distance field of a rendered glyph via dead reckoning: the nearest outline point is
+	 * propagated in one forward and one backward pass over the pixels.
+	 *
+	 * @param pixels    The rendered glyph, the alpha channel decides if a pixel is inside.
+	 * @param cellWidth The width of the glyph cell.
+	 * @param cellHeight The height of the glyph cell.
+	 * @param atlas     The atlas to write the distances into.
+	 * @param atlasX    The x position of the cell inside the atlas.
+	 * @param atlasY    The y position of the cell inside the atlas.
+	 */
+	private static void writeDistanceField(int[] pixels, int cellWidth, int cellHeight, ByteBuffer atlas, int atlasX,
+										   int atlasY) {
+
+		final int size = cellWidth * cellHeight;
+		final boolean[] inside = new boolean[size];
+		final float[] distance = new float[size];
+		final int[] nearestX = new int[size];
+		final int[] nearestY = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			inside[i] = (pixels[i] >>> 24) >= 128;
+		}
+
+		for (int y = 0; y < cellHeight; y++) {
+			for (int x = 0; x < cellWidth; x++) {
+				final int i = y * cellWidth + x;
+
+				// Pixels with a neighbour on the other side of the outline are on the outline.
+				final boolean outline = (x > 0 && inside[i - 1] != inside[i]) ||
+						(x < cellWidth - 1 && inside[i + 1] != inside[i]) ||
+						(y > 0 && inside[i - cellWidth] != inside[i]) ||
+						(y < cellHeight - 1 && inside[i + cellWidth] != inside[i]);
+
+				distance[i] = outline ? 0 : Float.MAX_VALUE;
+				nearestX[i] = x;
+				nearestY[i] = y;
+			}
+		}
+
+		for (int y = 0; y < cellHeight; y++) {
+			for (int x = 0; x < cellWidth; x++) {
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, -1, -1);
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, 0, -1);
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, 1, -1);
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, -1, 0);
+			}
+		}
+
+		for (int y = cellHeight - 1; y >= 0; y--) {
+			for (int x = cellWidth - 1; x >= 0; x--) {
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, 1, 0);
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, -1, 1);
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, 0, 1);
+				propagate(distance, nearestX, nearestY, cellWidth, cellHeight, x, y, 1, 1);
+			}
+		}
+
+		for (int y = 0; y < cellHeight; y++) {
+			for (int x = 0; x < cellWidth; x++) {
+				final int i = y * cellWidth + x;
+				final float signed = inside[i] ? distance[i] : -distance[i];
+				final float normalized = Math.max(-1f, Math.min(1f, signed / SPREAD));
+
+				atlas.put((atlasY + y) * ATLAS_WIDTH + atlasX + x, (byte) Math.round(127.5f + normalized * 127.5f));
+			}
+		}
+	}
+
+	private static void propagate(float[] distance, int[] nearestX, int[] nearestY, int cellWidth, int cellHeight,
+								  int x, int y, int dx, int dy) {
+
+		final int nx = x + dx;
+		final int ny = y + dy;
+
+		if (nx < 0 || ny < 0 || nx >= cellWidth || ny >= cellHeight) {
+			return;
+		}
+
+		final int i = y * cellWidth + x;
+		final int n = ny * cellWidth + nx;
+
+		if (distance[n] == Float.MAX_VALUE) {
+			return;
+		}
+
+		final float ox = x - nearestX[n];
+		final float oy = y - nearestY[n];
+		final float candidate = (float) Math.sqrt(ox * ox + oy * oy);
+
+		if (candidate < distance[i]) {
+			distance[i] = candidate;
+			nearestX[i] = nearestX[n];
+			nearestY[i] = nearestY[n];
+		}
+	}
+
+	private static int nextPowerOfTwo(int value) {
+		int result = 1;
+		while (result < value) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * @param c The character.
+	 * @return The glyph of the character or of a replacement character if it is not part of the atlas.
+	 */
+	public Glyph getGlyph(char c) {
+		final Glyph glyph = glyphs.get(c);
+		return glyph != null ? glyph : replacement;
+	}
+
+	/**
+	 * @return The font size in pixels the glyph metrics are given in.
+	 */
+	public float getRenderSize() {
+		return RENDER_SIZE;
+	}
+
+	/**
+	 * @return The distance range in pixels of the render size which is covered by the distance field.
+	 */
+	public float getSpread() {
+		return SPREAD;
+	}
+
+	/**
+	 * @return The distance from the baseline to the top of the highest glyphs.
+	 */
+	public float getAscent() {
+		return ascent;
+	}
+
+	/**
+	 * @return The distance from the baseline to the bottom of the lowest glyphs.
+	 */
+	public float getDescent() {
+		return descent;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return The distance field with one byte per texel, row by row.
+	 */
+	public ByteBuffer getDistances() {
+		distances.position(0);
+		return distances;
+	}
+}
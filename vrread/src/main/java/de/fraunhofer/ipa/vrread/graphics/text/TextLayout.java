@@ -0,0 +1,263 @@
+package de.fraunhofer.ipa.vrread.graphics.text;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Lays out a text into lines of a fixed width and creates the vertices of one quad per visible glyph. The layout is
+ * done once, scrolling and zooming only change the uniforms of the
+ * {@link de.fraunhofer.ipa.vrread.graphics.shader.GlyphShader}, so the text is never laid out or rasterized again.
+ * <p>
+ * Coordinates are given in layout units with y pointing downwards. A layout unit is a pixel of a tile at a zoom factor
+ * of 1, so a text layout can be scrolled like a document page.
+ * <p>
+ * Every vertex consists of the position and the texture coordinate inside the {@link GlyphAtlas}. The vertices are
+ * split into {@link Chunk}s of consecutive lines, so each is uploaded into a vertex buffer of a bounded size and only
+ * the chunks overlapping the visible area are drawn.
+ */
+public final class TextLayout {
+
+	public static final float DEFAULT_FONT_SIZE = 24f;
+	public static final float DEFAULT_LINE_WIDTH = 512f;
+
+	/**
+	 * Number of floats of a vertex: x, y, u and v.
+	 */
+	public static final int FLOATS_PER_VERTEX = 4;
+
+	private static final int VERTICES_PER_GLYPH = 6;
+	private static final float LINE_SPACING = 1.3f;
+
+	/**
+	 * Maximum number of glyphs of a chunk, which keeps its vertex buffer at 192 KB.
+	 */
+	private static final int GLYPHS_PER_CHUNK = 2048;
+
+	/**
+	 * Consecutive glyph quads of the layout together with the vertical range they cover.
+	 */
+	public static final class Chunk {
+
+		private final FloatBuffer vertices;
+		private final int vertexCount;
+		private final float top;
+		private final float bottom;
+
+		private Chunk(float[] data, int dataLength, float top, float bottom) {
+			this.vertices = ByteBuffer.allocateDirect(dataLength * 4)
+					.order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+			this.vertices.put(data, 0, dataLength);
+			this.vertices.position(0);
+
+			this.vertexCount = dataLength / FLOATS_PER_VERTEX;
+			this.top = top;
+			this.bottom = bottom;
+		}
+
+		/**
+		 * @return The interleaved vertices of the glyph quads.
+		 */
+		public FloatBuffer getVertices() {
+			vertices.position(0);
+			return vertices;
+		}
+
+		public int getVertexCount() {
+			return vertexCount;
+		}
+
+		/**
+		 * @return The top of the highest glyph in layout units.
+		 */
+		public float getTop() {
+			return top;
+		}
+
+		/**
+		 * @return The bottom of the lowest glyph in layout units.
+		 */
+		public float getBottom() {
+			return bottom;
+		}
+	}
+
+	private final List<Chunk> chunks;
+	private final int vertexCount;
+	private final float fontSize;
+	private final float width;
+	private final float height;
+
+	private TextLayout(List<Chunk> chunks, int vertexCount, float fontSize, float width, float height) {
+		this.chunks = Collections.unmodifiableList(chunks);
+		this.vertexCount = vertexCount;
+		this.fontSize = fontSize;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Lays out the text with the default font size and line width.
+	 */
+	public static TextLayout create(CharSequence text, GlyphAtlas atlas) {
+		return create(text, atlas, DEFAULT_FONT_SIZE, DEFAULT_LINE_WIDTH);
+	}
+
+	/**
+	 * Lays out the text. Lines are broken at spaces, words longer than a line are broken between characters.
+	 *
+	 * @param text      The text.
+	 * @param atlas     The atlas with the glyphs.
+	 * @param fontSize  The font size in layout units.
+	 * @param lineWidth The width of a line in layout units.
+	 * @return The layout of the text.
+	 */
+	public static TextLayout create(CharSequence text, GlyphAtlas atlas, float fontSize, float lineWidth) {
+
+		Objects.requireNonNull(text);
+		Objects.requireNonNull(atlas);
+
+		if (fontSize <= 0 || lineWidth <= 0) {
+			throw new IllegalArgumentException("Font size and line width must be bigger then 0.");
+		}
+
+		final float glyphScale = fontSize / atlas.getRenderSize();
+		final float lineHeight = (atlas.getAscent() + atlas.getDescent()) * glyphScale * LINE_SPACING;
+
+		final List<Chunk> chunks = new ArrayList<>();
+		final float[] data = new float[Math.min(Math.max(1, text.length()), GLYPHS_PER_CHUNK) *
+				VERTICES_PER_GLYPH * FLOATS_PER_VERTEX];
+		int dataLength = 0;
+		int vertexCount = 0;
+		float chunkTop = 0;
+
+		float penX = 0;
+		float baseline = atlas.getAscent() * glyphScale;
+
+		final int length = text.length();
+		int i = 0;
+
+		while (i < length) {
+			final char c = text.charAt(i);
+
+			if (c == '\n') {
+				penX = 0;
+				baseline += lineHeight;
+				i++;
+				continue;
+			}
+
+			if (Character.isWhitespace(c)) {
+				penX += atlas.getGlyph(' ').getAdvance() * glyphScale;
+				i++;
+				continue;
+			}
+
+			// Measure the next word to decide if it still fits into the line.
+			int wordEnd = i;
+			float wordWidth = 0;
+			while (wordEnd < length && !Character.isWhitespace(text.charAt(wordEnd))) {
+				wordWidth += atlas.getGlyph(text.charAt(wordEnd)).getAdvance() * glyphScale;
+				wordEnd++;
+			}
+
+			if (penX > 0 && penX + wordWidth > lineWidth) {
+				penX = 0;
+				baseline += lineHeight;
+			}
+
+			for (; i < wordEnd; i++) {
+				final Glyph glyph = atlas.getGlyph(text.charAt(i));
+				final float advance = glyph.getAdvance() * glyphScale;
+
+				if (penX > 0 && penX + advance > lineWidth) {
+					// The word is longer than a line.
+					penX = 0;
+					baseline += lineHeight;
+				}
+
+				if (!glyph.isEmpty()) {
+					if (dataLength + VERTICES_PER_GLYPH * FLOATS_PER_VERTEX > data.length) {
+						// Glyphs only grow downwards, so the chunk ends at the bottom of the current line.
+						chunks.add(new Chunk(data, dataLength, chunkTop, baseline + atlas.getDescent() * glyphScale));
+						vertexCount += dataLength / FLOATS_PER_VERTEX;
+						dataLength = 0;
+						chunkTop = baseline - atlas.getAscent() * glyphScale;
+					}
+					dataLength = putQuad(data, dataLength, glyph, penX, baseline, glyphScale);
+				}
+
+				penX += advance;
+			}
+		}
+
+		final float height = baseline + atlas.getDescent() * glyphScale;
+
+		if (dataLength > 0) {
+			chunks.add(new Chunk(data, dataLength, chunkTop, height));
+			vertexCount += dataLength / FLOATS_PER_VERTEX;
+		}
+
+		return new TextLayout(chunks, vertexCount, fontSize, lineWidth, height);
+	}
+
+	private static int putQuad(float[] data, int offset, Glyph glyph, float penX, float baseline, float glyphScale) {
+
+		final float x0 = penX + glyph.getLeft() * glyphScale;
+		final float y0 = baseline + glyph.getTop() * glyphScale;
+		final float x1 = x0 + glyph.getWidth() * glyphScale;
+		final float y1 = y0 + glyph.getHeight() * glyphScale;
+
+		offset = putVertex(data, offset, x0, y0, glyph.getU0(), glyph.getV0());
+		offset = putVertex(data, offset, x0, y1, glyph.getU0(), glyph.getV1());
+		offset = putVertex(data, offset, x1, y1, glyph.getU1(), glyph.getV1());
+		offset = putVertex(data, offset, x0, y0, glyph.getU0(), glyph.getV0());
+		offset = putVertex(data, offset, x1, y1, glyph.getU1(), glyph.getV1());
+		return putVertex(data, offset, x1, y0, glyph.getU1(), glyph.getV0());
+	}
+
+	private static int putVertex(float[] data, int offset, float x, float y, float u, float v) {
+		data[offset] = x;
+		data[offset + 1] = y;
+		data[offset + 2] = u;
+		data[offset + 3] = v;
+		return offset + FLOATS_PER_VERTEX;
+	}
+
+	/**
+	 * @return The chunks of the glyph quads from the top of the text to its bottom.
+	 */
+	public List<Chunk> getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * @return The number of vertices of all chunks.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public float getFontSize() {
+		return fontSize;
+	}
+
+	/**
+	 * @return The line width in layout units.
+	 */
+	public float getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return The height of all lines in layout units.
+	 */
+	public float getHeight() {
+		return height;
+	}
+}
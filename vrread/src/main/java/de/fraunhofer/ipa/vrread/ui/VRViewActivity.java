@@ -31,13 +31,23 @@ import com.google.vr.sdk.base.GvrView;
 import de.fraunhofer.ipa.vrread.AppSettings;
 import de.fraunhofer.ipa.vrread.CapabilityChecker;
 import de.fraunhofer.ipa.vrread.R;
+import de.fraunhofer.ipa.vrread.StartupTrace;
 import de.fraunhofer.ipa.vrread.control.HeadGestureReadController;
 import de.fraunhofer.ipa.vrread.control.SensitivityLevel;
 import de.fraunhofer.ipa.vrread.control.SimpleHeadGestureController;
+import de.fraunhofer.ipa.vrread.datasource.BitmapPool;
+import de.fraunhofer.ipa.vrread.datasource.ContinuousDatasource;
 import de.fraunhofer.ipa.vrread.datasource.Datasource;
 import de.fraunhofer.ipa.vrread.datasource.DatasourceFactory;
+import de.fraunhofer.ipa.vrread.datasource.DiskTileCache;
+import de.fraunhofer.ipa.vrread.datasource.PDFDatasource;
+import de.fraunhofer.ipa.vrread.datasource.TextDatasource;
+import de.fraunhofer.ipa.vrread.datasource.TileCache;
+import de.fraunhofer.ipa.vrread.datasource.TileRenderer;
 import de.fraunhofer.ipa.vrread.graphics.Renderer;
+import de.fraunhofer.ipa.vrread.graphics.layer.GlyphLayer;
 import de.fraunhofer.ipa.vrread.graphics.layer.HelperLineLayer;
+import de.fraunhofer.ipa.vrread.graphics.layer.LoadingLayer;
 import de.fraunhofer.ipa.vrread.graphics.layer.ScrollingTextLayer;
 
 /**
@@ -55,28 +65,52 @@ public class VRViewActivity extends GvrActivity {
 	 */
 	public static final String EXTRA_OPEN_URI = "de.fhg.ipa.vrread.openfile";
 
+	/**
+	 * The loading layer is drawn in front of all other layers.
+	 */
+	private static final int LOADING_LAYER_POS = 9;
+
 	private GvrView gvrView;
 	private Renderer renderer;
 	private AppSettings appSettings;
 	private DatasourceFactory datasourceFactory;
 	private HeadGestureReadController readController;
+	private ScrollingTextLayer textLayer;
+	private Datasource datasource;
+	private LoadingLayer loadingLayer;
+	private StartupTrace startupTrace;
 
 	/**
 	 * Sets the viewMatrix to our GvrView and initializes the transformation matrices we will use to render our scene.
+	 * <p>
+	 * The document is opened first, so opening it and indexing its pages runs in the background while the VR view is
+	 * set up and the render thread creates the surface and compiles the shaders.
 	 */
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
+		startupTrace = new StartupTrace();
+		appSettings = new AppSettings(this);
+
+		// Texture bitmaps are shared between the datasource and the renderer.
+		final BitmapPool bitmapPool = new BitmapPool();
+		datasourceFactory = new DatasourceFactory(this, bitmapPool);
+
+		final Uri fileUri = getFileUri();
+		if (fileUri == null) {
+			Toast.makeText(this, R.string.can_not_open_file, Toast.LENGTH_LONG).show();
+			finish();
+			return;
+		}
+
+		prepareDatasource(fileUri);
+
 		// Check if the app has all the features needes for it to work properly.
-		CapabilityChecker checker = new CapabilityChecker(this);
-		checker.notifyNotAllFeatures();
+		startCapabilityCheck();
 
 		setContentView(R.layout.renderer);
 
-		appSettings = new AppSettings(this);
-		datasourceFactory = new DatasourceFactory(this);
-
 		gvrView = (GvrView) findViewById(R.id.gvr_view);
 		if (gvrView.setAsyncReprojectionEnabled(true)) {
 			// Async reprojection decouples the app framerate from the display framerate,
@@ -86,12 +120,17 @@ public class VRViewActivity extends GvrActivity {
 		}
 
 		renderer = new Renderer(gvrView);
-		final ScrollingTextLayer textLayer = new ScrollingTextLayer(this);
+		renderer.setStartupTrace(startupTrace);
+		textLayer = new ScrollingTextLayer(this);
 		renderer.addLayer(0, textLayer);
 
 		// Set the user chosen contrast mode.
 		textLayer.setContrastMode(appSettings.getContrast());
 
+		// Shown until the first tile of the document arrives, so the first frame does not wait for the document.
+		loadingLayer = new LoadingLayer(this, textLayer);
+		renderer.addLayer(LOADING_LAYER_POS, loadingLayer);
+
 		// Add the helper line if requested via settings.
 		if (appSettings.hasHelperline()) {
 			HelperLineLayer helperLineLayer = new HelperLineLayer(this);
@@ -107,7 +146,10 @@ public class VRViewActivity extends GvrActivity {
 
 		// Then we create the read controller which in turn will move the text layer upon the
 		// movement of the head.
-		readController = new HeadGestureReadController(textLayer);
+		final TileRenderer tileRenderer = new TileRenderer(TileCache.withDefaultSize(),
+				DiskTileCache.withDefaultSize(getCacheDir(), bitmapPool),
+				bitmapPool);
+		readController = new HeadGestureReadController(textLayer, tileRenderer);
 		headController.setHeadGestureReadController(readController);
 
 		// Adapt to the zoom factor.
@@ -115,42 +157,165 @@ public class VRViewActivity extends GvrActivity {
 		readController.setScale(zoomFac);
 		readController.setScrollSpeedFactor(appSettings.getScollspeedFactor());
 
-		// Check how our activity was started. If it was started via our main activity
-		// open the file.
-		if (getIntent().hasExtra(EXTRA_OPEN_URI)) {
+		startupTrace.mark(StartupTrace.Phase.ACTIVITY_CREATED);
+	}
 
-			Uri fileUri = getIntent().getExtras().getParcelable(EXTRA_OPEN_URI);
+	/**
+	 * Check how our activity was started. If it was started via our main activity the file is given as extra,
+	 * otherwise it was started by an intent filter.
+	 *
+	 * @return The URI of the document to open or null if there is none.
+	 */
+	private Uri getFileUri() {
+		if (getIntent().hasExtra(EXTRA_OPEN_URI)) {
+			final Uri fileUri = getIntent().getExtras().getParcelable(EXTRA_OPEN_URI);
 			Log.d(TAG, "Received uri: " + fileUri);
+			return fileUri;
+		}
+
+		Log.d(TAG, "Activity started by external intent. Trying to fetch data.");
+		return getExternalIntentData(getIntent());
+	}
+
+	/**
+	 * Enumerates the sensors in the background, the user is only bothered if a needed one is missing.
+	 */
+	private void startCapabilityCheck() {
+		final CapabilityChecker checker = new CapabilityChecker(this);
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (checker.hasNeededFeatures()) {
+					return;
+				}
+
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (!isFinishing()) {
+							checker.showMissingFeatures();
+						}
+					}
+				});
+			}
+		}, CapabilityChecker.class.getSimpleName()).start();
+	}
 
-			prepareDatasource(fileUri);
-		} else {
-			// Seems like we where started by a intent filter.
-			Log.d(TAG, "Activity started by external intent. Trying to fetch data.");
+	/**
+	 * Opens the document in the background, the loading layer is shown meanwhile. Afterwards the controller is set up
+	 * on the UI thread and requests the first tiles, which are rendered in the background as well.
+	 *
+	 * @param fileUri The URI of the document.
+	 */
+	private void prepareDatasource(final Uri fileUri) {
+		Log.d(TAG, "Opening URI for datasource.");
 
-			Uri data = getExternalIntentData(getIntent());
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final Datasource ds = openDatasource(fileUri);
+				startupTrace.mark(StartupTrace.Phase.DOCUMENT_OPENED);
+
+				// Posted, so the controller is set up even if the document opened before onCreate finished.
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						showDatasource(ds);
+					}
+				});
+			}
+		}, TAG + "-open").start();
+	}
+
+	/**
+	 * Opens the document. Might take long for big files, so it must not be called on the UI thread.
+	 *
+	 * @param fileUri The URI of the document.
+	 * @return The datasource or null if the document could not be opened.
+	 */
+	private Datasource openDatasource(Uri fileUri) {
+		try {
+			Datasource ds = datasourceFactory.getDatasource(fileUri);
 
-			if (data == null) {
-				Toast.makeText(this, R.string.can_not_open_file, Toast.LENGTH_LONG).show();
-				finish();
+			if (ds instanceof PDFDatasource && appSettings.isContinuousScroll()) {
+				ds = new ContinuousDatasource((PDFDatasource) ds);
 			}
 
-			prepareDatasource(data);
+			return ds;
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Error while opening the document.", e);
+			return null;
 		}
 	}
 
-	private void prepareDatasource(Uri fileUri) {
-		Log.d(TAG, "Opening URI for datasource.");
-
-		final Datasource ds = datasourceFactory.getDatasource(fileUri);
+	/**
+	 * Displays the opened document. Must be called on the UI thread, the layers and the controller are switched on the
+	 * render thread as it reads them while drawing.
+	 *
+	 * @param ds The opened document or null if it could not be opened.
+	 */
+	private void showDatasource(final Datasource ds) {
+		if (isFinishing() || isDestroyed()) {
+			// The activity is gone before the document was shown.
+			if (ds != null) {
+				ds.close();
+			}
+			return;
+		}
 
-		if (ds != null) {
-			readController.setDatasource(ds);
-			readController.gotoPage(0);
-		} else {
+		if (ds == null) {
 			Log.e(TAG, "Can not open the given file URI.");
 			Toast.makeText(this, getText(R.string.can_not_open_file), Toast.LENGTH_SHORT).show();
 			finish();
+			return;
 		}
+
+		// Set here, so it is closed in onDestroy even if the render thread never picks it up.
+		datasource = ds;
+
+		final GlyphLayer glyphLayer = (ds instanceof TextDatasource) ? createGlyphLayer((TextDatasource) ds) : null;
+
+		gvrView.queueEvent(new Runnable() {
+			@Override
+			public void run() {
+				if (glyphLayer != null) {
+					showText(glyphLayer);
+				}
+
+				readController.setDatasource(ds);
+				readController.gotoPage(0);
+			}
+		});
+	}
+
+	/**
+	 * Creates the glyph layer for text documents. The pages are laid out in the background by the layer, it shows an
+	 * empty page until the first one is done.
+	 *
+	 * @param ds The text document.
+	 * @return The new layer.
+	 */
+	private GlyphLayer createGlyphLayer(TextDatasource ds) {
+		final GlyphLayer glyphLayer = new GlyphLayer(this);
+		glyphLayer.setContrastMode(appSettings.getContrast());
+		glyphLayer.setDatasource(ds);
+		return glyphLayer;
+	}
+
+	/**
+	 * Replaces the tile layer with the glyph layer. Must be called on the render thread, where the textures of the tile
+	 * layer are freed.
+	 *
+	 * @param glyphLayer The layer showing the text document.
+	 */
+	private void showText(GlyphLayer glyphLayer) {
+		// No tiles are requested anymore, so the tile layer can give back the tiles it still holds.
+		readController.setGlyphLayer(glyphLayer);
+		textLayer.release();
+
+		renderer.addLayer(0, glyphLayer);
+		loadingLayer.setContentLayer(glyphLayer);
 	}
 
 	/**
@@ -185,7 +350,7 @@ public class VRViewActivity extends GvrActivity {
 			return true;
 		} else if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) {
 			Log.d(TAG, "Volume DOWN was pressed.");
-			readController.gotoPage(0);
+			gotoStart();
 			gvrView.recenterHeadTracker();
 			return true;
 		}
@@ -202,6 +367,21 @@ public class VRViewActivity extends GvrActivity {
 		super.onResume();
 	}
 
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+
+		if (readController != null) {
+			readController.shutdown();
+		}
+
+		// Closed after the controller, so no tile is rendered from it anymore.
+		if (datasource != null) {
+			datasource.close();
+			datasource = null;
+		}
+	}
+
 
 	/**
 	 * Called when the Cardboard trigger is pulled.
@@ -216,6 +396,18 @@ public class VRViewActivity extends GvrActivity {
 	 */
 	public void onJumpStart(View view) {
 		Log.d(TAG, "Resetting view to page 0.");
-		readController.gotoPage(0);
+		gotoStart();
+	}
+
+	/**
+	 * Jumps back to the first page. The controller is moved on the render thread.
+	 */
+	private void gotoStart() {
+		gvrView.queueEvent(new Runnable() {
+			@Override
+			public void run() {
+				readController.gotoPage(0);
+			}
+		});
 	}
 }
@@ -0,0 +1,27 @@
+precision mediump float;		// Set the default precision to medium.
+
+uniform sampler2D u_Texture;	// The signed distance field of the glyphs.
+uniform vec4 u_TextColor;
+uniform vec4 u_BackgroundColor;
+uniform float u_Smoothing;		// Half width of the anti aliased edge in distance units.
+uniform float u_Fill;			// 1: Fill with the background color, 0: Draw glyphs.
+
+varying vec2 v_TexCoordinate;
+varying vec2 v_PlaneCoordinate;
+
+void main()
+{
+	// Glyphs scrolled out of the plane are cut off.
+	vec2 inside = step(vec2(0.0), v_PlaneCoordinate) * step(v_PlaneCoordinate, vec2(1.0));
+	if (inside.x * inside.y < 0.5) {
+		discard;
+	}
+
+	// 0.5 is on the outline of the glyph.
+	float distance = texture2D(u_Texture, v_TexCoordinate).a;
+	float coverage = smoothstep(0.5 - u_Smoothing, 0.5 + u_Smoothing, distance);
+
+	// Glyphs are blended with premultiplied alpha.
+	vec4 textColor = vec4(u_TextColor.rgb * coverage, coverage);
+	gl_FragColor = mix(textColor, u_BackgroundColor, u_Fill);
+}
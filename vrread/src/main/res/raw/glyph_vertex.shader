@@ -0,0 +1,21 @@
+uniform mat4 u_MVPMatrix;			// A constant representing the combined model/view/projection matrix.
+uniform vec2 u_Offset;				// Layout position shown in the upper left corner of the plane.
+uniform float u_Scale;				// Part of the plane covered by one layout unit.
+
+attribute vec4 a_Position;			// Position of the vertex inside the text layout.
+attribute vec2 a_TexCoordinate;		// Texture coordinate inside the glyph atlas.
+
+varying vec2 v_TexCoordinate;		// This will be passed into the fragment shader.
+varying vec2 v_PlaneCoordinate;		// Position on the plane, between 0 and 1 inside of it.
+
+// Upper left corner and extent of the plane, see WorldLayoutData.PLANE_COORDS.
+const vec2 PLANE_ORIGIN = vec2(-2.0, 2.0);
+const vec2 PLANE_EXTENT = vec2(4.0, -4.0);
+
+void main()
+{
+	v_PlaneCoordinate = (a_Position.xy - u_Offset) * u_Scale;
+	gl_Position = u_MVPMatrix * vec4(PLANE_ORIGIN + v_PlaneCoordinate * PLANE_EXTENT, 0.0, 1.0);
+
+	v_TexCoordinate = a_TexCoordinate;
+}
@@ -0,0 +1,35 @@
+precision mediump float;
+
+uniform float u_Progress;			// Position of the moving bar between 0 and 1.
+
+varying vec2 v_TexCoordinate;
+
+const vec4 BACKGROUND = vec4(0.1, 0.1, 0.1, 1.0);
+const vec4 TRACK = vec4(0.3, 0.3, 0.3, 1.0);
+const vec4 BAR = vec4(1.0, 1.0, 1.0, 1.0);
+
+const float TRACK_START = 0.3;
+const float TRACK_END = 0.7;
+const float THICKNESS = 0.02;
+const float BAR_LENGTH = 0.1;
+
+/**
+ * Draws an indeterminate progress bar: a short bar moving along a track in the center of the plane.
+ */
+void main()
+{
+	vec2 uv = v_TexCoordinate;
+
+	if(abs(uv.y - 0.5) > THICKNESS / 2.0 || uv.x < TRACK_START || uv.x > TRACK_END) {
+		gl_FragColor = BACKGROUND;
+		return;
+	}
+
+	float barStart = TRACK_START + u_Progress * (TRACK_END - TRACK_START - BAR_LENGTH);
+
+	if(uv.x >= barStart && uv.x <= barStart + BAR_LENGTH) {
+		gl_FragColor = BAR;
+	} else {
+		gl_FragColor = TRACK;
+	}
+}
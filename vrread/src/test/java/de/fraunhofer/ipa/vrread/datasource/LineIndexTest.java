@@ -0,0 +1,177 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Indexes texts held in memory with a {@link LineIndex}.
+ */
+public class LineIndexTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static LineIndex createIndex(String text, int columns) {
+		return createIndex(text.getBytes(UTF8), columns);
+	}
+
+	private static LineIndex createIndex(byte[] text, int columns) {
+		return new LineIndex(ByteBuffer.wrap(text), columns);
+	}
+
+	private static String getRow(LineIndex index, long row) {
+		final LineIndex.Line line = new LineIndex.Line();
+		assertTrue("Row " + row + " not found", index.findRow(row, line));
+		return index.getRowText(line);
+	}
+
+	private static String repeat(char c, int count) {
+		final char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	@Test
+	public void findsLines() {
+		final LineIndex index = createIndex("first\nsecond\n\nfourth", 80);
+
+		assertEquals("first", getRow(index, 0));
+		assertEquals("second", getRow(index, 1));
+		assertEquals("", getRow(index, 2));
+		assertEquals("fourth", getRow(index, 3));
+		assertFalse(index.findRow(4, new LineIndex.Line()));
+	}
+
+	@Test
+	public void stripsWindowsLineBreaks() {
+		final LineIndex index = createIndex("ab\r\ncd\r\n", 80);
+
+		assertTrue(index.indexLines(10));
+		assertEquals(2, index.getIndexedRowCount());
+		assertEquals("ab", getRow(index, 0));
+		assertEquals("cd", getRow(index, 1));
+	}
+
+	@Test
+	public void wrapsLongLines() {
+		final LineIndex index = createIndex("abcdefghij klm\nn", 5);
+
+		assertEquals("abcde", getRow(index, 0));
+		assertEquals("fghij", getRow(index, 1));
+		assertEquals(" klm", getRow(index, 2));
+		assertEquals("n", getRow(index, 3));
+	}
+
+	@Test
+	public void countsMultiByteCharactersOnce() {
+		final LineIndex index = createIndex("äöüß€", 3);
+
+		assertEquals("äöü", getRow(index, 0));
+		assertEquals("ß€", getRow(index, 1));
+	}
+
+	@Test
+	public void countsInvalidBytesLikeTheDecoder() {
+		final byte[][] texts = {
+				// Stray continuation bytes.
+				{'a', (byte) 0x80, (byte) 0xBF, 'b'},
+				// A sequence cut by an ASCII character.
+				{(byte) 0xE2, (byte) 0x82, 'c'},
+				// Bytes which can not start a sequence next to a valid one.
+				{(byte) 0xF8, (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, (byte) 0xFF}
+		};
+
+		for (byte[] text : texts) {
+			// One column, so every character is one row.
+			final LineIndex index = createIndex(text, 1);
+			final String decoded = new String(text, UTF8);
+
+			assertTrue(index.indexLines(10));
+			assertEquals(decoded.codePointCount(0, decoded.length()), index.getIndexedRowCount());
+		}
+	}
+
+	@Test
+	public void splitsVeryLongLinesIntoSegments() {
+		final int segment = LineIndex.MAX_SEGMENT_BYTES;
+		final int columns = 1000;
+		final LineIndex index = createIndex(repeat('x', 3 * segment + 5), columns);
+
+		assertTrue(index.indexLines(10));
+
+		final long rowsPerSegment = (segment + columns - 1) / columns;
+		assertEquals(3 * rowsPerSegment + 1, index.getIndexedRowCount());
+		assertEquals("xxxxx", getRow(index, 3 * rowsPerSegment));
+	}
+
+	@Test
+	public void doesNotSplitUtf8SequenceAtSegmentBoundary() {
+		final int segment = LineIndex.MAX_SEGMENT_BYTES;
+
+		// The two bytes of the umlaut lie on both sides of the segment boundary.
+		final String text = repeat('a', segment - 1) + "ä" + "bc\n";
+		final LineIndex index = createIndex(text, segment);
+
+		assertTrue(index.indexLines(10));
+		assertEquals(2, index.getIndexedRowCount());
+
+		final String first = getRow(index, 0);
+		assertEquals(segment, first.length());
+		assertTrue(first.endsWith("aä"));
+		assertEquals("bc", getRow(index, 1));
+	}
+
+	@Test
+	public void findsRowsBetweenCheckpoints() {
+		final int lineCount = 10 * LineIndex.LINES_PER_CHECKPOINT + 7;
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < lineCount; i++) {
+			text.append("line ").append(i).append('\n');
+		}
+		final LineIndex index = createIndex(text.toString(), 80);
+
+		final int checkpoint = LineIndex.LINES_PER_CHECKPOINT;
+		for (int row : new int[]{lineCount - 1, 0, checkpoint - 1, checkpoint, checkpoint + 1, 5 * checkpoint + 3}) {
+			assertEquals("line " + row, getRow(index, row));
+		}
+		assertFalse(index.findRow(lineCount, new LineIndex.Line()));
+	}
+
+	@Test
+	public void indexesOnDemand() {
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("row ").append(i).append('\n');
+		}
+		final LineIndex index = createIndex(text.toString(), 80);
+
+		assertFalse(index.indexLines(10));
+		assertEquals(10, index.getIndexedRowCount());
+
+		assertEquals("row 500", getRow(index, 500));
+		assertTrue(index.getIndexedRowCount() > 500);
+		assertFalse(index.isComplete());
+	}
+
+	@Test
+	public void estimatesRowsFromIndexedPart() {
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("0123456789\n");
+		}
+		final LineIndex index = createIndex(text.toString(), 80);
+
+		index.indexLines(100);
+		assertEquals(1000, index.estimateRowCount());
+
+		index.indexLines(1000);
+		assertTrue(index.isComplete());
+		assertEquals(1000, index.estimateRowCount());
+	}
+}
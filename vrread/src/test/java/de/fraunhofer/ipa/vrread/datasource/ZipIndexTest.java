@@ -0,0 +1,135 @@
+package de.fraunhofer.ipa.vrread.datasource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads archives written by {@link ZipOutputStream} with a {@link ZipIndex}.
+ */
+public class ZipIndexTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File archive;
+	private RandomAccessFile file;
+
+	@Before
+	public void setUp() throws IOException {
+		archive = File.createTempFile("zip-index", ".zip");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (file != null) {
+			file.close();
+		}
+		archive.delete();
+	}
+
+	private ZipIndex openIndex() throws IOException {
+		file = new RandomAccessFile(archive, "r");
+		return new ZipIndex(file.getChannel());
+	}
+
+	private static byte[] createContent(int lines) {
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			content.append("Line ").append(i).append(" of the test content.\n");
+		}
+		return content.toString().getBytes(UTF8);
+	}
+
+	private static void putStored(ZipOutputStream out, String name, byte[] content) throws IOException {
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+
+		final ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(content.length);
+		entry.setCompressedSize(content.length);
+		entry.setCrc(crc.getValue());
+
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private static void putDeflated(ZipOutputStream out, String name, byte[] content) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		out.write(content);
+		out.closeEntry();
+	}
+
+	@Test
+	public void readsCentralDirectory() throws IOException {
+		final byte[] stored = createContent(10);
+		final byte[] deflated = createContent(1000);
+
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+			out.setComment("An archive comment moves the end of the central directory.");
+			out.putNextEntry(new ZipEntry("pages/"));
+			out.closeEntry();
+			putStored(out, "pages/stored.txt", stored);
+			putDeflated(out, "pages/deflated.txt", deflated);
+			putDeflated(out, "pages/bücher.txt", stored);
+		}
+
+		final List<ZipIndex.Entry> entries = openIndex().getEntries();
+
+		// Directories are left out, the order of the directory is kept.
+		assertEquals(3, entries.size());
+		assertEquals("pages/stored.txt", entries.get(0).getName());
+		assertEquals("pages/deflated.txt", entries.get(1).getName());
+		assertEquals("pages/bücher.txt", entries.get(2).getName());
+
+		assertEquals(stored.length, entries.get(0).getSize());
+		assertEquals(deflated.length, entries.get(1).getSize());
+	}
+
+	@Test
+	public void readsStoredAndDeflatedEntries() throws IOException {
+		final byte[] stored = createContent(10);
+		final byte[] deflated = createContent(1000);
+
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+			putStored(out, "stored.txt", stored);
+			putDeflated(out, "deflated.txt", deflated);
+		}
+
+		final ZipIndex index = openIndex();
+		final List<ZipIndex.Entry> entries = index.getEntries();
+
+		assertArrayEquals(stored, index.read(entries.get(0)));
+		assertArrayEquals(deflated, index.read(entries.get(1)));
+	}
+
+	@Test
+	public void readsEmptyArchive() throws IOException {
+		new ZipOutputStream(new FileOutputStream(archive)).close();
+
+		assertEquals(0, openIndex().getEntries().size());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+		try (FileOutputStream out = new FileOutputStream(archive)) {
+			out.write(createContent(100));
+		}
+
+		openIndex();
+	}
+}